@@ -0,0 +1,117 @@
+package com.hospital.opd.bench;
+
+import com.hospital.opd.OpdApplication;
+import com.hospital.opd.domain.Doctor;
+import com.hospital.opd.domain.Token;
+import com.hospital.opd.dto.BookingRequest;
+import com.hospital.opd.dto.BookingResult;
+import com.hospital.opd.service.ScheduleService;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.time.LocalTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ScheduleService booking and cancellation against an in-memory H2 database, in both allocation
+ * modes. Every iteration starts from fresh slots holding capacity ACTIVE tokens plus
+ * waitlistDepth waitlisted ones.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ScheduleServiceBenchmark {
+
+    @Param({"jpa", "memory"})
+    public String mode;
+
+    @Param({"10", "100"})
+    public int slotCount;
+
+    @Param({"20"})
+    public int capacity;
+
+    @Param({"0", "200"})
+    public int waitlistDepth;
+
+    @Param({"UNIFORM", "WALK_IN_HEAVY"})
+    public SourceMix sourceMix;
+
+    private ConfigurableApplicationContext context;
+    private ScheduleService scheduleService;
+    private final SplittableRandom random = new SplittableRandom(42);
+    private Long[] slotIds;
+    // Live token ids per slot, oldest first
+    private ArrayDeque<Long>[] liveTokens;
+    private long patientSeq;
+
+    @Setup(Level.Trial)
+    public void startContext() {
+        context = new SpringApplicationBuilder(OpdApplication.class)
+                .web(WebApplicationType.NONE)
+                .properties(
+                        "opd.allocation.mode=" + mode,
+                        "opd.simulation.enabled=false",
+                        "spring.datasource.url=jdbc:h2:mem:bench-" + System.nanoTime(),
+                        "spring.jpa.show-sql=false",
+                        "logging.level.root=WARN")
+                .run();
+        scheduleService = context.getBean(ScheduleService.class);
+    }
+
+    @Setup(Level.Iteration)
+    @SuppressWarnings("unchecked")
+    public void createSlots() {
+        Doctor doctor = scheduleService.createDoctor("Dr. Bench", "General");
+        slotIds = new Long[slotCount];
+        liveTokens = new ArrayDeque[slotCount];
+        for (int i = 0; i < slotCount; i++) {
+            slotIds[i] = scheduleService.createSlot(doctor.getId(), LocalTime.of(9, 0), LocalTime.of(10, 0), capacity).getId();
+            List<BookingRequest> prefill = new ArrayList<>(capacity + waitlistDepth);
+            for (int k = 0; k < capacity + waitlistDepth; k++) {
+                prefill.add(request(slotIds[i]));
+            }
+            liveTokens[i] = new ArrayDeque<>();
+            for (BookingResult result : scheduleService.bookTokens(prefill)) {
+                liveTokens[i].add(result.tokenId());
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void stopContext() {
+        context.close();
+    }
+
+    @Benchmark
+    public Token bookToken() {
+        BookingRequest r = request(slotIds[random.nextInt(slotCount)]);
+        return scheduleService.bookToken(r.patientName(), r.contactNumber(), r.userIdNumber(), r.source(), r.slotId());
+    }
+
+    // Cancels the slot's oldest live token (usually ACTIVE, so a promotion follows) and books a
+    // replacement, keeping the slot at capacity + waitlistDepth tokens
+    @Benchmark
+    public Token cancelAndRebook() {
+        int slot = random.nextInt(slotCount);
+        scheduleService.cancelToken(liveTokens[slot].poll());
+        BookingRequest r = request(slotIds[slot]);
+        Token token = scheduleService.bookToken(r.patientName(), r.contactNumber(), r.userIdNumber(), r.source(), r.slotId());
+        liveTokens[slot].add(token.getId());
+        return token;
+    }
+
+    private BookingRequest request(Long slotId) {
+        long n = patientSeq++;
+        return new BookingRequest("Patient " + n, "555-" + n, "ID" + n, sourceMix.pick(random), slotId);
+    }
+}
@@ -0,0 +1,29 @@
+package com.hospital.opd.bench;
+
+import com.hospital.opd.domain.enums.TokenSource;
+
+import java.util.SplittableRandom;
+
+// Booking traffic shapes; weights are percentages in TokenSource order (EMERGENCY, PAID, FOLLOW_UP, ONLINE, WALK_IN)
+public enum SourceMix {
+    UNIFORM(20, 20, 20, 20, 20),
+    WALK_IN_HEAVY(2, 8, 10, 20, 60),
+    ONLINE_HEAVY(2, 8, 10, 60, 20),
+    EMERGENCY_HEAVY(30, 10, 10, 20, 30);
+
+    private final TokenSource[] table = new TokenSource[100];
+
+    SourceMix(int... weights) {
+        int i = 0;
+        TokenSource[] sources = TokenSource.values();
+        for (int s = 0; s < sources.length; s++) {
+            for (int w = 0; w < weights[s]; w++) {
+                table[i++] = sources[s];
+            }
+        }
+    }
+
+    public TokenSource pick(SplittableRandom random) {
+        return table[random.nextInt(table.length)];
+    }
+}
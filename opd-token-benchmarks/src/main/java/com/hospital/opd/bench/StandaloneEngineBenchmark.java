@@ -0,0 +1,135 @@
+package com.hospital.opd.bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * InteractiveOpdEngine.book/reallocate/handleEmergency. The CLI engine lives in the default
+ * package, so it is driven through method handles; its console output is discarded.
+ * {@code backgroundTokens} are booked once into other doctors' slots that the benchmark never
+ * touches; with per-slot indexing the scores should not move as it grows to a million.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StandaloneEngineBenchmark {
+    private static final long BACKGROUND_SLOT_BASE = 1_000_000L;
+    private static final int BACKGROUND_SLOT_TOKENS = 1_000;
+
+    @Param({"1", "10"})
+    public int slotCount;
+
+    @Param({"20"})
+    public int capacity;
+
+    @Param({"0", "200"})
+    public int waitlistDepth;
+
+    @Param({"UNIFORM", "WALK_IN_HEAVY"})
+    public SourceMix sourceMix;
+
+    @Param({"0", "1000000"})
+    public int backgroundTokens;
+
+    private MethodHandle book;
+    private MethodHandle reallocate;
+    private MethodHandle handleEmergency;
+    private Constructor<?> slotConstructor;
+    private Object[] engineSources;
+    private Map<Long, Object> slots;
+
+    private final SplittableRandom random = new SplittableRandom(42);
+    private PrintStream stdout;
+
+    @Setup(Level.Trial)
+    @SuppressWarnings("unchecked")
+    public void bindEngine() throws Throwable {
+        Class<?> engine = Class.forName("InteractiveOpdEngine");
+        Class<?> sourceType = Class.forName("InteractiveOpdEngine$TokenSource");
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        book = lookup.unreflect(accessible(engine.getDeclaredMethod("book", long.class, String.class, String.class, String.class, sourceType)));
+        reallocate = lookup.unreflect(accessible(engine.getDeclaredMethod("reallocate", long.class)));
+        handleEmergency = lookup.unreflect(accessible(engine.getDeclaredMethod("handleEmergency", long.class, String.class, String.class, String.class)));
+        slotConstructor = Class.forName("InteractiveOpdEngine$TimeSlot").getDeclaredConstructor(long.class, int.class, String.class, String.class);
+        slotConstructor.setAccessible(true);
+        engineSources = sourceType.getEnumConstants();
+        slots = (Map<Long, Object>) staticField(engine, "slots");
+
+        stdout = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+        slots.clear();
+        for (int booked = 0; booked < backgroundTokens; booked += BACKGROUND_SLOT_TOKENS) {
+            long id = BACKGROUND_SLOT_BASE + booked / BACKGROUND_SLOT_TOKENS;
+            slots.put(id, slotConstructor.newInstance(id, capacity, "Dr. Background", "10:00 - 11:00"));
+            for (int k = 0; k < Math.min(BACKGROUND_SLOT_TOKENS, backgroundTokens - booked); k++) {
+                book(id);
+            }
+        }
+    }
+
+    // Replaces only the measured slots; the background slots stay put for the whole trial
+    @Setup(Level.Iteration)
+    public void fillSlots() throws Throwable {
+        for (long id = 1; id <= slotCount; id++) {
+            slots.put(id, slotConstructor.newInstance(id, capacity, "Dr. Bench", "09:00 - 10:00"));
+            for (int k = 0; k < capacity + waitlistDepth; k++) {
+                book(id);
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void restoreStdout() {
+        System.setOut(stdout);
+    }
+
+    @Benchmark
+    public void book() throws Throwable {
+        book(randomSlot());
+    }
+
+    @Benchmark
+    public void reallocate() throws Throwable {
+        reallocate.invoke(randomSlot());
+    }
+
+    @Benchmark
+    public void handleEmergency() throws Throwable {
+        handleEmergency.invoke(randomSlot(), "Emergency", "911", "EMERG");
+    }
+
+    private void book(long slotId) throws Throwable {
+        // Engine enum shares TokenSource's declaration order
+        Object source = engineSources[sourceMix.pick(random).ordinal()];
+        book.invoke(slotId, "Patient", "555", "ID", source);
+    }
+
+    private long randomSlot() {
+        return (long) (random.nextInt(slotCount) + 1);
+    }
+
+    private static Method accessible(Method method) {
+        method.setAccessible(true);
+        return method;
+    }
+
+    private static Object staticField(Class<?> type, String name) throws ReflectiveOperationException {
+        Field field = type.getDeclaredField(name);
+        field.setAccessible(true);
+        return field.get(null);
+    }
+}
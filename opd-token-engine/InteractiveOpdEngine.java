@@ -1,5 +1,4 @@
 import java.util.*;
-import java.util.stream.Collectors;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 
@@ -22,7 +21,7 @@ public class InteractiveOpdEngine {
     // Entities
     static class Token {
         static long idCounter = 1;
-        Long id = idCounter++;
+        final long id;
         String patientName;
         String contactNumber;
         String userIdNumber;
@@ -34,6 +33,7 @@ public class InteractiveOpdEngine {
         LocalDateTime visitedAt;
 
         public Token(String name, String contact, String uid, TokenSource source, long slotId) {
+            this.id = idCounter++;
             this.patientName = name;
             this.contactNumber = contact;
             this.userIdNumber = uid;
@@ -43,6 +43,13 @@ public class InteractiveOpdEngine {
             this.assignedSlotId = slotId;
             this.createdAt = System.nanoTime();
         }
+
+        // Search key that sorts before every real token of this priority
+        private Token(int priority) {
+            this.id = Long.MIN_VALUE;
+            this.priority = priority;
+            this.createdAt = Long.MIN_VALUE;
+        }
         
         @Override
         public String toString() {
@@ -52,23 +59,61 @@ public class InteractiveOpdEngine {
         }
     }
 
+    // Each slot indexes its own tokens, so no operation has to scan other slots or finished tokens
     static class TimeSlot {
-        Long id;
-        int capacity;
-        String doctorName;
-        String timeRange;
+        final long id;
+        final int capacity;
+        final String doctorName;
+        final String timeRange;
+        // Status buckets: a token sits in the bucket matching its status
+        final TreeSet<Token> active = new TreeSet<>(TimeSlot::queueOrder);
+        final TreeSet<Token> waitlist = new TreeSet<>(TimeSlot::queueOrder);
+        final List<Token> visited = new ArrayList<>();
+        int closed;
         
-        public TimeSlot(Long id, int capacity, String doctorName, String timeRange) {
+        public TimeSlot(long id, int capacity, String doctorName, String timeRange) {
             this.id = id;
             this.capacity = capacity;
             this.doctorName = doctorName;
             this.timeRange = timeRange;
         }
+
+        // Priority value ascending (EMERGENCY first), then arrival
+        static int queueOrder(Token t1, Token t2) {
+            if (t1.priority != t2.priority) return Integer.compare(t1.priority, t2.priority);
+            if (t1.createdAt != t2.createdAt) return Long.compare(t1.createdAt, t2.createdAt);
+            return Long.compare(t1.id, t2.id);
+        }
+
+        void add(Token t) {
+            switch (t.status) {
+                case ACTIVE -> active.add(t);
+                case CREATED, RESCHEDULED -> waitlist.add(t);
+                case VISITED -> visited.add(t);
+                default -> closed++;
+            }
+        }
+
+        void move(Token t, TokenStatus newStatus) {
+            switch (t.status) {
+                case ACTIVE -> active.remove(t);
+                case CREATED, RESCHEDULED -> waitlist.remove(t);
+                default -> { }
+            }
+            t.status = newStatus;
+            add(t);
+        }
+
+        // Earliest arrival among the lowest-priority active tokens
+        Token bumpCandidate() {
+            if (active.isEmpty()) return null;
+            return active.ceiling(new Token(active.last().priority));
+        }
     }
 
     // State
-    static Map<Long, TimeSlot> slots = new HashMap<>();
-    static List<Token> allTokens = new ArrayList<>();
+    static Map<Long, TimeSlot> slots = new LinkedHashMap<>();
+    static long slotIdCounter = 1;
     static Scanner scanner = new Scanner(System.in);
 
     public static void main(String[] args) {
@@ -77,50 +122,43 @@ public class InteractiveOpdEngine {
         System.out.println("==========================================");
 
         // Setup initial slot
-        long defaultSlotId = 1L;
-        
-        System.out.print("\nInitialize System - Enter Doctor Name: ");
-        String docName = scanner.nextLine();
-        if (docName.trim().isEmpty()) docName = "Dr. Default";
-        
-        System.out.print("Enter Slot Capacity for " + docName + " (e.g., 3): ");
-        int cap = 3;
-        try {
-            String input = scanner.nextLine();
-            cap = Integer.parseInt(input);
-        } catch (Exception e) {}
-        System.out.print("Enter Time Slot (e.g., 09:00 - 10:00): ");
-        String timeRange = scanner.nextLine();
-        if (timeRange.trim().isEmpty()) timeRange = "09:00 - 10:00";
-        
-        slots.put(defaultSlotId, new TimeSlot(defaultSlotId, cap, docName, timeRange));
-        System.out.println(">> Created Slot #1 for " + docName + " (" + timeRange + ") with Capacity: " + cap);
+        System.out.print("\nInitialize System - ");
+        long currentSlotId = createSlotFlow();
 
         while (true) {
-            System.out.println("\n---------------- MENU ----------------");
+            TimeSlot current = slots.get(currentSlotId);
+            System.out.println("\n---------------- MENU ---------------- [Slot #" + current.id + " " + current.doctorName + " " + current.timeRange + "]");
             System.out.println("1. Book Token");
             System.out.println("2. View Schedule");
             System.out.println("3. Patient Visit (Mark Completed)");
             System.out.println("4. View Visited History");
-            System.out.println("5. Exit");
+            System.out.println("5. Add Slot");
+            System.out.println("6. Switch Slot");
+            System.out.println("7. Exit");
             System.out.print("Select Option: ");
 
             String choice = scanner.nextLine();
 
             switch (choice) {
                 case "1":
-                    bookFlow(defaultSlotId);
+                    bookFlow(currentSlotId);
                     break;
                 case "2":
-                    printSlotState(defaultSlotId);
+                    printSlotState(currentSlotId);
                     break;
                 case "3":
-                    visitFlow(defaultSlotId);
+                    visitFlow(currentSlotId);
                     break;
                 case "4":
-                    printVisitedHistory(defaultSlotId);
+                    printVisitedHistory(currentSlotId);
                     break;
                 case "5":
+                    currentSlotId = createSlotFlow();
+                    break;
+                case "6":
+                    currentSlotId = switchSlotFlow(currentSlotId);
+                    break;
+                case "7":
                     System.out.println("Exiting...");
                     return;
                 default:
@@ -129,7 +167,42 @@ public class InteractiveOpdEngine {
         }
     }
 
-    static void bookFlow(Long slotId) {
+    static long createSlotFlow() {
+        System.out.print("Enter Doctor Name: ");
+        String docName = scanner.nextLine();
+        if (docName.trim().isEmpty()) docName = "Dr. Default";
+        
+        System.out.print("Enter Slot Capacity for " + docName + " (e.g., 3): ");
+        int cap = 3;
+        try {
+            String input = scanner.nextLine();
+            cap = Integer.parseInt(input);
+        } catch (Exception e) {}
+        System.out.print("Enter Time Slot (e.g., 09:00 - 10:00): ");
+        String timeRange = scanner.nextLine();
+        if (timeRange.trim().isEmpty()) timeRange = "09:00 - 10:00";
+        
+        long slotId = slotIdCounter++;
+        slots.put(slotId, new TimeSlot(slotId, cap, docName, timeRange));
+        System.out.println(">> Created Slot #" + slotId + " for " + docName + " (" + timeRange + ") with Capacity: " + cap);
+        return slotId;
+    }
+
+    static long switchSlotFlow(long currentSlotId) {
+        System.out.println("Slots:");
+        for (TimeSlot s : slots.values()) {
+            System.out.println("  " + s.id + ". " + s.doctorName + " [" + s.timeRange + "] (" + s.active.size() + "/" + s.capacity + ", waitlist " + s.waitlist.size() + ")");
+        }
+        System.out.print("Slot #: ");
+        try {
+            long slotId = Long.parseLong(scanner.nextLine().trim());
+            if (slots.containsKey(slotId)) return slotId;
+        } catch (Exception e) {}
+        System.out.println("Invalid choice.");
+        return currentSlotId;
+    }
+
+    static void bookFlow(long slotId) {
         System.out.print("Enter Patient Name: ");
         String name = scanner.nextLine();
         
@@ -156,16 +229,13 @@ public class InteractiveOpdEngine {
         book(slotId, name, contact, uid, source);
     }
 
-    static void book(Long slotId, String name, String contact, String uid, TokenSource source) {
+    static void book(long slotId, String name, String contact, String uid, TokenSource source) {
         TimeSlot slot = slots.get(slotId);
-        long activeCount = allTokens.stream()
-                .filter(t -> t.assignedSlotId == slotId && t.status == TokenStatus.ACTIVE)
-                .count();
 
-        if (activeCount < slot.capacity) {
+        if (slot.active.size() < slot.capacity) {
             Token t = new Token(name, contact, uid, source, slotId);
             t.status = TokenStatus.ACTIVE;
-            allTokens.add(t);
+            slot.add(t);
             System.out.println(">> SUCCESS: Token Generated. Status: ACTIVE");
         } else {
             // Full
@@ -174,48 +244,43 @@ public class InteractiveOpdEngine {
             } else {
                 Token t = new Token(name, contact, uid, source, slotId);
                 t.status = TokenStatus.CREATED;
-                allTokens.add(t);
+                slot.add(t);
                 System.out.println(">> SLOT FULL: Added to WAITLIST. Status: CREATED");
             }
         }
     }
 
-    static void handleEmergency(Long slotId, String name, String contact, String uid) {
+    static void handleEmergency(long slotId, String name, String contact, String uid) {
+        TimeSlot slot = slots.get(slotId);
         // Find lowest priority active token
-        List<Token> activeTokens = allTokens.stream()
-                .filter(t -> t.assignedSlotId == slotId && t.status == TokenStatus.ACTIVE)
-                .sorted((t1, t2) -> Integer.compare(t2.priority, t1.priority)) // Descending priority value (5, 4...)
-                .collect(Collectors.toList());
+        Token victim = slot.bumpCandidate();
 
-        if (activeTokens.isEmpty()) { 
+        if (victim == null) { 
              // Should not happen if full
              return;
         }
 
-        Token victim = activeTokens.get(0);
         if (victim.priority == 1) {
             Token t = new Token(name, contact, uid, TokenSource.EMERGENCY, slotId);
             t.status = TokenStatus.CREATED;
-            allTokens.add(t);
+            slot.add(t);
             System.out.println(">> CRITICAL: All slots occupied by Emergency patients. Added to Waitlist.");
             return;
         }
 
         // Bump
-        victim.status = TokenStatus.RESCHEDULED;
+        slot.move(victim, TokenStatus.RESCHEDULED);
         Token emergency = new Token(name, contact, uid, TokenSource.EMERGENCY, slotId);
         emergency.status = TokenStatus.ACTIVE;
-        allTokens.add(emergency);
+        slot.add(emergency);
         
         System.out.println(">> EMERGENCY OVERRIDE TRIGGERED!");
         System.out.println("   Bumped: " + victim.patientName + " (Moved to WAITLIST/RESCHEDULED)");
         System.out.println("   Active: " + emergency.patientName + " (EMERGENCY)");
     }
 
-    static void visitFlow(Long slotId) {
-        List<Token> active = allTokens.stream()
-            .filter(t -> t.assignedSlotId == slotId && t.status == TokenStatus.ACTIVE)
-            .collect(Collectors.toList());
+    static void visitFlow(long slotId) {
+        List<Token> active = new ArrayList<>(slots.get(slotId).active);
             
         if (active.isEmpty()) {
             System.out.println("No active patients to visit.");
@@ -239,54 +304,41 @@ public class InteractiveOpdEngine {
 
     static void updateStatus(Token t, TokenStatus newStatus) {
         TokenStatus oldStatus = t.status;
-        t.status = newStatus;
-        System.out.println(">> Updated " + t.patientName + " to " + newStatus);
-
         if (oldStatus == TokenStatus.ACTIVE && newStatus == TokenStatus.VISITED) {
             t.visitedAt = LocalDateTime.now();
         }
+        slots.get(t.assignedSlotId).move(t, newStatus);
+        System.out.println(">> Updated " + t.patientName + " to " + newStatus);
 
         if (oldStatus == TokenStatus.ACTIVE && (newStatus == TokenStatus.VISITED || newStatus == TokenStatus.CANCELLED)) {
             reallocate(t.assignedSlotId);
         }
     }
 
-    static void reallocate(Long slotId) {
-        List<Token> candidates = allTokens.stream()
-                .filter(t -> t.assignedSlotId == slotId && (t.status == TokenStatus.CREATED || t.status == TokenStatus.RESCHEDULED))
-                .sorted((t1, t2) -> {
-                    if (t1.priority != t2.priority) return Integer.compare(t1.priority, t2.priority);
-                    return Long.compare(t1.createdAt, t2.createdAt);
-                })
-                .collect(Collectors.toList());
-
-        if (!candidates.isEmpty()) {
-            Token lucky = candidates.get(0);
-            lucky.status = TokenStatus.ACTIVE;
+    static void reallocate(long slotId) {
+        TimeSlot slot = slots.get(slotId);
+        if (!slot.waitlist.isEmpty()) {
+            Token lucky = slot.waitlist.first();
+            slot.move(lucky, TokenStatus.ACTIVE);
             System.out.println(">> SLOT FREED: Promoted " + lucky.patientName + " from Waitlist to ACTIVE.");
         }
     }
 
-    static void printSlotState(Long slotId) {
+    static void printSlotState(long slotId) {
         TimeSlot s = slots.get(slotId);
-        long activeCount = allTokens.stream().filter(t -> t.assignedSlotId == slotId && t.status == TokenStatus.ACTIVE).count();
         
-        System.out.println("\n--- Current Schedule for " + s.doctorName + " [" + s.timeRange + "] (Capacity: " + activeCount + "/" + s.capacity + ") ---");
+        System.out.println("\n--- Current Schedule for " + s.doctorName + " [" + s.timeRange + "] (Capacity: " + s.active.size() + "/" + s.capacity + ") ---");
         System.out.println("[ ACTIVE ]");
-        allTokens.stream().filter(t -> t.assignedSlotId == slotId && t.status == TokenStatus.ACTIVE)
-                .forEach(t -> System.out.println("  " + t));
+        s.active.forEach(t -> System.out.println("  " + t));
         
         System.out.println("[ WAITLIST ]");
-        allTokens.stream().filter(t -> t.assignedSlotId == slotId && (t.status == TokenStatus.CREATED || t.status == TokenStatus.RESCHEDULED))
-                .forEach(t -> System.out.println("  " + t));
+        s.waitlist.forEach(t -> System.out.println("  " + t));
     }
 
-    static void printVisitedHistory(Long slotId) {
+    static void printVisitedHistory(long slotId) {
         System.out.println("\n--- Visited History ---");
-        List<Token> visited = allTokens.stream()
-                .filter(t -> t.assignedSlotId == slotId && t.status == TokenStatus.VISITED)
-                .sorted((t1, t2) -> t1.visitedAt.compareTo(t2.visitedAt))
-                .collect(Collectors.toList());
+        // Appended as patients are marked visited, so already in visit order
+        List<Token> visited = slots.get(slotId).visited;
         
         if (visited.isEmpty()) {
             System.out.println("(No patients have visited yet)");
@@ -1,6 +1,5 @@
 import java.time.LocalTime;
 import java.util.*;
-import java.util.stream.Collectors;
 
 public class SimpleOpdEngine {
 
@@ -16,7 +15,7 @@ public class SimpleOpdEngine {
     // Entities
     static class Token {
         static long idCounter = 1;
-        Long id = idCounter++;
+        final long id;
         String patientName;
         TokenSource source;
         int priority;
@@ -25,6 +24,7 @@ public class SimpleOpdEngine {
         long createdAt;
 
         public Token(String name, TokenSource source, long slotId) {
+            this.id = idCounter++;
             this.patientName = name;
             this.source = source;
             this.priority = source.priority;
@@ -32,6 +32,13 @@ public class SimpleOpdEngine {
             this.assignedSlotId = slotId;
             this.createdAt = System.nanoTime();
         }
+
+        // Search key that sorts before every real token of this priority
+        private Token(int priority) {
+            this.id = Long.MIN_VALUE;
+            this.priority = priority;
+            this.createdAt = Long.MIN_VALUE;
+        }
         
         @Override
         public String toString() {
@@ -39,26 +46,60 @@ public class SimpleOpdEngine {
         }
     }
 
+    // Each slot indexes its own tokens, so no operation has to scan other slots or finished tokens
     static class TimeSlot {
-        Long id;
-        int capacity;
-        List<Token> tokens = new ArrayList<>();
-
-        public TimeSlot(Long id, int capacity) {
+        final long id;
+        final int capacity;
+        // Status buckets: a token sits in the bucket matching its status
+        final TreeSet<Token> active = new TreeSet<>(TimeSlot::queueOrder);
+        final TreeSet<Token> waitlist = new TreeSet<>(TimeSlot::queueOrder);
+        int finished;
+
+        public TimeSlot(long id, int capacity) {
             this.id = id;
             this.capacity = capacity;
         }
+
+        // Priority value ascending (EMERGENCY first), then arrival
+        static int queueOrder(Token t1, Token t2) {
+            if (t1.priority != t2.priority) return Integer.compare(t1.priority, t2.priority);
+            if (t1.createdAt != t2.createdAt) return Long.compare(t1.createdAt, t2.createdAt);
+            return Long.compare(t1.id, t2.id);
+        }
+
+        void add(Token t) {
+            switch (t.status) {
+                case ACTIVE -> active.add(t);
+                case CREATED, RESCHEDULED -> waitlist.add(t);
+                default -> finished++;
+            }
+        }
+
+        void move(Token t, TokenStatus newStatus) {
+            switch (t.status) {
+                case ACTIVE -> active.remove(t);
+                case CREATED, RESCHEDULED -> waitlist.remove(t);
+                default -> { }
+            }
+            t.status = newStatus;
+            add(t);
+        }
+
+        // Earliest arrival among the lowest-priority active tokens
+        Token bumpCandidate() {
+            if (active.isEmpty()) return null;
+            return active.ceiling(new Token(active.last().priority));
+        }
     }
 
     // Database simulation
     static Map<Long, TimeSlot> slots = new HashMap<>();
-    static List<Token> allTokens = new ArrayList<>();
 
     public static void main(String[] args) {
         System.out.println("Running Standalone OPD Engine Simulation...");
 
         // 1. Create Slot with capacity 2
-        Long slotId = 100L;
+        long slotId = 100L;
         slots.put(slotId, new TimeSlot(slotId, 2));
         System.out.println("Created Slot 100 with Capacity 2");
 
@@ -77,8 +118,8 @@ public class SimpleOpdEngine {
         // 5. Patient Visits (Process Emergency)
         System.out.println("\n--- Patient Visits (Reallocation) ---");
         // Assume Patient D (Emergency) visits
-        Token emergencyToken = allTokens.stream()
-                .filter(t -> t.patientName.equals("Patient D") && t.status == TokenStatus.ACTIVE)
+        Token emergencyToken = slots.get(slotId).active.stream()
+                .filter(t -> t.patientName.equals("Patient D"))
                 .findFirst().orElse(null);
         
         if (emergencyToken != null) {
@@ -86,18 +127,24 @@ public class SimpleOpdEngine {
         }
         
         printSlotState(slotId);
+
+        // 6. A second doctor's slot has its own queue
+        System.out.println("\n--- Second Slot ---");
+        long otherSlotId = 200L;
+        slots.put(otherSlotId, new TimeSlot(otherSlotId, 1));
+        System.out.println("Created Slot 200 with Capacity 1");
+        book(otherSlotId, "Patient E", TokenSource.FOLLOW_UP);
+        book(otherSlotId, "Patient F", TokenSource.PAID);
+        printSlotState(otherSlotId);
     }
 
-    static void book(Long slotId, String name, TokenSource source) {
+    static void book(long slotId, String name, TokenSource source) {
         TimeSlot slot = slots.get(slotId);
-        long activeCount = allTokens.stream()
-                .filter(t -> t.assignedSlotId == slotId && t.status == TokenStatus.ACTIVE)
-                .count();
 
-        if (activeCount < slot.capacity) {
+        if (slot.active.size() < slot.capacity) {
             Token t = new Token(name, source, slotId);
             t.status = TokenStatus.ACTIVE;
-            allTokens.add(t);
+            slot.add(t);
             System.out.println("Booked: " + t);
         } else {
             if (source == TokenSource.EMERGENCY) {
@@ -105,52 +152,48 @@ public class SimpleOpdEngine {
             } else {
                 Token t = new Token(name, source, slotId);
                 t.status = TokenStatus.CREATED; // Waitlist
-                allTokens.add(t);
+                slot.add(t);
                 System.out.println("Waitlisted: " + t);
             }
         }
     }
 
-    static void handleEmergency(Long slotId, String name) {
+    static void handleEmergency(long slotId, String name) {
         // Find lowest priority active token
         // Priority value: 1 (High) to 5 (Low)
         // We want bumping candidate with HIGHEST priority value (Lowest importance)
-        
-        List<Token> activeTokens = allTokens.stream()
-                .filter(t -> t.assignedSlotId == slotId && t.status == TokenStatus.ACTIVE)
-                .sorted((t1, t2) -> Integer.compare(t2.priority, t1.priority)) // Descending by value (5, 4...)
-                .collect(Collectors.toList());
+        TimeSlot slot = slots.get(slotId);
+        Token victim = slot.bumpCandidate();
 
-        if (activeTokens.isEmpty()) {
+        if (victim == null) {
             Token t = new Token(name, TokenSource.EMERGENCY, slotId);
             t.status = TokenStatus.ACTIVE;
-            allTokens.add(t);
+            slot.add(t);
             System.out.println("Emergency Booked (Empty Slot): " + t);
             return;
         }
 
-        Token victim = activeTokens.get(0);
         if (victim.priority == 1) {
             Token t = new Token(name, TokenSource.EMERGENCY, slotId);
             t.status = TokenStatus.CREATED;
-            allTokens.add(t); // Cannot bump emergency
+            slot.add(t); // Cannot bump emergency
             System.out.println("Emergency Waitlisted (Slot full of emergencies): " + t);
             return;
         }
 
         // Bump
-        victim.status = TokenStatus.RESCHEDULED;
+        slot.move(victim, TokenStatus.RESCHEDULED);
         System.out.println("BUMPED: " + victim);
 
         Token emergency = new Token(name, TokenSource.EMERGENCY, slotId);
         emergency.status = TokenStatus.ACTIVE;
-        allTokens.add(emergency);
+        slot.add(emergency);
         System.out.println("Emergency Booked (Bumped): " + emergency);
     }
 
     static void updateStatus(Token t, TokenStatus newStatus) {
         TokenStatus oldStatus = t.status;
-        t.status = newStatus;
+        slots.get(t.assignedSlotId).move(t, newStatus);
         System.out.println("Status Update: " + t.patientName + " -> " + newStatus);
 
         if (oldStatus == TokenStatus.ACTIVE && (newStatus == TokenStatus.VISITED || newStatus == TokenStatus.CANCELLED)) {
@@ -158,33 +201,25 @@ public class SimpleOpdEngine {
         }
     }
 
-    static void reallocate(Long slotId) {
+    static void reallocate(long slotId) {
         // Find best waitlist candidate
         // Candidates: CREATED or RESCHEDULED
-        // Sort by Priority (Ascending Value 1..5) then Creation Time
-        
-        List<Token> candidates = allTokens.stream()
-                .filter(t -> t.assignedSlotId == slotId && (t.status == TokenStatus.CREATED || t.status == TokenStatus.RESCHEDULED))
-                .sorted((t1, t2) -> {
-                    if (t1.priority != t2.priority) return Integer.compare(t1.priority, t2.priority);
-                    return Long.compare(t1.createdAt, t2.createdAt);
-                })
-                .collect(Collectors.toList());
-
-        if (!candidates.isEmpty()) {
-            Token lucky = candidates.get(0);
-            lucky.status = TokenStatus.ACTIVE;
+        // The waitlist is kept sorted by Priority (Ascending Value 1..5) then Creation Time
+        TimeSlot slot = slots.get(slotId);
+
+        if (!slot.waitlist.isEmpty()) {
+            Token lucky = slot.waitlist.first();
+            slot.move(lucky, TokenStatus.ACTIVE);
             System.out.println("Reallocated (Promoted): " + lucky);
         }
     }
 
-    static void printSlotState(Long slotId) {
+    static void printSlotState(long slotId) {
         System.out.println("\n[Slot State]");
+        TimeSlot slot = slots.get(slotId);
         System.out.println("ACTIVE:");
-        allTokens.stream().filter(t -> t.assignedSlotId == slotId && t.status == TokenStatus.ACTIVE)
-                .forEach(t -> System.out.println("  " + t));
+        slot.active.forEach(t -> System.out.println("  " + t));
         System.out.println("WAITLIST/RESCHEDULED:");
-        allTokens.stream().filter(t -> t.assignedSlotId == slotId && (t.status == TokenStatus.CREATED || t.status == TokenStatus.RESCHEDULED))
-                .forEach(t -> System.out.println("  " + t));
+        slot.waitlist.forEach(t -> System.out.println("  " + t));
     }
 }
@@ -0,0 +1,116 @@
+package com.hospital.opd.admission;
+
+import com.hospital.opd.domain.enums.TokenSource;
+import com.hospital.opd.dto.AdmissionLimit;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A token bucket per {@link TokenSource}, so a burst from one channel (the online portal opening)
+ * is turned away before it reaches the database pool instead of starving the others. EMERGENCY is
+ * never throttled. Limits are per node and can be changed at runtime; a changed limit starts full.
+ */
+@Component
+@EnableConfigurationProperties(AdmissionProperties.class)
+public class AdmissionControl {
+    private final boolean enabled;
+    private final MeterRegistry registry;
+    private final Map<TokenSource, TokenBucket> buckets = new ConcurrentHashMap<>();
+
+    public AdmissionControl(AdmissionProperties properties, MeterRegistry registry) {
+        this.enabled = properties.isEnabled();
+        this.registry = registry;
+        properties.getLimits().forEach((source, limit) -> setLimit(source, limit.getRate(), limit.getBurst()));
+    }
+
+    // 0 when admitted, otherwise nanos until a retry can be
+    public long admit(TokenSource source) {
+        Refusal refusal = admit(Map.of(source, 1)).get(source);
+        return refusal == null ? 0 : refusal.waitNanos();
+    }
+
+    // Bookings per source of one request. Each limited source is charged one permit per booking, all of them or
+    // none; returns the refused sources. EMERGENCY and unlimited sources always pass. More bookings of a source than
+    // its burst are admitted a burst at a time: the first burst when the bucket holds that many, and the rest is
+    // refused with the wait until the next burst's permits are there
+    public Map<TokenSource, Refusal> admit(Map<TokenSource, Integer> bookings) {
+        if (!enabled) {
+            return Map.of();
+        }
+        long now = System.nanoTime();
+        Map<TokenSource, Refusal> refused = new EnumMap<>(TokenSource.class);
+        bookings.forEach((source, count) -> {
+            TokenBucket bucket = source == TokenSource.EMERGENCY ? null : buckets.get(source);
+            if (bucket == null) {
+                return;
+            }
+            int chunk = Math.min(count, bucket.burst());
+            long wait = bucket.tryAcquire(chunk, now);
+            int admitted = wait == 0 ? chunk : 0;
+            if (admitted < count) {
+                if (wait == 0) {
+                    wait = bucket.waitFor(Math.min(count - admitted, bucket.burst()), now);
+                }
+                rejected(source, count - admitted);
+                refused.put(source, new Refusal(admitted, wait));
+            }
+        });
+        return refused;
+    }
+
+    // A rate of 0 lifts the limit
+    public AdmissionLimit setLimit(TokenSource source, double rate, int burst) {
+        if (source == TokenSource.EMERGENCY) {
+            throw new IllegalArgumentException("EMERGENCY bookings are never throttled");
+        }
+        if (!Double.isFinite(rate) || rate < 0 || (rate > 0 && burst < 1)) {
+            throw new IllegalArgumentException("Rate must be a finite number not below 0, and a limited source needs a burst of at least 1");
+        }
+        if (rate == 0) {
+            buckets.remove(source);
+        } else {
+            buckets.put(source, new TokenBucket(rate, burst, System.nanoTime()));
+        }
+        return getLimit(source);
+    }
+
+    public List<AdmissionLimit> getLimits() {
+        List<AdmissionLimit> limits = new ArrayList<>();
+        Arrays.stream(TokenSource.values()).forEach(source -> limits.add(getLimit(source)));
+        return limits;
+    }
+
+    private AdmissionLimit getLimit(TokenSource source) {
+        TokenBucket bucket = buckets.get(source);
+        return bucket == null
+                ? new AdmissionLimit(source, 0, 0, null)
+                : new AdmissionLimit(source, bucket.rate(), bucket.burst(), bucket.available(System.nanoTime()));
+    }
+
+    private void rejected(TokenSource source, int count) {
+        Counter.builder("opd.admission.rejected")
+                .description("Bookings refused by admission control with a retry hint")
+                .tag("source", source.name())
+                .register(registry)
+                .increment(count);
+    }
+
+    // The first admitted bookings of a source were let through; the rest may be retried after waitNanos
+    public record Refusal(int admitted, long waitNanos) {
+    }
+
+    // Whole seconds, at least 1, for a Retry-After header
+    public static long retryAfterSeconds(long waitNanos) {
+        return Math.max(1, (waitNanos + TimeUnit.SECONDS.toNanos(1) - 1) / TimeUnit.SECONDS.toNanos(1));
+    }
+}
@@ -0,0 +1,53 @@
+package com.hospital.opd.admission;
+
+import com.hospital.opd.domain.enums.TokenSource;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.RequiredArgsConstructor;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+
+// Runs in front of ScheduleController and after cluster routing, so a node only counts the bookings it serves itself
+@Component
+@Order(Ordered.LOWEST_PRECEDENCE)
+@RequiredArgsConstructor
+public class AdmissionFilter extends OncePerRequestFilter {
+    private final AdmissionControl admission;
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return !"POST".equals(request.getMethod())
+                || !request.getRequestURI().equals(request.getContextPath() + "/api/schedule/book");
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        TokenSource source = parse(request.getParameter("source"));
+        long wait = source == null ? 0 : admission.admit(source);
+        if (wait == 0) {
+            chain.doFilter(request, response);
+        } else {
+            long seconds = AdmissionControl.retryAfterSeconds(wait);
+            response.setHeader(HttpHeaders.RETRY_AFTER, String.valueOf(seconds));
+            response.sendError(HttpStatus.TOO_MANY_REQUESTS.value(), "Too many " + source + " bookings, retry in " + seconds + " s");
+        }
+    }
+
+    // An unknown source is left for the controller to reject
+    private static TokenSource parse(String source) {
+        try {
+            return source == null ? null : TokenSource.valueOf(source);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+}
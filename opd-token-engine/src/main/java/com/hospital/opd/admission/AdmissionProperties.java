@@ -0,0 +1,25 @@
+package com.hospital.opd.admission;
+
+import com.hospital.opd.domain.enums.TokenSource;
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+@Data
+@ConfigurationProperties(prefix = "opd.admission")
+public class AdmissionProperties {
+    private boolean enabled = true;
+
+    // Starting limits; a source without one is never throttled, and EMERGENCY never is
+    private Map<TokenSource, Limit> limits = new EnumMap<>(TokenSource.class);
+
+    @Data
+    public static class Limit {
+        // Bookings per second, refilled continuously
+        private double rate;
+        // Bookings that may arrive at once after a quiet spell
+        private int burst;
+    }
+}
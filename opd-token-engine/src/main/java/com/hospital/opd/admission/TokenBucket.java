@@ -0,0 +1,52 @@
+package com.hospital.opd.admission;
+
+import java.util.concurrent.TimeUnit;
+
+// Refilled lazily on each call, so an idle bucket costs nothing. The monitor only guards arithmetic, never blocking work
+final class TokenBucket {
+    private final double rate;
+    private final int burst;
+    private double tokens;
+    private long refilledAt;
+
+    TokenBucket(double rate, int burst, long now) {
+        this.rate = rate;
+        this.burst = burst;
+        this.tokens = burst;
+        this.refilledAt = now;
+    }
+
+    double rate() {
+        return rate;
+    }
+
+    int burst() {
+        return burst;
+    }
+
+    // 0 when granted, otherwise nanos until that many permits will be there
+    synchronized long tryAcquire(int permits, long now) {
+        refill(now);
+        long wait = waitFor(permits, now);
+        if (wait == 0) {
+            tokens -= permits;
+        }
+        return wait;
+    }
+
+    // Nanos until that many permits will be there, without taking any
+    synchronized long waitFor(int permits, long now) {
+        refill(now);
+        return tokens >= permits ? 0 : (long) Math.ceil((permits - tokens) / rate * TimeUnit.SECONDS.toNanos(1));
+    }
+
+    synchronized double available(long now) {
+        refill(now);
+        return tokens;
+    }
+
+    private void refill(long now) {
+        tokens = Math.min(burst, tokens + (now - refilledAt) * rate / TimeUnit.SECONDS.toNanos(1));
+        refilledAt = now;
+    }
+}
@@ -0,0 +1,231 @@
+package com.hospital.opd.cluster;
+
+import com.hospital.opd.dto.ClusterView;
+import com.hospital.opd.event.OwnershipChange;
+import com.hospital.opd.repository.DoctorRepository;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.ContextClosedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.http.client.JdkClientHttpRequestFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.RestClient;
+import org.springframework.web.client.RestClientException;
+
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Which node owns which doctor. Members are base URLs placed on a {@link HashRing}; every
+ * membership change bumps the epoch and is pushed to all members, and a node only adopts a view
+ * newer than its own. Starts from {@code opd.cluster.nodes}, catches up with its peers once the
+ * server is up (announcing itself if that view or a peer's lacks it) and leaves on shutdown.
+ * One membership change at a time: two nodes changing it concurrently can reach the same epoch.
+ * Views are pushed with {@link ClusterRouter#CLUSTER_SECRET}; members refuse changes without it.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "opd.cluster.enabled", havingValue = "true")
+public class ClusterMembership {
+    private final DoctorRepository doctorRepository;
+    private final ApplicationEventPublisher events;
+    private final RestClient restClient;
+    private final String self;
+    private final String secret;
+    private final int virtualNodes;
+    private final boolean leaveOnShutdown;
+    // Not synchronized: handing over slots flushes to the database, which would pin a virtual thread's carrier
+    private final ReentrantLock changeLock = new ReentrantLock();
+
+    private volatile State state;
+
+    public ClusterMembership(DoctorRepository doctorRepository, ApplicationEventPublisher events,
+                             RestClient.Builder restClient, MeterRegistry registry,
+                             @Value("${opd.cluster.self:http://localhost:${server.port:8080}}") String self,
+                             @Value("${opd.cluster.nodes:}") List<String> nodes,
+                             @Value("${opd.cluster.virtual-nodes:128}") int virtualNodes,
+                             @Value("${opd.cluster.timeout-ms:2000}") long timeoutMs,
+                             @Value("${opd.cluster.leave-on-shutdown:true}") boolean leaveOnShutdown,
+                             @Value("${opd.cluster.secret:}") String secret) {
+        this.doctorRepository = doctorRepository;
+        this.events = events;
+        JdkClientHttpRequestFactory requestFactory = new JdkClientHttpRequestFactory(HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofMillis(timeoutMs))
+                .build());
+        requestFactory.setReadTimeout(Duration.ofMillis(timeoutMs));
+        this.restClient = restClient.requestFactory(requestFactory).build();
+        this.self = normalize(self);
+        this.secret = secret;
+        this.virtualNodes = virtualNodes;
+        this.leaveOnShutdown = leaveOnShutdown;
+
+        Set<String> members = new LinkedHashSet<>();
+        nodes.stream().filter(n -> !n.isBlank()).map(ClusterMembership::normalize).forEach(members::add);
+        members.add(this.self);
+        ClusterView initial = new ClusterView(0, List.copyOf(members));
+        this.state = new State(initial, new HashRing(initial.members(), virtualNodes));
+
+        Gauge.builder("opd.cluster.members", this, m -> m.state.view().members().size())
+                .description("Nodes in this node's cluster view")
+                .register(registry);
+        Gauge.builder("opd.cluster.epoch", this, m -> m.state.view().epoch())
+                .description("Epoch of this node's cluster view")
+                .register(registry);
+    }
+
+    public String self() {
+        return self;
+    }
+
+    public ClusterView view() {
+        return state.view();
+    }
+
+    public String owner(Long doctorId) {
+        return state.ring().owner(doctorId);
+    }
+
+    public boolean isLocal(Long doctorId) {
+        return self.equals(owner(doctorId));
+    }
+
+    public ClusterView join(String node) {
+        return change(normalize(node), true, false);
+    }
+
+    public ClusterView leave(String node) {
+        return change(normalize(node), false, false);
+    }
+
+    // With force, the view is re-issued under a new epoch even if it already has the node
+    private ClusterView change(String node, boolean add, boolean force) {
+        ClusterView next;
+        Set<String> notify;
+        changeLock.lock();
+        try {
+            ClusterView current = state.view();
+            List<String> members = new ArrayList<>(current.members());
+            if (!force && (add ? members.contains(node) : !members.contains(node))) {
+                return current;
+            }
+            if (add && !members.contains(node)) {
+                members.add(node);
+            } else if (!add) {
+                members.remove(node);
+            }
+            next = new ClusterView(current.epoch() + 1, List.copyOf(members));
+            // A leaving node hears about it too, so it stops serving its doctors
+            notify = new LinkedHashSet<>(current.members());
+            notify.addAll(members);
+            apply(next);
+        } finally {
+            changeLock.unlock();
+        }
+        broadcast(next, notify);
+        return next;
+    }
+
+    // Adopts the view only if it is newer; returns whether it did
+    public boolean apply(ClusterView next) {
+        changeLock.lock();
+        try {
+            State previous = state;
+            if (next.epoch() <= previous.view().epoch()) {
+                return false;
+            }
+            State updated = new State(next, new HashRing(next.members(), virtualNodes));
+            state = updated;
+
+            Set<Long> gained = new HashSet<>();
+            Set<Long> lost = new HashSet<>();
+            for (Long doctorId : doctorRepository.findAllIds()) {
+                boolean was = self.equals(previous.ring().owner(doctorId));
+                boolean is = self.equals(updated.ring().owner(doctorId));
+                if (is && !was) {
+                    gained.add(doctorId);
+                } else if (was && !is) {
+                    lost.add(doctorId);
+                }
+            }
+            log.info("Cluster view {} with {} members {}: gained {} doctors, lost {}",
+                    next.epoch(), next.members().size(), next.members(), gained.size(), lost.size());
+            events.publishEvent(new OwnershipChange(next.epoch(), gained, lost));
+            return true;
+        } finally {
+            changeLock.unlock();
+        }
+    }
+
+    private void broadcast(ClusterView view, Set<String> nodes) {
+        for (String node : nodes) {
+            if (node.equals(self)) {
+                continue;
+            }
+            try {
+                restClient.put().uri(node + "/api/cluster/members")
+                        .header(ClusterRouter.CLUSTER_SECRET, secret)
+                        .body(view)
+                        .retrieve()
+                        .toBodilessEntity();
+            } catch (RestClientException e) {
+                log.warn("Could not send cluster view {} to {}: {}", view.epoch(), node, e.getMessage());
+            }
+        }
+    }
+
+    // Peers may have moved on since the configured list was written: take the newest view any of them
+    // has, and announce this node if that view, or any peer's, is missing it
+    @EventListener(ApplicationReadyEvent.class)
+    public void announce() {
+        boolean missing = false;
+        for (String node : state.view().members()) {
+            if (node.equals(self)) {
+                continue;
+            }
+            try {
+                ClusterView peerView = restClient.get().uri(node + "/api/cluster")
+                        .header(ClusterRouter.CLUSTER_SECRET, secret)
+                        .retrieve()
+                        .body(ClusterView.class);
+                if (peerView != null) {
+                    apply(peerView);
+                    missing |= !peerView.members().contains(self);
+                }
+            } catch (RestClientException e) {
+                log.info("Cluster peer {} not reachable at startup: {}", node, e.getMessage());
+            }
+        }
+        if (missing || !state.view().members().contains(self)) {
+            change(self, true, true);
+        }
+    }
+
+    // Before the web server stops and before the allocator's beans are destroyed, so the handover can still flush
+    @EventListener(ContextClosedEvent.class)
+    public void shutdown() {
+        List<String> members = state.view().members();
+        if (leaveOnShutdown && members.size() > 1 && members.contains(self)) {
+            leave(self);
+        }
+    }
+
+    private static String normalize(String node) {
+        String trimmed = node.trim();
+        return trimmed.endsWith("/") ? trimmed.substring(0, trimmed.length() - 1) : trimmed;
+    }
+
+    private record State(ClusterView view, HashRing ring) {
+    }
+}
@@ -0,0 +1,313 @@
+package com.hospital.opd.cluster;
+
+import com.hospital.opd.dto.BookingRequest;
+import com.hospital.opd.dto.BookingResult;
+import com.hospital.opd.dto.SlotDefinition;
+import com.hospital.opd.repository.TokenRepository;
+import com.hospital.opd.service.ReferenceDataService;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.MediaType;
+import org.springframework.http.client.JdkClientHttpRequestFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.RestClient;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.ConnectException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpConnectTimeoutException;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.StringJoiner;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Sends schedule requests to the node that owns their doctor. A request names its doctor directly,
+ * or through a slot (cached definition) or a token (its slot id in the database). Forwarded
+ * requests carry {@link #FORWARDED_BY} and are always served where they land, so two nodes with
+ * different views during a rebalance never bounce a request between them. Every call to another node
+ * carries {@link #CLUSTER_SECRET}, without which {@link ForwardedHeaderFilter} drops the forwarded header.
+ */
+@Component
+@ConditionalOnProperty(name = "opd.cluster.enabled", havingValue = "true")
+public class ClusterRouter {
+    public static final String FORWARDED_BY = "X-Opd-Forwarded-By";
+    public static final String CLUSTER_SECRET = "X-Opd-Cluster-Secret";
+    private static final String PREFIX = "/api/schedule/";
+    // Set by the JDK client itself, or only meaningful for a single hop
+    private static final Set<String> HOP_BY_HOP = Set.of("connection", "content-length", "expect", "host", "upgrade",
+            "keep-alive", "te", "trailer", "transfer-encoding", "proxy-connection");
+
+    private final ClusterMembership membership;
+    private final ReferenceDataService referenceData;
+    private final TokenRepository tokenRepository;
+    private final MeterRegistry registry;
+    private final HttpClient httpClient;
+    private final RestClient restClient;
+    private final String secret;
+    private final ExecutorService batchSenders = Executors.newVirtualThreadPerTaskExecutor();
+
+    public ClusterRouter(ClusterMembership membership, ReferenceDataService referenceData,
+                         TokenRepository tokenRepository, MeterRegistry registry, RestClient.Builder restClient,
+                         @Value("${opd.cluster.timeout-ms:2000}") long timeoutMs,
+                         @Value("${opd.cluster.secret:}") String secret) {
+        if (secret.isBlank()) {
+            throw new IllegalStateException("opd.cluster.secret must be set on every node when opd.cluster.enabled=true");
+        }
+        this.secret = secret;
+        this.membership = membership;
+        this.referenceData = referenceData;
+        this.tokenRepository = tokenRepository;
+        this.registry = registry;
+        // No read timeout: a forwarded SSE stream stays open as long as its subscriber
+        this.httpClient = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofMillis(timeoutMs))
+                .build();
+        this.restClient = restClient.requestFactory(new JdkClientHttpRequestFactory(httpClient)).build();
+    }
+
+    // The owner if it is another node; null when it is this one or the request is not about a single doctor
+    public String remoteOwner(HttpServletRequest request) {
+        Long doctorId = doctorOf(request);
+        if (doctorId == null) {
+            return null;
+        }
+        String owner = membership.owner(doctorId);
+        return owner == null || owner.equals(membership.self()) ? null : owner;
+    }
+
+    private Long doctorOf(HttpServletRequest request) {
+        String path = request.getRequestURI().substring(request.getContextPath().length());
+        if (!path.startsWith(PREFIX)) {
+            return null;
+        }
+        String[] segments = path.substring(PREFIX.length()).split("/");
+        return switch (segments[0]) {
+            // book/batch is split per owner by bookTokens
+            case "book" -> segments.length == 1 ? doctorOfSlot(parse(request.getParameter("slotId"))) : null;
+            case "slot" -> segments.length == 1
+                    ? parse(request.getParameter("doctorId"))
+                    : doctorOfSlot(parse(segments[1]));
+            case "cancel" -> segments.length == 2 ? doctorOfToken(parse(segments[1])) : null;
+            case "doctor", "locks" -> null;
+            // {doctorId}, {doctorId}/availability, {doctorId}/stream
+            default -> parse(segments[0]);
+        };
+    }
+
+    private Long doctorOfSlot(Long slotId) {
+        return slotId == null ? null : referenceData.findSlot(slotId).map(SlotDefinition::doctorId).orElse(null);
+    }
+
+    // A token booked in memory mode reaches the database only with the next write-behind flush; until
+    // then it is unknown here and the request is served locally
+    private Long doctorOfToken(Long tokenId) {
+        return tokenId == null ? null : tokenRepository.findSlotIdById(tokenId).map(this::doctorOfSlot).orElse(null);
+    }
+
+    private static Long parse(String id) {
+        try {
+            return id == null ? null : Long.valueOf(id);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    // Streams the owner's response back as it arrives, so SSE events pass straight through
+    public void forward(String node, HttpServletRequest request, HttpServletResponse response) throws IOException {
+        Timer.Sample sample = Timer.start(registry);
+        String outcome = "ok";
+        try {
+            HttpResponse<InputStream> upstream = httpClient.send(proxyRequest(node, request),
+                    HttpResponse.BodyHandlers.ofInputStream());
+            response.setStatus(upstream.statusCode());
+            upstream.headers().map().forEach((name, values) -> {
+                if (!HOP_BY_HOP.contains(name.toLowerCase(Locale.ROOT))) {
+                    values.forEach(value -> response.addHeader(name, value));
+                }
+            });
+            try (InputStream body = upstream.body()) {
+                OutputStream out = response.getOutputStream();
+                byte[] buffer = new byte[8192];
+                int read;
+                while ((read = body.read(buffer)) != -1) {
+                    out.write(buffer, 0, read);
+                    out.flush();
+                }
+            }
+        } catch (ConnectException | HttpConnectTimeoutException e) {
+            outcome = "unreachable";
+            response.sendError(HttpServletResponse.SC_BAD_GATEWAY, "Owner node " + node + " is unreachable");
+        } catch (InterruptedException e) {
+            outcome = "interrupted";
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted forwarding to " + node, e);
+        } finally {
+            sample.stop(Timer.builder("opd.cluster.forward")
+                    .description("Requests forwarded to the owning node")
+                    .tag("node", node)
+                    .tag("outcome", outcome)
+                    .register(registry));
+        }
+    }
+
+    private HttpRequest proxyRequest(String node, HttpServletRequest request) {
+        String query = request.getQueryString();
+        HttpRequest.BodyPublisher body;
+        if (request.getContentType() != null && request.getContentType().startsWith(MediaType.APPLICATION_FORM_URLENCODED_VALUE)) {
+            // Reading the routing parameter consumed a form body; send every parameter in the body instead
+            body = HttpRequest.BodyPublishers.ofString(formBody(request.getParameterMap()));
+            query = null;
+        } else if (request.getContentLengthLong() > 0 || request.getHeader("Transfer-Encoding") != null) {
+            body = HttpRequest.BodyPublishers.ofInputStream(() -> {
+                try {
+                    return request.getInputStream();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } else {
+            body = HttpRequest.BodyPublishers.noBody();
+        }
+
+        HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create(node + request.getRequestURI() + (query == null ? "" : "?" + query)))
+                .method(request.getMethod(), body)
+                .header(FORWARDED_BY, membership.self())
+                .header(CLUSTER_SECRET, secret);
+        for (String name : Collections.list(request.getHeaderNames())) {
+            if (!HOP_BY_HOP.contains(name.toLowerCase(Locale.ROOT))) {
+                Collections.list(request.getHeaders(name)).forEach(value -> builder.header(name, value));
+            }
+        }
+        return builder.build();
+    }
+
+    private static String formBody(Map<String, String[]> parameters) {
+        StringJoiner form = new StringJoiner("&");
+        parameters.forEach((name, values) -> {
+            for (String value : values) {
+                form.add(URLEncoder.encode(name, StandardCharsets.UTF_8) + "=" + URLEncoder.encode(value, StandardCharsets.UTF_8));
+            }
+        });
+        return form.toString();
+    }
+
+    // Books each owner's share of the batch on that owner, remote shares in parallel; results keep request order
+    public List<BookingResult> bookTokens(List<BookingRequest> requests, Function<List<BookingRequest>, List<BookingResult>> local) {
+        Map<String, List<Integer>> byNode = new LinkedHashMap<>();
+        for (int i = 0; i < requests.size(); i++) {
+            Long doctorId = doctorOfSlot(requests.get(i).slotId());
+            // Unknown slots fail locally with the usual error
+            String owner = doctorId == null ? membership.self() : membership.owner(doctorId);
+            byNode.computeIfAbsent(owner, n -> new ArrayList<>()).add(i);
+        }
+        if (byNode.size() == 1 && byNode.containsKey(membership.self())) {
+            return local.apply(requests);
+        }
+
+        Map<String, Future<List<BookingResult>>> remote = new LinkedHashMap<>();
+        byNode.forEach((node, indexes) -> {
+            if (!node.equals(membership.self())) {
+                List<BookingRequest> share = indexes.stream().map(requests::get).toList();
+                remote.put(node, batchSenders.submit(() -> restClient.post()
+                        .uri(node + "/api/schedule/book/batch")
+                        .header(FORWARDED_BY, membership.self())
+                        .header(CLUSTER_SECRET, secret)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .body(share)
+                        .retrieve()
+                        .body(new ParameterizedTypeReference<List<BookingResult>>() {
+                        })));
+            }
+        });
+
+        BookingResult[] results = new BookingResult[requests.size()];
+        List<Integer> localIndexes = byNode.get(membership.self());
+        if (localIndexes != null) {
+            merge(results, localIndexes, local.apply(localIndexes.stream().map(requests::get).toList()));
+        }
+        remote.forEach((node, share) -> {
+            List<Integer> indexes = byNode.get(node);
+            try {
+                merge(results, indexes, share.get());
+            } catch (ExecutionException e) {
+                indexes.forEach(i -> results[i] = BookingResult.failed(i, requests.get(i).slotId(),
+                        "Owner node " + node + " failed: " + e.getCause().getMessage()));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted waiting for " + node, e);
+            }
+        });
+        return Arrays.asList(results);
+    }
+
+    // Runs the call on every other member in parallel with local on this one; each answers for the doctors it owns.
+    // A member that fails fails the whole call, which is only meant for requests that are safe to repeat
+    public <T> List<T> postToAllMembers(String pathAndQuery, Class<T> type, Supplier<T> local) {
+        Map<String, Future<T>> remote = new LinkedHashMap<>();
+        for (String node : membership.view().members()) {
+            if (!node.equals(membership.self())) {
+                remote.put(node, batchSenders.submit(() -> restClient.post()
+                        .uri(node + pathAndQuery)
+                        .header(FORWARDED_BY, membership.self())
+                        .header(CLUSTER_SECRET, secret)
+                        .retrieve()
+                        .body(type)));
+            }
+        }
+
+        List<T> results = new ArrayList<>();
+        results.add(local.get());
+        remote.forEach((node, call) -> {
+            try {
+                results.add(call.get());
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("Node " + node + " failed: " + e.getCause().getMessage(), e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted waiting for " + node, e);
+            }
+        });
+        return results;
+    }
+
+    // Shares report indexes within the share; map them back to the caller's positions
+    private static void merge(BookingResult[] results, List<Integer> indexes, List<BookingResult> share) {
+        for (int k = 0; k < indexes.size(); k++) {
+            int i = indexes.get(k);
+            results[i] = share.get(k).at(i);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        batchSenders.shutdown();
+    }
+}
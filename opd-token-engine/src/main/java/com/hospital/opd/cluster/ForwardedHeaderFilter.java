@@ -0,0 +1,85 @@
+package com.hospital.opd.cluster;
+
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletRequestWrapper;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.Set;
+import java.util.TreeSet;
+
+// Runs first, clustered or not: a forwarded request skips routing, so X-Opd-Forwarded-By is only
+// believed from a node that presents opd.cluster.secret. Otherwise both headers are hidden from the rest of the chain
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE)
+public class ForwardedHeaderFilter extends OncePerRequestFilter {
+    private static final String FROM_NODE = ForwardedHeaderFilter.class.getName() + ".fromNode";
+
+    private final byte[] secret;
+
+    public ForwardedHeaderFilter(@Value("${opd.cluster.enabled:false}") boolean clustered,
+                                 @Value("${opd.cluster.secret:}") String secret) {
+        this.secret = clustered && !secret.isBlank() ? secret.getBytes(StandardCharsets.UTF_8) : null;
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return request.getHeader(ClusterRouter.FORWARDED_BY) == null && request.getHeader(ClusterRouter.CLUSTER_SECRET) == null;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        String presented = request.getHeader(ClusterRouter.CLUSTER_SECRET);
+        boolean fromNode = secret != null && presented != null
+                && MessageDigest.isEqual(secret, presented.getBytes(StandardCharsets.UTF_8));
+        if (fromNode) {
+            request.setAttribute(FROM_NODE, Boolean.TRUE);
+        }
+        chain.doFilter(new HiddenHeaders(request, fromNode
+                ? Set.of(ClusterRouter.CLUSTER_SECRET)
+                : Set.of(ClusterRouter.CLUSTER_SECRET, ClusterRouter.FORWARDED_BY)), response);
+    }
+
+    // Whether the request presented opd.cluster.secret; the header itself is hidden by then
+    public static boolean fromNode(HttpServletRequest request) {
+        return Boolean.TRUE.equals(request.getAttribute(FROM_NODE));
+    }
+
+    private static class HiddenHeaders extends HttpServletRequestWrapper {
+        private final Set<String> hidden = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+
+        HiddenHeaders(HttpServletRequest request, Set<String> hidden) {
+            super(request);
+            this.hidden.addAll(hidden);
+        }
+
+        @Override
+        public String getHeader(String name) {
+            return hidden.contains(name) ? null : super.getHeader(name);
+        }
+
+        @Override
+        public Enumeration<String> getHeaders(String name) {
+            return hidden.contains(name) ? Collections.emptyEnumeration() : super.getHeaders(name);
+        }
+
+        @Override
+        public Enumeration<String> getHeaderNames() {
+            return Collections.enumeration(Collections.list(super.getHeaderNames()).stream()
+                    .filter(name -> !hidden.contains(name))
+                    .toList());
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package com.hospital.opd.cluster;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * Consistent-hash ring of node base URLs. Each node sits at {@code virtualNodes} points, so
+ * doctors spread evenly and a join or leave only moves the doctors next to that node's points.
+ * Immutable: every membership change builds a new ring.
+ */
+final class HashRing {
+    private final NavigableMap<Long, String> points = new TreeMap<>();
+    private final List<String> nodes;
+
+    HashRing(Collection<String> nodes, int virtualNodes) {
+        // Sorted so every node builds the same ring from the same members, whatever order they arrived in
+        this.nodes = nodes.stream().distinct().sorted().toList();
+        for (String node : this.nodes) {
+            for (int i = 0; i < virtualNodes; i++) {
+                points.put(hash(node + "#" + i), node);
+            }
+        }
+    }
+
+    List<String> nodes() {
+        return nodes;
+    }
+
+    // Null only for an empty ring
+    String owner(long key) {
+        if (points.isEmpty()) {
+            return null;
+        }
+        Map.Entry<Long, String> point = points.ceilingEntry(mix(key));
+        return (point != null ? point : points.firstEntry()).getValue();
+    }
+
+    // First 8 bytes of MD5, as in ketama
+    private static long hash(String s) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(s.getBytes(StandardCharsets.UTF_8));
+            return ByteBuffer.wrap(digest).getLong();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // SplitMix64 finalizer: consecutive ids land far apart on the ring
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -0,0 +1,41 @@
+package com.hospital.opd.cluster;
+
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+
+// Runs in front of ScheduleController: requests for another node's doctor are forwarded, the rest go through.
+// The forwarded header only reaches this filter from another node (ForwardedHeaderFilter)
+@Component
+@ConditionalOnProperty(name = "opd.cluster.enabled", havingValue = "true")
+@Order(Ordered.LOWEST_PRECEDENCE - 1)
+@RequiredArgsConstructor
+public class RoutingFilter extends OncePerRequestFilter {
+    private final ClusterRouter router;
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return request.getHeader(ClusterRouter.FORWARDED_BY) != null
+                || !request.getRequestURI().startsWith(request.getContextPath() + "/api/schedule/");
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        String owner = router.remoteOwner(request);
+        if (owner == null) {
+            chain.doFilter(request, response);
+        } else {
+            router.forward(owner, request, response);
+        }
+    }
+}
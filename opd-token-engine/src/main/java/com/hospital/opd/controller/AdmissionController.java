@@ -0,0 +1,35 @@
+package com.hospital.opd.controller;
+
+import com.hospital.opd.admission.AdmissionControl;
+import com.hospital.opd.domain.enums.TokenSource;
+import com.hospital.opd.dto.AdmissionLimit;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.List;
+
+@RestController
+@RequestMapping("/api/admission")
+@RequiredArgsConstructor
+public class AdmissionController {
+    private final AdmissionControl admission;
+
+    // Current limit and free permits of every source
+    @GetMapping
+    public List<AdmissionLimit> getLimits() {
+        return admission.getLimits();
+    }
+
+    // Takes effect at once on this node only; rate=0 lifts the limit. EMERGENCY or a bad rate or burst is a 400
+    @PutMapping("/{source}")
+    public AdmissionLimit setLimit(@PathVariable TokenSource source, @RequestParam double rate,
+                                   @RequestParam(defaultValue = "0") int burst) {
+        try {
+            return admission.setLimit(source, rate, burst);
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+        }
+    }
+}
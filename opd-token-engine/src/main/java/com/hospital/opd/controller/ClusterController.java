@@ -0,0 +1,59 @@
+package com.hospital.opd.controller;
+
+import com.hospital.opd.cluster.ClusterMembership;
+import com.hospital.opd.cluster.ClusterRouter;
+import com.hospital.opd.cluster.ForwardedHeaderFilter;
+import com.hospital.opd.dto.ClusterView;
+import jakarta.servlet.http.HttpServletRequest;
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
+
+@RestController
+@RequestMapping("/api/cluster")
+@ConditionalOnProperty(name = "opd.cluster.enabled", havingValue = "true")
+@RequiredArgsConstructor
+public class ClusterController {
+    private final ClusterMembership membership;
+
+    @GetMapping
+    public ClusterView getView() {
+        return membership.view();
+    }
+
+    // Base URL of the node that serves this doctor's requests
+    @GetMapping("/owner/{doctorId}")
+    public String getOwner(@PathVariable Long doctorId) {
+        return membership.owner(doctorId);
+    }
+
+    // Adds a node and pushes the new view to every member; can be sent to any member
+    @PostMapping("/join")
+    public ClusterView join(@RequestParam String node, HttpServletRequest request) {
+        requireSecret(request);
+        return membership.join(node);
+    }
+
+    // Also the way to take a crashed node's doctors over
+    @PostMapping("/leave")
+    public ClusterView leave(@RequestParam String node, HttpServletRequest request) {
+        requireSecret(request);
+        return membership.leave(node);
+    }
+
+    // Membership propagation between nodes; older epochs are ignored
+    @PutMapping("/members")
+    public void updateMembers(@RequestBody ClusterView view, HttpServletRequest request) {
+        requireSecret(request);
+        membership.apply(view);
+    }
+
+    // A membership change moves doctors between nodes and hands over their slots, so it needs opd.cluster.secret
+    private static void requireSecret(HttpServletRequest request) {
+        if (!ForwardedHeaderFilter.fromNode(request)) {
+            throw new ResponseStatusException(HttpStatus.FORBIDDEN, "Missing or wrong " + ClusterRouter.CLUSTER_SECRET);
+        }
+    }
+}
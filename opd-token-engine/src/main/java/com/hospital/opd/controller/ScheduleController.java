@@ -1,51 +1,254 @@
 package com.hospital.opd.controller;
 
+import com.hospital.opd.admission.AdmissionControl;
+import com.hospital.opd.cluster.ClusterRouter;
 import com.hospital.opd.domain.Doctor;
-import com.hospital.opd.domain.TimeSlot;
-import com.hospital.opd.domain.Token;
 import com.hospital.opd.domain.enums.TokenSource;
+import com.hospital.opd.dto.BookingRequest;
+import com.hospital.opd.dto.BookingResult;
+import com.hospital.opd.dto.DoctorAvailability;
+import com.hospital.opd.dto.SlotClosureResult;
+import com.hospital.opd.dto.SlotGenerationResult;
+import com.hospital.opd.dto.SlotTemplateRequest;
+import com.hospital.opd.dto.SlotTemplateView;
+import com.hospital.opd.dto.SlotView;
+import com.hospital.opd.dto.TokenHistory;
+import com.hospital.opd.dto.TokenView;
+import com.hospital.opd.job.NoShowSweeper;
+import com.hospital.opd.job.TokenArchiveJob;
 import com.hospital.opd.service.ScheduleService;
+import com.hospital.opd.service.SlotLockRegistry;
+import com.hospital.opd.service.SlotTemplateService;
+import com.hospital.opd.service.SpilloverMode;
+import com.hospital.opd.service.TokenHistoryService;
 import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
+import java.time.LocalDate;
 import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 
 @RestController
 @RequestMapping("/api/schedule")
 @RequiredArgsConstructor
 public class ScheduleController {
     private final ScheduleService scheduleService;
+    private final SlotTemplateService slotTemplateService;
+    private final TokenHistoryService tokenHistoryService;
+    private final ObjectProvider<TokenArchiveJob> tokenArchiveJob;
+    private final ObjectProvider<NoShowSweeper> noShowSweeper;
+    private final ObjectProvider<ClusterRouter> clusterRouter;
+    private final AdmissionControl admission;
 
     @GetMapping("/{doctorId}")
-    public List<TimeSlot> getDoctorSchedule(@PathVariable Long doctorId) {
+    public List<SlotView> getDoctorSchedule(@PathVariable Long doctorId) {
         return scheduleService.getDoctorSlots(doctorId);
     }
 
+    // Free seats and waitlist per slot; answers 304 while the If-None-Match version is still current
+    @GetMapping("/{doctorId}/availability")
+    public ResponseEntity<DoctorAvailability> getAvailability(@PathVariable Long doctorId, WebRequest request) {
+        DoctorAvailability availability = scheduleService.getAvailability(doctorId);
+        String etag = "\"" + availability.version() + "\"";
+        if (request.checkNotModified(etag)) {
+            return null;
+        }
+        return ResponseEntity.ok().eTag(etag).cacheControl(CacheControl.noCache()).body(availability);
+    }
+
+    // Live token transitions (SSE): a "snapshot" event with current availability, then one "transition" event per change
+    @GetMapping(value = "/{doctorId}/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamDoctor(@PathVariable Long doctorId) {
+        return scheduleService.streamDoctor(doctorId);
+    }
+
+    @GetMapping(value = "/slot/{slotId}/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamSlot(@PathVariable Long slotId) {
+        return scheduleService.streamSlot(slotId);
+    }
+
     @PostMapping("/doctor")
     public Doctor createDoctor(@RequestParam String name, @RequestParam String specialization) {
         return scheduleService.createDoctor(name, specialization);
     }
 
     @PostMapping("/slot")
-    public TimeSlot createSlot(@RequestParam Long doctorId,
+    public SlotView createSlot(@RequestParam Long doctorId,
+                               @RequestParam(required = false) String date,
                                @RequestParam String start,
                                @RequestParam String end,
                                @RequestParam int capacity) {
-        return scheduleService.createSlot(doctorId, LocalTime.parse(start), LocalTime.parse(end), capacity);
+        return SlotView.from(scheduleService.createSlot(doctorId, date == null ? null : LocalDate.parse(date),
+                LocalTime.parse(start), LocalTime.parse(end), capacity));
+    }
+
+    @PostMapping("/{doctorId}/templates")
+    public SlotTemplateView createTemplate(@PathVariable Long doctorId, @RequestBody SlotTemplateRequest request) {
+        return slotTemplateService.createTemplate(doctorId, request);
+    }
+
+    @GetMapping("/{doctorId}/templates")
+    public List<SlotTemplateView> getTemplates(@PathVariable Long doctorId) {
+        return slotTemplateService.getTemplates(doctorId);
+    }
+
+    @DeleteMapping("/templates/{templateId}")
+    public void deleteTemplate(@PathVariable Long templateId) {
+        slotTemplateService.deleteTemplate(templateId);
+    }
+
+    // Expands every template over from..to (inclusive); safe to re-run. Clustered, each node generates its own doctors' slots
+    @PostMapping("/slots/generate")
+    public SlotGenerationResult generateSlots(@RequestParam String from, @RequestParam String to,
+                                              @RequestHeader(name = ClusterRouter.FORWARDED_BY, required = false) String forwardedBy) {
+        LocalDate first = LocalDate.parse(from);
+        LocalDate last = LocalDate.parse(to);
+        ClusterRouter router = clusterRouter.getIfAvailable();
+        if (router == null || forwardedBy != null) {
+            return slotTemplateService.generate(first, last);
+        }
+        return router.postToAllMembers("/api/schedule/slots/generate?from=" + first + "&to=" + last,
+                        SlotGenerationResult.class, () -> slotTemplateService.generate(first, last))
+                .stream()
+                .reduce(SlotGenerationResult::plus)
+                .orElseThrow();
     }
     
+    // A retry with the same Idempotency-Key gets the token of the first request
     @PostMapping("/book")
-    public Token bookToken(@RequestParam String patientName,
-                           @RequestParam String contactNumber,
-                           @RequestParam String userIdNumber,
-                           @RequestParam TokenSource source,
-                           @RequestParam Long slotId) {
-        return scheduleService.bookToken(patientName, contactNumber, userIdNumber, source, slotId);
+    public TokenView bookToken(@RequestParam String patientName,
+                               @RequestParam String contactNumber,
+                               @RequestParam String userIdNumber,
+                               @RequestParam TokenSource source,
+                               @RequestParam Long slotId,
+                               @RequestHeader(name = "Idempotency-Key", required = false) String idempotencyKey) {
+        return TokenView.from(scheduleService.bookToken(idempotencyKey, patientName, contactNumber, userIdNumber, source, slotId));
+    }
+    
+    // Clustered: each owner node books its doctors' share; a forwarded share is booked here. Like single bookings,
+    // a share is admitted per source on the node that books it, after routing. The bookings of a refused source, or
+    // those beyond its burst, fail with a retry hint while the rest (always EMERGENCY) are booked; 429 only when
+    // nothing was admitted
+    @PostMapping("/book/batch")
+    public ResponseEntity<List<BookingResult>> bookTokens(@RequestBody List<BookingRequest> requests,
+                                                          @RequestHeader(name = ClusterRouter.FORWARDED_BY, required = false) String forwardedBy) {
+        ClusterRouter router = clusterRouter.getIfAvailable();
+        if (forwardedBy != null) {
+            // The node that split the batch answers for the whole of it
+            return ResponseEntity.ok(admitAndBook(requests));
+        }
+        List<BookingResult> results = router == null ? admitAndBook(requests) : router.bookTokens(requests, this::admitAndBook);
+
+        long retryAfter = results.stream().map(BookingResult::retryAfter).filter(Objects::nonNull).mapToLong(Long::longValue).max().orElse(0);
+        if (retryAfter == 0) {
+            return ResponseEntity.ok(results);
+        }
+        if (results.stream().allMatch(r -> r.retryAfter() != null)) {
+            return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS).header(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfter)).build();
+        }
+        return ResponseEntity.ok().header(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfter)).body(results);
+    }
+
+    // A source refused in part keeps its first admitted bookings in request order; the rest fail with a retry hint
+    private List<BookingResult> admitAndBook(List<BookingRequest> requests) {
+        Map<TokenSource, Integer> bySource = new EnumMap<>(TokenSource.class);
+        requests.stream().filter(r -> r.source() != null).forEach(r -> bySource.merge(r.source(), 1, Integer::sum));
+        Map<TokenSource, AdmissionControl.Refusal> refused = admission.admit(bySource);
+        if (refused.isEmpty()) {
+            return scheduleService.bookTokens(requests);
+        }
+
+        Map<TokenSource, Integer> seen = new EnumMap<>(TokenSource.class);
+        List<Integer> admitted = new ArrayList<>();
+        BookingResult[] results = new BookingResult[requests.size()];
+        for (int i = 0; i < requests.size(); i++) {
+            BookingRequest r = requests.get(i);
+            AdmissionControl.Refusal refusal = r.source() == null ? null : refused.get(r.source());
+            if (refusal == null || seen.merge(r.source(), 1, Integer::sum) <= refusal.admitted()) {
+                admitted.add(i);
+            } else {
+                long seconds = AdmissionControl.retryAfterSeconds(refusal.waitNanos());
+                results[i] = BookingResult.refused(i, r.slotId(), "Too many " + r.source() + " bookings, retry in " + seconds + " s", seconds);
+            }
+        }
+        if (!admitted.isEmpty()) {
+            List<BookingResult> booked = scheduleService.bookTokens(admitted.stream().map(requests::get).toList());
+            for (int k = 0; k < admitted.size(); k++) {
+                results[admitted.get(k)] = booked.get(k).at(admitted.get(k));
+            }
+        }
+        return Arrays.asList(results);
     }
     
     @DeleteMapping("/cancel/{tokenId}")
     public void cancelToken(@PathVariable Long tokenId) {
         scheduleService.cancelToken(tokenId);
     }
+
+    // Doctor absence: closes the doctor's slots on the date, or the listed slots, and moves their patients to the
+    // nearest open slots of the doctor (rehome=DOCTOR) or specialization; OFF only cancels
+    @PostMapping("/{doctorId}/absence")
+    public SlotClosureResult closeSlots(@PathVariable Long doctorId,
+                                        @RequestParam(required = false) String date,
+                                        @RequestParam(required = false) List<Long> slotIds,
+                                        @RequestParam(defaultValue = "SPECIALIZATION") SpilloverMode rehome) {
+        return scheduleService.closeSlots(doctorId, date == null ? null : LocalDate.parse(date), slotIds, rehome);
+    }
+
+    // Fills any free seats of the slot from its waitlist; returns how many tokens were promoted
+    @PostMapping("/slot/{slotId}/reallocate")
+    public int reallocateSlot(@PathVariable Long slotId) {
+        return scheduleService.reallocateSlot(slotId);
+    }
+
+    // Searches live tokens, then the archive
+    @GetMapping("/history/token/{tokenId}")
+    public TokenHistory getTokenHistory(@PathVariable Long tokenId) {
+        return tokenHistoryService.getToken(tokenId);
+    }
+
+    @GetMapping("/history")
+    public List<TokenHistory> getPatientHistory(@RequestParam String userIdNumber,
+                                                @RequestParam(defaultValue = "50") int limit) {
+        return tokenHistoryService.getPatientHistory(userIdNumber, limit);
+    }
+
+    // Runs the archive job now instead of waiting for its interval; returns how many tokens were moved
+    @PostMapping("/archive")
+    public int archiveTokens() {
+        TokenArchiveJob job = tokenArchiveJob.getIfAvailable();
+        if (job == null) {
+            throw new RuntimeException("Archiving is disabled");
+        }
+        return job.archive();
+    }
+
+    // Runs the no-show sweep now; returns how many tokens were marked NO_SHOW or EXPIRED
+    @PostMapping("/sweep")
+    public int sweepNoShows() {
+        NoShowSweeper sweeper = noShowSweeper.getIfAvailable();
+        if (sweeper == null) {
+            throw new RuntimeException("No-show sweeping is disabled");
+        }
+        return sweeper.sweep();
+    }
+
+    // Per-slot lock wait times, most contended slots first
+    @GetMapping("/locks")
+    public List<SlotLockRegistry.WaitStats> getSlotLockStats() {
+        return scheduleService.getSlotLockStats();
+    }
 }
@@ -0,0 +1,50 @@
+package com.hospital.opd.domain;
+
+import com.hospital.opd.domain.enums.TokenSource;
+import com.hospital.opd.domain.enums.TokenStatus;
+import jakarta.persistence.*;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+
+/**
+ * Cold copy of a terminal token whose slot is in the past, moved out of {@code token} by the archive
+ * job. Written with JDBC only; the slot and doctor are kept as plain ids with the slot's date and
+ * time copied in, so history reads never join the live tables.
+ */
+@Entity
+@Table(name = "token_archive", indexes = {
+        @Index(name = "idx_token_archive_user", columnList = "user_id_number, created_at"),
+        @Index(name = "idx_token_archive_doctor_date", columnList = "doctor_id, slot_date")
+})
+@Data
+@NoArgsConstructor
+public class ArchivedToken {
+    // The token's own id
+    @Id
+    private Long id;
+
+    private String patientName;
+
+    @Enumerated(EnumType.STRING)
+    private TokenSource source;
+
+    private int priority;
+
+    @Enumerated(EnumType.STRING)
+    private TokenStatus status;
+
+    private Long slotId;
+    private Long doctorId;
+    private LocalDate slotDate;
+    private LocalTime startTime;
+
+    private LocalDateTime createdAt;
+    private LocalDateTime archivedAt;
+
+    private String contactNumber;
+    private String userIdNumber;
+}
@@ -0,0 +1,66 @@
+package com.hospital.opd.domain;
+
+import jakarta.persistence.*;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.DayOfWeek;
+import java.time.LocalTime;
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.Set;
+
+// A weekly session of a doctor, cut into equal slots by the slot generator
+@Entity
+@Data
+@NoArgsConstructor
+public class SlotTemplate {
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "slot_template_seq")
+    @SequenceGenerator(name = "slot_template_seq", sequenceName = "slot_template_seq", allocationSize = 50)
+    private Long id;
+
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "doctor_id")
+    private Doctor doctor;
+
+    // One bit per DayOfWeek, Monday = bit 0
+    private int daysOfWeek;
+
+    private LocalTime sessionStart;
+    private LocalTime sessionEnd;
+    private int slotMinutes;
+    private int capacity;
+
+    public SlotTemplate(Doctor doctor, Collection<DayOfWeek> days, LocalTime sessionStart, LocalTime sessionEnd,
+                        int slotMinutes, int capacity) {
+        this.doctor = doctor;
+        this.daysOfWeek = mask(days);
+        this.sessionStart = sessionStart;
+        this.sessionEnd = sessionEnd;
+        this.slotMinutes = slotMinutes;
+        this.capacity = capacity;
+    }
+
+    public boolean runsOn(DayOfWeek day) {
+        return (daysOfWeek & (1 << day.ordinal())) != 0;
+    }
+
+    public Set<DayOfWeek> getDays() {
+        Set<DayOfWeek> days = EnumSet.noneOf(DayOfWeek.class);
+        for (DayOfWeek day : DayOfWeek.values()) {
+            if (runsOn(day)) {
+                days.add(day);
+            }
+        }
+        return days;
+    }
+
+    private static int mask(Collection<DayOfWeek> days) {
+        int mask = 0;
+        for (DayOfWeek day : days) {
+            mask |= 1 << day.ordinal();
+        }
+        return mask;
+    }
+}
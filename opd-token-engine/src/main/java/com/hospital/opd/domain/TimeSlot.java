@@ -4,27 +4,50 @@ import jakarta.persistence.*;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 
+import java.time.LocalDate;
 import java.time.LocalTime;
 
+// A dated slot is unique per doctor, day and start time, which keeps template generation idempotent;
+// undated slots (one implicit clinic day) are not constrained
 @Entity
+@Table(uniqueConstraints = @UniqueConstraint(name = "uk_time_slot_doctor_date_start", columnNames = {"doctor_id", "slot_date", "start_time"}),
+        indexes = @Index(name = "ix_time_slot_date", columnList = "slot_date"))
 @Data
 @NoArgsConstructor
 public class TimeSlot {
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "time_slot_seq")
+    @SequenceGenerator(name = "time_slot_seq", sequenceName = "time_slot_seq", allocationSize = 50)
     private Long id;
 
-    @ManyToOne
+    @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "doctor_id")
     private Doctor doctor;
 
+    // Null for slots created without a date
+    private LocalDate slotDate;
     private LocalTime startTime;
     private LocalTime endTime;
     
     private int maxCapacity;
+
+    // Maintained on every allocation so bookings never have to COUNT(*) the token table
+    private int activeCount;
+    private int waitlistCount;
+
+    // Set when the doctor is absent: the slot takes no bookings and is left out of availability and spillover
+    private boolean closed;
+
+    @Version
+    private Long version;
     
     public TimeSlot(Doctor doctor, LocalTime startTime, LocalTime endTime, int maxCapacity) {
+        this(doctor, null, startTime, endTime, maxCapacity);
+    }
+
+    public TimeSlot(Doctor doctor, LocalDate slotDate, LocalTime startTime, LocalTime endTime, int maxCapacity) {
         this.doctor = doctor;
+        this.slotDate = slotDate;
         this.startTime = startTime;
         this.endTime = endTime;
         this.maxCapacity = maxCapacity;
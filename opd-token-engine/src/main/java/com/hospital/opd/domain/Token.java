@@ -9,11 +9,16 @@ import lombok.NoArgsConstructor;
 import java.time.LocalDateTime;
 
 @Entity
+@Table(indexes = {
+        // Waitlist head lookup: WHERE assigned_slot_id = ? AND status = ? ORDER BY priority, created_at LIMIT n
+        @Index(name = "idx_token_slot_status_priority", columnList = "assigned_slot_id, status, priority, created_at")
+})
 @Data
 @NoArgsConstructor
 public class Token {
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "token_seq")
+    @SequenceGenerator(name = "token_seq", sequenceName = "token_seq", allocationSize = 50)
     private Long id;
 
     private String patientName;
@@ -26,7 +31,7 @@ public class Token {
     @Enumerated(EnumType.STRING)
     private TokenStatus status;
 
-    @ManyToOne
+    @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "assigned_slot_id")
     private TimeSlot assignedSlot;
     
@@ -7,5 +7,11 @@ public enum TokenStatus {
     VISITED,       // Completed
     CANCELLED,     // User cancelled
     NO_SHOW,       // Missed appointment
-    RESCHEDULED    // Bumped by emergency
+    RESCHEDULED,   // Bumped by emergency
+    EXPIRED;       // Still waitlisted when the slot ended
+
+    // No further transitions; such tokens are only history
+    public boolean isTerminal() {
+        return this == VISITED || this == CANCELLED || this == NO_SHOW || this == RESCHEDULED || this == EXPIRED;
+    }
 }
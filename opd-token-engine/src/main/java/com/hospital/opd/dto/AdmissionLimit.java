@@ -0,0 +1,7 @@
+package com.hospital.opd.dto;
+
+import com.hospital.opd.domain.enums.TokenSource;
+
+// rate and burst are 0 for a source that is not throttled; available is then null
+public record AdmissionLimit(TokenSource source, double rate, int burst, Double available) {
+}
@@ -0,0 +1,6 @@
+package com.hospital.opd.dto;
+
+import com.hospital.opd.domain.enums.TokenSource;
+
+public record BookingRequest(String patientName, String contactNumber, String userIdNumber, TokenSource source, Long slotId) {
+}
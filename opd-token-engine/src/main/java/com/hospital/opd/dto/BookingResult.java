@@ -0,0 +1,26 @@
+package com.hospital.opd.dto;
+
+import com.hospital.opd.domain.Token;
+import com.hospital.opd.domain.enums.TokenStatus;
+
+// One entry per submitted booking, in request order; error is set instead of tokenId/status on failure,
+// and retryAfter (seconds) when admission control refused the booking
+public record BookingResult(int index, Long slotId, Long tokenId, TokenStatus status, String error, Long retryAfter) {
+
+    public static BookingResult booked(int index, Token token) {
+        return new BookingResult(index, token.getAssignedSlot().getId(), token.getId(), token.getStatus(), null, null);
+    }
+
+    public static BookingResult failed(int index, Long slotId, String error) {
+        return new BookingResult(index, slotId, null, null, error, null);
+    }
+
+    public static BookingResult refused(int index, Long slotId, String error, long retryAfter) {
+        return new BookingResult(index, slotId, null, null, error, retryAfter);
+    }
+
+    // The same result at another position, for results merged back into a larger batch
+    public BookingResult at(int index) {
+        return new BookingResult(index, slotId, tokenId, status, error, retryAfter);
+    }
+}
@@ -0,0 +1,7 @@
+package com.hospital.opd.dto;
+
+import java.util.List;
+
+// Member base URLs; a node adopts a view only if its epoch is higher than the one it has
+public record ClusterView(long epoch, List<String> members) {
+}
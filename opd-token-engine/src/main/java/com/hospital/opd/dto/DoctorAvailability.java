@@ -0,0 +1,7 @@
+package com.hospital.opd.dto;
+
+import java.util.List;
+
+// Slots in date and start-time order, undated first; version changes whenever any of them does
+public record DoctorAvailability(Long doctorId, long version, List<SlotAvailability> slots) {
+}
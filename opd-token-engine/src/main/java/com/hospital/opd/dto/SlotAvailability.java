@@ -0,0 +1,8 @@
+package com.hospital.opd.dto;
+
+import java.time.LocalDate;
+import java.time.LocalTime;
+
+public record SlotAvailability(Long slotId, LocalDate slotDate, LocalTime startTime, LocalTime endTime, int capacity,
+                               int active, int free, int waitlist) {
+}
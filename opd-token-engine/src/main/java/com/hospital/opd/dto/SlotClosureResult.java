@@ -0,0 +1,16 @@
+package com.hospital.opd.dto;
+
+import com.hospital.opd.domain.enums.TokenSource;
+import com.hospital.opd.domain.enums.TokenStatus;
+
+import java.util.List;
+
+// rehomed got an ACTIVE seat elsewhere, waitlisted joined another slot's waitlist, unplaced are only cancelled
+public record SlotClosureResult(Long doctorId, List<Long> closedSlots, int cancelled, int rehomed, int waitlisted,
+                                int unplaced, long millis, List<Rehoming> tokens) {
+
+    // One per cancelled token, highest priority first; slotId/newTokenId/status describe the new booking, error why there is none
+    public record Rehoming(Long tokenId, String userIdNumber, TokenSource source, Long slotId, Long newTokenId,
+                           TokenStatus status, String error) {
+    }
+}
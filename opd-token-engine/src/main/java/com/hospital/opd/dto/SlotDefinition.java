@@ -0,0 +1,9 @@
+package com.hospital.opd.dto;
+
+import java.time.LocalDate;
+import java.time.LocalTime;
+
+// The parts of a TimeSlot that do not change once it is created; its counters are read live
+public record SlotDefinition(Long slotId, Long doctorId, String specialization,
+                             LocalDate slotDate, LocalTime startTime, LocalTime endTime, int maxCapacity) {
+}
@@ -0,0 +1,13 @@
+package com.hospital.opd.dto;
+
+import java.time.LocalDate;
+
+// existing counts template slots that were already there (from an earlier run or created by hand) and were skipped
+public record SlotGenerationResult(LocalDate from, LocalDate to, int templates, int created, int existing, long millis) {
+
+    // Clustered, each node reports on its own doctors; the call took as long as the slowest node
+    public SlotGenerationResult plus(SlotGenerationResult other) {
+        return new SlotGenerationResult(from, to, templates + other.templates, created + other.created,
+                existing + other.existing, Math.max(millis, other.millis));
+    }
+}
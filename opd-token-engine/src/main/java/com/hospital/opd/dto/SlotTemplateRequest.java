@@ -0,0 +1,10 @@
+package com.hospital.opd.dto;
+
+import java.time.DayOfWeek;
+import java.time.LocalTime;
+import java.util.Set;
+
+// One weekly session: slotMinutes-long slots from sessionStart until no whole slot fits before sessionEnd
+public record SlotTemplateRequest(Set<DayOfWeek> days, LocalTime sessionStart, LocalTime sessionEnd,
+                                  int slotMinutes, int capacity) {
+}
@@ -0,0 +1,16 @@
+package com.hospital.opd.dto;
+
+import com.hospital.opd.domain.SlotTemplate;
+
+import java.time.DayOfWeek;
+import java.time.LocalTime;
+import java.util.Set;
+
+public record SlotTemplateView(Long id, Long doctorId, Set<DayOfWeek> days, LocalTime sessionStart, LocalTime sessionEnd,
+                               int slotMinutes, int capacity) {
+
+    public static SlotTemplateView from(SlotTemplate template) {
+        return new SlotTemplateView(template.getId(), template.getDoctor().getId(), template.getDays(),
+                template.getSessionStart(), template.getSessionEnd(), template.getSlotMinutes(), template.getCapacity());
+    }
+}
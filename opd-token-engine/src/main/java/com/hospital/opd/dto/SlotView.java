@@ -0,0 +1,16 @@
+package com.hospital.opd.dto;
+
+import com.hospital.opd.domain.TimeSlot;
+
+import java.time.LocalDate;
+import java.time.LocalTime;
+
+// Read model of a TimeSlot: the doctor is referenced by id, never loaded
+public record SlotView(Long id, Long doctorId, LocalDate slotDate, LocalTime startTime, LocalTime endTime,
+                       int maxCapacity, int activeCount, int waitlistCount, boolean closed) {
+
+    public static SlotView from(TimeSlot slot) {
+        return new SlotView(slot.getId(), slot.getDoctor().getId(), slot.getSlotDate(), slot.getStartTime(), slot.getEndTime(),
+                slot.getMaxCapacity(), slot.getActiveCount(), slot.getWaitlistCount(), slot.isClosed());
+    }
+}
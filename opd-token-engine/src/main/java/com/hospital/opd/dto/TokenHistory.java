@@ -0,0 +1,14 @@
+package com.hospital.opd.dto;
+
+import com.hospital.opd.domain.enums.TokenSource;
+import com.hospital.opd.domain.enums.TokenStatus;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+
+// A token from either tier; archived tells which one answered
+public record TokenHistory(Long tokenId, String patientName, TokenSource source, TokenStatus status,
+                           Long slotId, Long doctorId, LocalDate slotDate, LocalTime startTime,
+                           LocalDateTime createdAt, String userIdNumber, boolean archived) {
+}
@@ -0,0 +1,18 @@
+package com.hospital.opd.dto;
+
+import com.hospital.opd.domain.Token;
+import com.hospital.opd.domain.enums.TokenSource;
+import com.hospital.opd.domain.enums.TokenStatus;
+
+import java.time.LocalDateTime;
+
+// Booking response: the slot is referenced by id instead of serializing the slot and doctor graph
+public record TokenView(Long id, String patientName, TokenSource source, int priority, TokenStatus status,
+                        Long slotId, LocalDateTime createdAt, String contactNumber, String userIdNumber) {
+
+    public static TokenView from(Token token) {
+        return new TokenView(token.getId(), token.getPatientName(), token.getSource(), token.getPriority(),
+                token.getStatus(), token.getAssignedSlot().getId(), token.getCreatedAt(),
+                token.getContactNumber(), token.getUserIdNumber());
+    }
+}
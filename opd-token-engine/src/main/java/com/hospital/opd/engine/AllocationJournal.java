@@ -0,0 +1,448 @@
+package com.hospital.opd.engine;
+
+import com.hospital.opd.domain.Token;
+import com.hospital.opd.domain.enums.TokenSource;
+import com.hospital.opd.domain.enums.TokenStatus;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * Append-only log of every token transition made by the in-memory engine, written to
+ * memory-mapped segment files. Records are framed as length, CRC32C, payload; a zero length marks
+ * the end of a segment's data and a bad checksum marks a torn write. One flusher thread forces
+ * whatever has been appended since its last pass, so concurrent bookings share a single fsync.
+ * The position {@link TokenWriteBehind} has flushed up to is kept in a small file next to the segments, so a
+ * restart only replays what was not yet in the database; sealed segments before it are deleted.
+ */
+@Slf4j
+@Component
+@ConditionalOnExpression("'${opd.allocation.mode:jpa}' == 'memory' and ${opd.journal.enabled:false}")
+public class AllocationJournal {
+    private static final String PREFIX = "segment-";
+    private static final String SUFFIX = ".journal";
+    private static final String RELEASED = "released";
+    private static final int HEADER = 8;
+    private static final byte BOOKED = 1;
+    private static final byte CHANGED = 2;
+
+    private final Path dir;
+    private final int segmentSize;
+    private final FsyncPolicy fsync;
+    private final long fsyncIntervalMs;
+    private final Timer fsyncTimer;
+    private final DistributionSummary commitSize;
+
+    // Guards everything below; held only for the copy into the mapped buffer, never for a force
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition appended = lock.newCondition();
+    private final Condition durable = lock.newCondition();
+    private final Deque<Segment> sealed = new ArrayDeque<>();
+    private Segment current;
+    // Positions are the segment index in the high 32 bits and the offset in the low 32, so they stay
+    // comparable across restarts and segment deletion
+    private volatile long written;
+    private long forced;
+    private long records;
+    private long forcedRecords;
+    private boolean closed;
+    // Segments holding records at or after this position are kept even once flushed (see pin)
+    private volatile long pinned = Long.MAX_VALUE;
+    // Everything before this position is in the database; written by release only
+    private MappedByteBuffer releasedMark;
+    private volatile long released;
+
+    private List<Recovered> recovered = new ArrayList<>();
+    private final Thread flusher;
+
+    public AllocationJournal(MeterRegistry registry,
+                             @Value("${opd.journal.dir:./journal}") Path dir,
+                             @Value("${opd.journal.segment-size-mb:64}") int segmentSizeMb,
+                             @Value("${opd.journal.fsync:always}") FsyncPolicy fsync,
+                             @Value("${opd.journal.fsync-interval-ms:50}") long fsyncIntervalMs) throws IOException {
+        this.dir = dir;
+        this.segmentSize = segmentSizeMb * 1024 * 1024;
+        this.fsync = fsync;
+        this.fsyncIntervalMs = fsyncIntervalMs;
+        this.fsyncTimer = Timer.builder("opd.journal.fsync")
+                .description("Time to force appended journal records to disk")
+                .register(registry);
+        this.commitSize = DistributionSummary.builder("opd.journal.commit.records")
+                .description("Journal records made durable by one fsync")
+                .register(registry);
+        open();
+        this.flusher = fsync == FsyncPolicy.NONE ? null
+                : Thread.ofPlatform().daemon().name("journal-fsync").start(this::flushLoop);
+    }
+
+    // Scans every segment in order; appends resume after the last intact record
+    private void open() throws IOException {
+        Files.createDirectories(dir);
+        try (FileChannel channel = FileChannel.open(dir.resolve(RELEASED), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            releasedMark = channel.map(FileChannel.MapMode.READ_WRITE, 0, Long.BYTES);
+        }
+        released = releasedMark.getLong(0);
+        List<Path> paths;
+        try (Stream<Path> files = Files.list(dir)) {
+            paths = files.filter(p -> p.getFileName().toString().startsWith(PREFIX)
+                    && p.getFileName().toString().endsWith(SUFFIX)).sorted().toList();
+        }
+
+        for (int i = 0; i < paths.size(); i++) {
+            long index = index(paths.get(i));
+            Segment segment = map(paths.get(i), index, index << 32, (int) Files.size(paths.get(i)));
+            boolean torn = scan(segment);
+            if (i < paths.size() - 1) {
+                sealed.add(segment);
+                if (torn) {
+                    log.warn("Journal segment {} is corrupt after offset {}, skipped the rest", segment.path, segment.offset);
+                }
+            } else {
+                current = segment;
+                if (torn) {
+                    // Zero the torn tail so bytes left from it are never read as records after new appends
+                    log.warn("Journal segment {} has a torn record at offset {}, truncating", segment.path, segment.offset);
+                    for (int p = segment.offset; p < segment.size; p++) {
+                        segment.buffer.put(p, (byte) 0);
+                    }
+                    segment.buffer.force();
+                }
+            }
+        }
+        if (current == null) {
+            current = map(dir.resolve(name(0)), 0, 0, segmentSize);
+        }
+        written = current.base + current.offset;
+        forced = written;
+        log.info("Journal opened in {}: {} segments, {} records read, flushed up to {}", dir, sealed.size() + 1, recovered.size(), released);
+    }
+
+    // Returns true when it stopped at a bad record rather than the end of the data
+    private boolean scan(Segment segment) {
+        MappedByteBuffer buffer = segment.buffer;
+        CRC32C crc = new CRC32C();
+        while (segment.offset + HEADER <= segment.size) {
+            int length = buffer.getInt(segment.offset);
+            if (length == 0) {
+                return false;
+            }
+            if (length < 0 || segment.offset + HEADER + length > segment.size) {
+                return true;
+            }
+            byte[] payload = new byte[length];
+            buffer.get(segment.offset + HEADER, payload);
+            crc.reset();
+            crc.update(payload);
+            if ((int) crc.getValue() != buffer.getInt(segment.offset + 4)) {
+                return true;
+            }
+            recovered.add(new Recovered(segment.base + segment.offset, decode(payload)));
+            segment.offset += HEADER + length;
+        }
+        return false;
+    }
+
+    // Position the database had caught up with when the journal was last open
+    long released() {
+        return released;
+    }
+
+    // Records read at startup that start at or after the given position, oldest first; handed out once
+    List<JournalRecord> recovered(long from) {
+        List<JournalRecord> records = recovered.stream()
+                .filter(r -> r.position() >= from)
+                .map(Recovered::record)
+                .toList();
+        recovered = List.of();
+        return records;
+    }
+
+    // Called under the slot lock, so a slot's records are in transition order
+    public void append(Token token, TokenStatus from) {
+        byte[] payload = encode(token, from == TokenStatus.PENDING);
+        if (HEADER + payload.length > segmentSize) {
+            throw new IllegalArgumentException("Journal record of " + payload.length + " bytes does not fit in a segment");
+        }
+        CRC32C crc = new CRC32C();
+        crc.update(payload);
+
+        lock.lock();
+        try {
+            if (closed) {
+                throw new IllegalStateException("Journal is closed");
+            }
+            if (current.offset + HEADER + payload.length > current.size) {
+                roll();
+            }
+            current.buffer.putInt(current.offset + 4, (int) crc.getValue());
+            current.buffer.put(current.offset + HEADER, payload);
+            // Length last: a record is only visible once it is complete
+            current.buffer.putInt(current.offset, payload.length);
+            current.offset += HEADER + payload.length;
+            written = current.base + current.offset;
+            records++;
+            appended.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // With ALWAYS, blocks until everything appended so far is on disk. Call after releasing the slot lock
+    public void awaitDurable() {
+        if (fsync != FsyncPolicy.ALWAYS) {
+            return;
+        }
+        long target = written;
+        lock.lock();
+        try {
+            while (forced < target && !closed) {
+                durable.awaitUninterruptibly();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long position() {
+        return written;
+    }
+
+    // Everything before position is in the database: a restart replays from there, and sealed segments that
+    // end there are deleted. Called by the write-behind flush only, so the mark needs no lock of its own
+    public void release(long position) {
+        if (position > released) {
+            released = position;
+            releasedMark.putLong(0, position);
+            releasedMark.force();
+        }
+        long upTo = Math.min(position, pinned);
+        List<Segment> obsolete = new ArrayList<>();
+        lock.lock();
+        try {
+            while (!sealed.isEmpty() && sealed.peekFirst().base + sealed.peekFirst().size <= upTo) {
+                obsolete.add(sealed.pollFirst());
+            }
+        } finally {
+            lock.unlock();
+        }
+        for (Segment segment : obsolete) {
+            try {
+                Files.deleteIfExists(segment.path);
+            } catch (IOException e) {
+                log.warn("Could not delete journal segment {}", segment.path, e);
+            }
+        }
+    }
+
+    // Closes the current segment early, so the next release covering it deletes the segment instead
+    // of keeping it as the current one. Used when slots are handed over to another node, unless pinned
+    public void seal() {
+        lock.lock();
+        try {
+            if (current.offset > 0) {
+                roll();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // When the database itself does not survive a restart, records after the last snapshot must
+    // outlive the write-behind flush; a snapshot pins the position it was taken at
+    public void pin(long position) {
+        pinned = position;
+    }
+
+    // Under the lock; rare enough (once per segment) to force the full segment inline
+    private void roll() {
+        current.buffer.force();
+        sealed.add(current);
+        long index = current.index + 1;
+        try {
+            current = map(dir.resolve(name(index)), index, index << 32, segmentSize);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not create journal segment " + index, e);
+        }
+        written = current.base;
+        forcedRecords = records;
+        forced = written;
+        durable.signalAll();
+    }
+
+    // Group commit: each pass forces everything appended while the previous force was running
+    private void flushLoop() {
+        try {
+            while (true) {
+                if (fsync == FsyncPolicy.INTERVAL) {
+                    TimeUnit.MILLISECONDS.sleep(fsyncIntervalMs);
+                }
+                Segment segment;
+                long from;
+                long to;
+                long batch;
+                lock.lock();
+                try {
+                    while (forced == written && !closed) {
+                        appended.await();
+                    }
+                    if (closed) {
+                        return;
+                    }
+                    segment = current;
+                    from = Math.max(forced, segment.base);
+                    to = written;
+                    batch = records - forcedRecords;
+                    forcedRecords = records;
+                } finally {
+                    lock.unlock();
+                }
+
+                fsyncTimer.record(() -> segment.buffer.force((int) (from - segment.base), (int) (to - from)));
+                commitSize.record(batch);
+
+                lock.lock();
+                try {
+                    forced = Math.max(forced, to);
+                    durable.signalAll();
+                } finally {
+                    lock.unlock();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Appends after this fail; the last records are forced whatever the policy
+    @PreDestroy
+    public void close() throws InterruptedException {
+        lock.lock();
+        try {
+            closed = true;
+            current.buffer.force();
+            forced = written;
+            appended.signalAll();
+            durable.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        if (flusher != null) {
+            flusher.join(TimeUnit.SECONDS.toMillis(5));
+        }
+    }
+
+    private static byte[] encode(Token token, boolean booked) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(booked ? 96 : 32);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(booked ? BOOKED : CHANGED);
+            out.writeLong(token.getId());
+            out.writeLong(token.getAssignedSlot().getId());
+            out.writeUTF(token.getStatus().name());
+            if (booked) {
+                out.writeUTF(token.getSource().name());
+                out.writeLong(token.getCreatedAt().toEpochSecond(ZoneOffset.UTC));
+                out.writeInt(token.getCreatedAt().getNano());
+                writeNullable(out, token.getPatientName());
+                writeNullable(out, token.getContactNumber());
+                writeNullable(out, token.getUserIdNumber());
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static JournalRecord decode(byte[] payload) {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload))) {
+            byte kind = in.readByte();
+            long tokenId = in.readLong();
+            long slotId = in.readLong();
+            TokenStatus status = TokenStatus.valueOf(in.readUTF());
+            if (kind != BOOKED) {
+                return JournalRecord.changed(tokenId, slotId, status);
+            }
+            TokenSource source = TokenSource.valueOf(in.readUTF());
+            LocalDateTime createdAt = LocalDateTime.ofEpochSecond(in.readLong(), in.readInt(), ZoneOffset.UTC);
+            return JournalRecord.booked(tokenId, slotId, status, readNullable(in), source, createdAt,
+                    readNullable(in), readNullable(in));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void writeNullable(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readNullable(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static Segment map(Path path, long index, long base, int size) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            // Mapping past the end grows the file with zeros, which read as the end-of-data marker
+            return new Segment(path, index, base, size, channel.map(FileChannel.MapMode.READ_WRITE, 0, size));
+        }
+    }
+
+    private static String name(long index) {
+        return String.format("%s%010d%s", PREFIX, index, SUFFIX);
+    }
+
+    private static long index(Path path) {
+        String name = path.getFileName().toString();
+        return Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+    }
+
+    private record Recovered(long position, JournalRecord record) {
+    }
+
+    private static final class Segment {
+        final Path path;
+        final long index;
+        final long base;
+        final int size;
+        final MappedByteBuffer buffer;
+        int offset;
+
+        Segment(Path path, long index, long base, int size, MappedByteBuffer buffer) {
+            this.path = path;
+            this.index = index;
+            this.base = base;
+            this.size = size;
+            this.buffer = buffer;
+        }
+    }
+}
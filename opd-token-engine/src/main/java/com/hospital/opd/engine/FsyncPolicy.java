@@ -0,0 +1,8 @@
+package com.hospital.opd.engine;
+
+// When AllocationJournal forces appended records to disk
+public enum FsyncPolicy {
+    ALWAYS,    // Callers wait for the group commit that covers their records
+    INTERVAL,  // Forced every fsync-interval-ms; a power loss can drop the last interval
+    NONE       // Left to the OS page cache; survives a process crash, not a power loss
+}
@@ -0,0 +1,518 @@
+package com.hospital.opd.engine;
+
+import com.hospital.opd.cluster.ClusterMembership;
+import com.hospital.opd.domain.TimeSlot;
+import com.hospital.opd.domain.Token;
+import com.hospital.opd.domain.enums.TokenSource;
+import com.hospital.opd.domain.enums.TokenStatus;
+import com.hospital.opd.dto.BookingRequest;
+import com.hospital.opd.event.OwnershipChange;
+import com.hospital.opd.event.TokensArchived;
+import com.hospital.opd.event.TokenTransition;
+import com.hospital.opd.metrics.AllocationMetrics;
+import com.hospital.opd.repository.ArchivedTokenRepository;
+import com.hospital.opd.repository.SlotClosureWriter;
+import com.hospital.opd.repository.TimeSlotRepository;
+import com.hospital.opd.repository.TokenBatchWriter;
+import com.hospital.opd.repository.TokenBatchWriter.SlotCounts;
+import com.hospital.opd.repository.TokenRepository;
+import com.hospital.opd.service.AvailabilityCache;
+import com.hospital.opd.service.EmergencyPolicy;
+import com.hospital.opd.service.SlotLockRegistry;
+import com.hospital.opd.service.TokenAllocator;
+import com.hospital.opd.snapshot.StateSnapshot;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Keeps each slot's ACTIVE set and waitlist in memory and decides allocations without a
+ * database round trip. A slot is loaded from the database the first time it is touched;
+ * after that every change goes to {@link TokenWriteBehind}, and to {@link AllocationJournal} when enabled.
+ * Same allocation rules as {@link com.hospital.opd.service.JpaTokenAllocator}.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "opd.allocation.mode", havingValue = "memory")
+@RequiredArgsConstructor
+public class InMemoryTokenAllocator implements TokenAllocator {
+    private final TimeSlotRepository timeSlotRepository;
+    private final TokenRepository tokenRepository;
+    private final ArchivedTokenRepository archivedTokenRepository;
+    private final TokenBatchWriter tokenBatchWriter;
+    private final TokenWriteBehind writeBehind;
+    private final SlotClosureWriter slotClosureWriter;
+    private final SlotLockRegistry slotLocks;
+    private final AllocationMetrics metrics;
+    private final ApplicationEventPublisher events;
+    private final AvailabilityCache availabilityCache;
+    private final ObjectProvider<AllocationJournal> journalProvider;
+    private final ObjectProvider<ClusterMembership> cluster;
+    // Restores the tables before recovery reads them
+    private final StateSnapshot snapshot;
+
+    @Value("${opd.allocation.emergency-policy:bump}")
+    private EmergencyPolicy emergencyPolicy;
+
+    private final Map<Long, SlotState> slots = new ConcurrentHashMap<>();
+    // Every token of a loaded slot, including terminal ones not yet flushed
+    private final Map<Long, Token> tokens = new ConcurrentHashMap<>();
+    // Ids come from token_seq in blocks, so they never collide with rows Hibernate inserts
+    private final ReentrantLock idLock = new ReentrantLock();
+    private long nextId;
+    private long idLimit;
+    // Highest id replayed from the journal; a sequence that lost its last increments in a crash must not reissue it
+    private long idFloor;
+    private AllocationJournal journal;
+    // Slots of doctors now owned elsewhere whose writes have not committed yet
+    private final Set<Long> handingOver = ConcurrentHashMap.newKeySet();
+
+    // Re-applies journaled transitions the write-behind had not flushed before a crash, then loads
+    // the slots they touched so memory, counters and the availability view all match the journal.
+    // Another node's slots are left alone: their owner flushed them when they were handed over
+    @PostConstruct
+    void recover() {
+        journal = journalProvider.getIfAvailable();
+        List<JournalRecord> records = journal == null ? List.of()
+                : journal.recovered(snapshot.restoredPosition().orElseGet(journal::released));
+        if (records.isEmpty()) {
+            return;
+        }
+        ClusterMembership membership = cluster.getIfAvailable();
+        Map<Long, TimeSlot> slotsById = new HashMap<>();
+        timeSlotRepository.findAllById(records.stream().map(JournalRecord::slotId).distinct().toList()).forEach(slot -> {
+            if (membership == null || membership.isLocal(slot.getDoctor().getId())) {
+                slotsById.put(slot.getId(), slot);
+            }
+        });
+
+        // Latest image per token: full rows for bookings in the journal, status only for older tokens
+        Map<Long, Token> booked = new LinkedHashMap<>();
+        Map<Long, Token> changed = new LinkedHashMap<>();
+        int skipped = 0;
+        for (JournalRecord r : records) {
+            idFloor = Math.max(idFloor, r.tokenId());
+            TimeSlot slot = slotsById.get(r.slotId());
+            if (slot == null) {
+                skipped++;
+                continue;
+            }
+            Token token = booked.get(r.tokenId());
+            if (r.isBooking()) {
+                token = new Token(r.patientName(), r.contactNumber(), r.userIdNumber(), r.source(), slot);
+                token.setId(r.tokenId());
+                token.setCreatedAt(r.createdAt());
+                booked.put(token.getId(), token);
+            } else if (token == null) {
+                token = changed.computeIfAbsent(r.tokenId(), id -> new Token());
+                token.setId(r.tokenId());
+            }
+            token.setStatus(r.status());
+        }
+        if (skipped > 0) {
+            log.warn("Skipped {} journal records for slots missing from the database or owned by another node", skipped);
+        }
+
+        // A crash between a flush and the release of its position replays rows the archiver may have moved since
+        if (!booked.isEmpty()) {
+            archivedTokenRepository.findIdsByIdIn(booked.keySet()).forEach(booked::remove);
+        }
+        if (!booked.isEmpty()) {
+            tokenBatchWriter.mergeAll(new ArrayList<>(booked.values()));
+        }
+        if (!changed.isEmpty()) {
+            tokenBatchWriter.updateStatuses(new ArrayList<>(changed.values()));
+        }
+        slotsById.keySet().forEach(slotId -> slotLocks.withLock(slotId, () -> {
+            SlotState state = slotState(slotId);
+            writeBehind.counters(counts(slotId, state));
+            availabilityCache.update(slotId, state.activeCount(), state.waitlistCount());
+        }));
+        writeBehind.flush();
+        log.info("Replayed {} journal records: {} bookings, {} status changes across {} slots",
+                records.size() - skipped, booked.size(), changed.size(), slotsById.size());
+    }
+
+    // Hands the slots of doctors now owned elsewhere back to the database: in-flight operations finish
+    // under each slot's lock, and the slot's pending writes are flushed and its state dropped before the lock
+    // is released, so the new owner loads current rows. A slot whose flush fails keeps its state and refuses
+    // operations until a retry commits its writes. Their journal records are sealed into a segment the
+    // next successful flush deletes, so a later replay cannot revert what the new owner did
+    @EventListener
+    public void on(OwnershipChange change) {
+        // Back here before a failed handover went through: the kept state is still the current one
+        if (!change.gained().isEmpty()) {
+            handingOver.removeIf(slotId -> {
+                SlotState state = slots.get(slotId);
+                return state != null && change.gained().contains(state.getSlot().getDoctor().getId());
+            });
+        }
+        if (change.lost().isEmpty()) {
+            return;
+        }
+        List<Long> lost = new ArrayList<>();
+        slots.forEach((slotId, state) -> {
+            if (change.lost().contains(state.getSlot().getDoctor().getId())) {
+                lost.add(slotId);
+            }
+        });
+        Set<Long> dropped = handOver(lost);
+        if (journal != null) {
+            journal.seal();
+        }
+        writeBehind.flush();
+        log.info("Handed over {} of {} slots of {} doctors for cluster view {}",
+                dropped.size(), lost.size(), change.lost().size(), change.epoch());
+    }
+
+    // Retries the handovers whose flush failed, at the write-behind's pace
+    @Scheduled(fixedDelayString = "${opd.allocation.write-behind.interval-ms:200}")
+    public void retryHandovers() {
+        if (handingOver.isEmpty()) {
+            return;
+        }
+        Set<Long> dropped = handOver(new ArrayList<>(handingOver));
+        if (!dropped.isEmpty()) {
+            log.info("Handed over {} slots once their writes committed", dropped.size());
+        }
+    }
+
+    // Drops a slot's state only after its writes have committed; until then the new owner would load stale
+    // rows that the re-queued writes later overwrite
+    private Set<Long> handOver(Collection<Long> slotIds) {
+        Set<Long> dropped = new HashSet<>();
+        for (Long slotId : slotIds) {
+            slotLocks.withLock(slotId, () -> {
+                try {
+                    writeBehind.flush(slotId);
+                } catch (RuntimeException e) {
+                    if (handingOver.add(slotId)) {
+                        log.warn("Keeping slot {} until its writes commit", slotId, e);
+                    }
+                    return;
+                }
+                slots.remove(slotId);
+                handingOver.remove(slotId);
+                dropped.add(slotId);
+            });
+        }
+        if (!dropped.isEmpty()) {
+            tokens.values().removeIf(t -> dropped.contains(t.getAssignedSlot().getId()));
+        }
+        return dropped;
+    }
+
+    // Released tokens stay in the map for late cancels; once archived their rows are gone, so drop them too
+    @EventListener
+    public void on(TokensArchived archived) {
+        archived.tokenIds().forEach(id -> tokens.computeIfPresent(id, (key, t) -> t.getStatus().isTerminal() ? null : t));
+    }
+
+    // Every operation looks its slot up under the slot's lock: a handover drops the state under that lock, so
+    // an operation that was waiting for it reloads the slot, or is refused if its doctor moved to another node
+    @Override
+    public Token book(String patientName, String contactNumber, String userIdNumber, TokenSource source, Long slotId) {
+        Token booked = slotLocks.withLock(slotId, () -> {
+            SlotState state = slotState(slotId);
+            checkOpen(state);
+            Token token = new Token(patientName, contactNumber, userIdNumber, source, state.getSlot());
+            allocate(state, token);
+            return token;
+        });
+        awaitDurable();
+        return booked;
+    }
+
+    @Override
+    public Optional<Token> tryBook(String patientName, String contactNumber, String userIdNumber, TokenSource source, Long slotId) {
+        Optional<Token> booked = slotLocks.withLock(slotId, () -> {
+            SlotState state = slotState(slotId);
+            if (state.getSlot().isClosed() || !state.hasCapacity()) {
+                return Optional.<Token>empty();
+            }
+            Token token = new Token(patientName, contactNumber, userIdNumber, source, state.getSlot());
+            allocate(state, token);
+            return Optional.of(token);
+        });
+        booked.ifPresent(t -> awaitDurable());
+        return booked;
+    }
+
+    @Override
+    public List<Token> bookAll(Long slotId, List<BookingRequest> requests) {
+        List<Token> booked = new ArrayList<>(requests.size());
+        slotLocks.withLock(slotId, () -> {
+            SlotState state = slotState(slotId);
+            checkOpen(state);
+            for (BookingRequest r : requests) {
+                Token token = new Token(r.patientName(), r.contactNumber(), r.userIdNumber(), r.source(), state.getSlot());
+                allocate(state, token);
+                booked.add(token);
+            }
+        });
+        awaitDurable();
+        return booked;
+    }
+
+    private static void checkOpen(SlotState state) {
+        if (state.getSlot().isClosed()) {
+            throw new RuntimeException("Slot is closed");
+        }
+    }
+
+    private void allocate(SlotState state, Token token) {
+        token.setId(nextTokenId());
+        Token bumped = null;
+        if (state.hasCapacity()) {
+            token.setStatus(TokenStatus.ACTIVE);
+            state.addActive(token);
+        } else if (token.getSource() == TokenSource.EMERGENCY) {
+            // Slot full: emergency takes the lowest-priority patient's seat, or overrides capacity
+            Token victim = emergencyPolicy == EmergencyPolicy.BUMP ? state.bumpCandidate(token.getPriority()) : null;
+            if (victim != null) {
+                // Keeps its createdAt, so it waits ahead of equal-priority patients who booked after it
+                state.remove(victim);
+                victim.setStatus(TokenStatus.WAITLIST);
+                state.addWaitlist(victim);
+                writeBehind.updated(victim);
+                metrics.bumped(victim.getSource());
+                bumped = victim;
+            } else {
+                metrics.overbooked(token.getSource());
+            }
+            token.setStatus(TokenStatus.ACTIVE);
+            state.addActive(token);
+        } else {
+            token.setStatus(TokenStatus.WAITLIST);
+            state.addWaitlist(token);
+        }
+        tokens.put(token.getId(), token);
+        writeBehind.inserted(token);
+        changed(state, token, TokenStatus.PENDING);
+        if (bumped != null) {
+            changed(state, bumped, TokenStatus.ACTIVE);
+        }
+    }
+
+    // Called under the slot lock, after the state reflects the change. The counters are queued before the
+    // record is journaled, so a flush that covers the record also writes the counts that go with it
+    private void changed(SlotState state, Token token, TokenStatus from) {
+        writeBehind.counters(counts(state.getSlot().getId(), state));
+        if (journal != null) {
+            journal.append(token, from);
+        }
+        events.publishEvent(TokenTransition.of(token, from, state.activeCount(), state.waitlistCount()));
+    }
+
+    private long nextTokenId() {
+        idLock.lock();
+        try {
+            while (nextId == idLimit || nextId <= idFloor) {
+                nextId = tokenBatchWriter.nextTokenIdBlock();
+                idLimit = nextId + TokenBatchWriter.TOKEN_ID_BLOCK;
+            }
+            return nextId++;
+        } finally {
+            idLock.unlock();
+        }
+    }
+
+    @Override
+    public void release(Long tokenId, TokenStatus outcome) {
+        Token known = tokens.get(tokenId);
+        Long slotId = known != null
+                ? known.getAssignedSlot().getId()
+                : tokenRepository.findSlotIdById(tokenId).orElseThrow(() -> new RuntimeException("Token not found"));
+        slotLocks.withLock(slotId, () -> {
+            // Loading the slot registers its tokens
+            SlotState state = slotState(slotId);
+            Token released = tokens.get(tokenId);
+            if (released == null) {
+                throw new RuntimeException("Token not found");
+            }
+            // Already cancelled, swept or archived: its counts were given back then
+            TokenStatus from = released.getStatus();
+            if (from.isTerminal()) {
+                return;
+            }
+            // Only trigger reallocation if releasing an active token
+            boolean wasActive = from == TokenStatus.ACTIVE;
+
+            state.remove(released);
+            released.setStatus(outcome);
+            writeBehind.updated(released);
+            changed(state, released, from);
+
+            if (wasActive) {
+                metrics.promoted("release", reallocate(state));
+            }
+        });
+        awaitDurable();
+    }
+
+    // A token of a slot not loaded yet is found by loading the slot, which registers its tokens
+    @Override
+    public Optional<Token> findToken(Long tokenId) {
+        Token known = tokens.get(tokenId);
+        if (known != null) {
+            return Optional.of(known);
+        }
+        return tokenRepository.findSlotIdById(tokenId).map(slotId -> slotLocks.withLock(slotId, () -> {
+            slotState(slotId);
+            return tokens.get(tokenId);
+        }));
+    }
+
+    @Override
+    public List<Token> heldTokens(Long slotId) {
+        return slotLocks.withLock(slotId, () -> slotState(slotId).heldTokens());
+    }
+
+    @Override
+    public int reallocate(Long slotId) {
+        int promoted = slotLocks.withLock(slotId, () -> {
+            SlotState state = slotState(slotId);
+            int count = reallocate(state);
+            metrics.promoted("reallocate", count);
+            return count;
+        });
+        if (promoted > 0) {
+            awaitDurable();
+        }
+        return promoted;
+    }
+
+    // Per slot under its lock, since this engine owns the state; the write-behind turns the changes into JDBC batches
+    @Override
+    public int expireActive(Collection<Long> slotIds) {
+        int marked = 0;
+        for (Long slotId : slotIds) {
+            marked += slotLocks.withLock(slotId, () -> {
+                SlotState state = slotState(slotId);
+                List<Token> held = state.heldTokens();
+                for (Token token : held) {
+                    TokenStatus from = token.getStatus();
+                    state.remove(token);
+                    token.setStatus(from == TokenStatus.ACTIVE ? TokenStatus.NO_SHOW : TokenStatus.EXPIRED);
+                    writeBehind.updated(token);
+                    changed(state, token, from);
+                }
+                return held.size();
+            });
+        }
+        if (marked > 0) {
+            awaitDurable();
+        }
+        return marked;
+    }
+
+    // Per slot under its lock, like the sweep; the closed flag is written directly, then the cancellations
+    // reach the database through the write-behind
+    @Override
+    public List<Token> closeSlots(Collection<Long> slotIds) {
+        List<Token> cancelled = new ArrayList<>();
+        for (Long slotId : slotIds) {
+            slotLocks.withLock(slotId, () -> {
+                SlotState state = slotState(slotId);
+                state.getSlot().setClosed(true);
+                for (Token token : state.heldTokens()) {
+                    TokenStatus from = token.getStatus();
+                    state.remove(token);
+                    token.setStatus(TokenStatus.CANCELLED);
+                    writeBehind.updated(token);
+                    changed(state, token, from);
+                    cancelled.add(token);
+                }
+            });
+        }
+        if (!slotIds.isEmpty()) {
+            slotClosureWriter.close(slotIds);
+        }
+        if (!cancelled.isEmpty()) {
+            awaitDurable();
+        }
+        return cancelled;
+    }
+
+    // Fills every free seat from the head of the waitlist
+    private int reallocate(SlotState state) {
+        int promoted = 0;
+        while (state.hasCapacity()) {
+            Token nextToken = state.pollWaitlist();
+            if (nextToken == null) {
+                break;
+            }
+            nextToken.setStatus(TokenStatus.ACTIVE);
+            state.addActive(nextToken);
+            writeBehind.updated(nextToken);
+            changed(state, nextToken, TokenStatus.WAITLIST);
+            promoted++;
+        }
+        return promoted;
+    }
+
+    // Only waits with fsync=always; never called under a slot lock, so one slot's fsync wait does not block the next booking
+    private void awaitDurable() {
+        if (journal != null) {
+            journal.awaitDurable();
+        }
+    }
+
+    private static SlotCounts counts(Long slotId, SlotState state) {
+        return new SlotCounts(slotId, state.activeCount(), state.waitlistCount());
+    }
+
+    // Called under the slot lock. Loaded there rather than inside computeIfAbsent, whose bin monitor would
+    // pin a virtual thread for the whole query
+    private SlotState slotState(Long slotId) {
+        if (handingOver.contains(slotId)) {
+            throw new RuntimeException("Slot " + slotId + " is being handed over to another node, retry there");
+        }
+        SlotState state = slots.get(slotId);
+        if (state == null) {
+            state = load(slotId);
+            slots.put(slotId, state);
+        }
+        return state;
+    }
+
+    private SlotState load(Long slotId) {
+        TimeSlot slot = timeSlotRepository.findById(slotId)
+                .orElseThrow(() -> new RuntimeException("Slot not found"));
+        ClusterMembership membership = cluster.getIfAvailable();
+        if (membership != null && !membership.isLocal(slot.getDoctor().getId())) {
+            throw new RuntimeException("Slot " + slotId + " is owned by " + membership.owner(slot.getDoctor().getId()) + ", retry there");
+        }
+        SlotState state = new SlotState(slot);
+        for (Token token : tokenRepository.findByAssignedSlotId(slotId)) {
+            // Share the loaded slot instead of a lazy proxy that outlives its session
+            token.setAssignedSlot(slot);
+            if (token.getStatus() == TokenStatus.ACTIVE) {
+                state.addActive(token);
+            } else if (token.getStatus() == TokenStatus.WAITLIST) {
+                state.addWaitlist(token);
+            }
+            tokens.put(token.getId(), token);
+        }
+        return state;
+    }
+}
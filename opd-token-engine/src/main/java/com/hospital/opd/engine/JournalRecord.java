@@ -0,0 +1,28 @@
+package com.hospital.opd.engine;
+
+import com.hospital.opd.domain.enums.TokenSource;
+import com.hospital.opd.domain.enums.TokenStatus;
+
+import java.time.LocalDateTime;
+
+/**
+ * One token transition in the allocation journal: the status the token moved to. A booking also
+ * carries everything needed to recreate the token row; the other fields are null for status changes.
+ */
+record JournalRecord(long tokenId, long slotId, TokenStatus status,
+                     String patientName, TokenSource source, LocalDateTime createdAt,
+                     String contactNumber, String userIdNumber) {
+
+    static JournalRecord booked(long tokenId, long slotId, TokenStatus status, String patientName, TokenSource source,
+                                LocalDateTime createdAt, String contactNumber, String userIdNumber) {
+        return new JournalRecord(tokenId, slotId, status, patientName, source, createdAt, contactNumber, userIdNumber);
+    }
+
+    static JournalRecord changed(long tokenId, long slotId, TokenStatus status) {
+        return new JournalRecord(tokenId, slotId, status, null, null, null, null, null);
+    }
+
+    boolean isBooking() {
+        return source != null;
+    }
+}
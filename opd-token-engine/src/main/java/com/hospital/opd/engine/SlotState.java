@@ -0,0 +1,95 @@
+package com.hospital.opd.engine;
+
+import com.hospital.opd.domain.TimeSlot;
+import com.hospital.opd.domain.Token;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * In-memory view of one slot: its ACTIVE tokens and its waitlist ordered the same way as
+ * {@code findByAssignedSlotIdAndStatusOrderByPriorityAscCreatedAtAsc}. ACTIVE tokens are also
+ * kept in priority order so an emergency finds its bump victim in O(log n).
+ * Not thread-safe; callers hold the slot's lock.
+ */
+class SlotState {
+    // Priority ASC (1=Emergency... 5=WalkIn), then CreatedAt ASC (FIFO), id as tie-breaker
+    static final Comparator<Token> WAITLIST_ORDER = Comparator
+            .comparingInt(Token::getPriority)
+            .thenComparing(Token::getCreatedAt)
+            .thenComparing(Token::getId);
+
+    private final TimeSlot slot;
+    private final Map<Long, Token> active = new LinkedHashMap<>();
+    // Same order as the waitlist, so the last entry is the lowest-priority, latest-booked ACTIVE token
+    private final TreeSet<Token> activeByPriority = new TreeSet<>(WAITLIST_ORDER);
+    private final TreeSet<Token> waitlist = new TreeSet<>(WAITLIST_ORDER);
+
+    SlotState(TimeSlot slot) {
+        this.slot = slot;
+    }
+
+    TimeSlot getSlot() {
+        return slot;
+    }
+
+    int activeCount() {
+        return active.size();
+    }
+
+    int waitlistCount() {
+        return waitlist.size();
+    }
+
+    boolean hasCapacity() {
+        return active.size() < slot.getMaxCapacity();
+    }
+
+    void addActive(Token token) {
+        active.put(token.getId(), token);
+        activeByPriority.add(token);
+    }
+
+    void addWaitlist(Token token) {
+        waitlist.add(token);
+    }
+
+    // Removes the token from whichever set holds it; must be called before its status changes
+    void remove(Token token) {
+        Token removed = active.remove(token.getId());
+        if (removed != null) {
+            activeByPriority.remove(removed);
+        } else {
+            waitlist.remove(token);
+        }
+    }
+
+    // Lowest-priority ACTIVE token that ranks below the given priority, or null
+    Token bumpCandidate(int priority) {
+        if (activeByPriority.isEmpty()) {
+            return null;
+        }
+        Token last = activeByPriority.last();
+        return last.getPriority() > priority ? last : null;
+    }
+
+    // A copy, so the caller can remove tokens while walking it
+    List<Token> activeTokens() {
+        return new ArrayList<>(active.values());
+    }
+
+    // ACTIVE then WAITLIST tokens, as a copy
+    List<Token> heldTokens() {
+        List<Token> held = new ArrayList<>(active.values());
+        held.addAll(waitlist);
+        return held;
+    }
+
+    Token pollWaitlist() {
+        return waitlist.pollFirst();
+    }
+}
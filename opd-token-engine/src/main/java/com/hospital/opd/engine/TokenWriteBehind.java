@@ -0,0 +1,147 @@
+package com.hospital.opd.engine;
+
+import com.hospital.opd.domain.Token;
+import com.hospital.opd.repository.TokenBatchWriter;
+import com.hospital.opd.repository.TokenBatchWriter.SlotCounts;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
+
+/**
+ * Buffers token inserts, status changes and slot counters made by the in-memory engine and
+ * writes them to the database in JDBC batches. Fields are read at flush time, so several changes to the
+ * same token between two flushes collapse into one write.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "opd.allocation.mode", havingValue = "memory")
+@RequiredArgsConstructor
+public class TokenWriteBehind {
+    private final TokenBatchWriter tokenBatchWriter;
+    private final ObjectProvider<AllocationJournal> journal;
+
+    @Value("${opd.allocation.write-behind.batch-size:500}")
+    private int batchSize;
+
+    private final Map<Long, Token> pendingInserts = new ConcurrentHashMap<>();
+    private final Map<Long, Token> pendingUpdates = new ConcurrentHashMap<>();
+    private final Map<Long, SlotCounts> pendingCounters = new ConcurrentHashMap<>();
+    // Not synchronized: a virtual thread blocked on JDBC inside a monitor would pin its carrier
+    private final ReentrantLock flushLock = new ReentrantLock();
+
+    public void inserted(Token token) {
+        pendingInserts.put(token.getId(), token);
+    }
+
+    public void updated(Token token) {
+        pendingUpdates.put(token.getId(), token);
+    }
+
+    // Counts are captured under the slot lock; the latest capture wins
+    public void counters(SlotCounts counts) {
+        pendingCounters.put(counts.slotId(), counts);
+    }
+
+    public int pending() {
+        return pendingInserts.size() + pendingUpdates.size();
+    }
+
+    @Scheduled(fixedDelayString = "${opd.allocation.write-behind.interval-ms:200}")
+    @PreDestroy
+    public void flush() {
+        if (pendingInserts.isEmpty() && pendingUpdates.isEmpty() && pendingCounters.isEmpty()) {
+            return;
+        }
+        flushLock.lock();
+        try {
+            flushPending(null);
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    // Writes one slot's changes now, for a slot handed over to another node; the caller holds its slot lock.
+    // If the write fails they stay queued for the next flush and the failure is thrown, so the caller keeps the slot
+    public void flush(Long slotId) {
+        flushLock.lock();
+        try {
+            flushPending(slotId);
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    // Null flushes every slot
+    private void flushPending(Long slotId) {
+        // Every journal record before this position has its change in the maps already, since the
+        // engine queues a change and its slot's counters before journaling it. A one-slot flush leaves
+        // the journal alone
+        AllocationJournal journaled = slotId == null ? journal.getIfAvailable() : null;
+        long covered = journaled == null ? 0 : journaled.position();
+
+        // Drain both maps before reading any token so a change made after the drain is re-queued
+        List<Token> inserts = drain(pendingInserts, t -> slotId == null || slotId.equals(t.getAssignedSlot().getId()));
+        List<Token> updates = drain(pendingUpdates, t -> slotId == null || slotId.equals(t.getAssignedSlot().getId()));
+        Set<Long> insertedIds = new HashSet<>();
+        inserts.forEach(t -> insertedIds.add(t.getId()));
+        updates.removeIf(t -> insertedIds.contains(t.getId()));
+        List<SlotCounts> counters = drain(pendingCounters, c -> slotId == null || slotId.equals(c.slotId()));
+
+        int insertsDone = 0;
+        int updatesDone = 0;
+        try {
+            while (insertsDone < inserts.size()) {
+                int end = Math.min(insertsDone + batchSize, inserts.size());
+                tokenBatchWriter.insertAll(inserts.subList(insertsDone, end));
+                insertsDone = end;
+            }
+            while (updatesDone < updates.size()) {
+                int end = Math.min(updatesDone + batchSize, updates.size());
+                tokenBatchWriter.updateStatuses(updates.subList(updatesDone, end));
+                updatesDone = end;
+            }
+            if (!counters.isEmpty()) {
+                tokenBatchWriter.updateCounters(counters);
+                counters.clear();
+            }
+            if (journaled != null) {
+                journaled.release(covered);
+            }
+        } catch (RuntimeException e) {
+            log.error("Write-behind flush failed after {}/{} inserts and {}/{} updates, will retry",
+                    insertsDone, inserts.size(), updatesDone, updates.size(), e);
+            // Each chunk is its own transaction, so only the chunks that did not commit are re-queued
+            inserts.subList(insertsDone, inserts.size()).forEach(t -> pendingInserts.putIfAbsent(t.getId(), t));
+            updates.subList(updatesDone, updates.size()).forEach(t -> pendingUpdates.putIfAbsent(t.getId(), t));
+            counters.forEach(c -> pendingCounters.putIfAbsent(c.slotId(), c));
+            if (slotId != null) {
+                throw e;
+            }
+        }
+    }
+
+    private static <T> List<T> drain(Map<Long, T> pending, Predicate<T> include) {
+        List<T> drained = new ArrayList<>(pending.size());
+        for (Map.Entry<Long, T> e : pending.entrySet()) {
+            T value = e.getValue();
+            if (include.test(value) && pending.remove(e.getKey(), value)) {
+                drained.add(value);
+            }
+        }
+        return drained;
+    }
+}
@@ -0,0 +1,11 @@
+package com.hospital.opd.event;
+
+import java.util.Set;
+
+/**
+ * The cluster view moved to a new epoch and this node gained or lost doctors. Published
+ * synchronously after the new ring is in place, so requests for lost doctors are already being
+ * forwarded while listeners hand over their state.
+ */
+public record OwnershipChange(long epoch, Set<Long> gained, Set<Long> lost) {
+}
@@ -0,0 +1,24 @@
+package com.hospital.opd.event;
+
+import com.hospital.opd.domain.Token;
+import com.hospital.opd.domain.enums.TokenSource;
+import com.hospital.opd.domain.enums.TokenStatus;
+
+/**
+ * A token changed status. Published by the allocators while they hold the slot's lock, so events
+ * for one slot arrive in order; activeCount/waitlistCount are the slot's counters after the change.
+ * In jpa mode listeners should use {@code @TransactionalEventListener} so retried attempts are never seen.
+ */
+public record TokenTransition(Long tokenId, Long slotId, Long doctorId, TokenSource source,
+                              TokenStatus from, TokenStatus to, int activeCount, int waitlistCount) {
+
+    public static TokenTransition of(Token token, TokenStatus from, int activeCount, int waitlistCount) {
+        return of(token, token.getAssignedSlot().getDoctor().getId(), from, activeCount, waitlistCount);
+    }
+
+    // For tokens whose slot is an uninitialized reference: reading its doctor would load the row
+    public static TokenTransition of(Token token, Long doctorId, TokenStatus from, int activeCount, int waitlistCount) {
+        return new TokenTransition(token.getId(), token.getAssignedSlot().getId(), doctorId, token.getSource(),
+                from, token.getStatus(), activeCount, waitlistCount);
+    }
+}
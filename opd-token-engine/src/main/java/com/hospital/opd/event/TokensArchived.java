@@ -0,0 +1,7 @@
+package com.hospital.opd.event;
+
+import java.util.List;
+
+// Terminal tokens moved from token to token_archive; published after each chunk commits
+public record TokensArchived(List<Long> tokenIds) {
+}
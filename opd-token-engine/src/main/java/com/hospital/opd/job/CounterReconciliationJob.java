@@ -0,0 +1,100 @@
+package com.hospital.opd.job;
+
+import com.hospital.opd.domain.enums.TokenStatus;
+import com.hospital.opd.repository.SlotCounters;
+import com.hospital.opd.repository.SlotStatusCount;
+import com.hospital.opd.repository.TimeSlotRepository;
+import com.hospital.opd.repository.TokenRepository;
+import com.hospital.opd.service.AvailabilityCache;
+import com.hospital.opd.service.SlotLockRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Recomputes TimeSlot.activeCount/waitlistCount from the token rows and repairs any slot whose
+ * counters drifted. Only runs in jpa mode: the in-memory engine owns the counters in memory mode.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "opd.allocation.mode", havingValue = "jpa", matchIfMissing = true)
+public class CounterReconciliationJob {
+    private final TimeSlotRepository timeSlotRepository;
+    private final TokenRepository tokenRepository;
+    private final SlotLockRegistry slotLocks;
+    private final AvailabilityCache availabilityCache;
+    private final TransactionTemplate transactionTemplate;
+
+    public CounterReconciliationJob(TimeSlotRepository timeSlotRepository, TokenRepository tokenRepository,
+                                    SlotLockRegistry slotLocks, AvailabilityCache availabilityCache,
+                                    PlatformTransactionManager transactionManager) {
+        this.timeSlotRepository = timeSlotRepository;
+        this.tokenRepository = tokenRepository;
+        this.slotLocks = slotLocks;
+        this.availabilityCache = availabilityCache;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    @Scheduled(fixedDelayString = "${opd.counters.reconcile-interval-ms:300000}")
+    public List<Drift> reconcile() {
+        // One grouped query for all slots; the per-slot re-check below filters out in-flight bookings
+        Map<Long, int[]> actual = new HashMap<>();
+        for (SlotStatusCount c : tokenRepository.countGroupedBySlotAndStatus(EnumSet.of(TokenStatus.ACTIVE, TokenStatus.WAITLIST))) {
+            int[] counts = actual.computeIfAbsent(c.getSlotId(), id -> new int[2]);
+            counts[c.getStatus() == TokenStatus.ACTIVE ? 0 : 1] = (int) c.getTotal();
+        }
+
+        List<Drift> drifts = new ArrayList<>();
+        List<SlotCounters> slots = timeSlotRepository.findCountersBy();
+        for (SlotCounters slot : slots) {
+            int[] counts = actual.getOrDefault(slot.getId(), new int[2]);
+            if (slot.getActiveCount() != counts[0] || slot.getWaitlistCount() != counts[1]) {
+                Drift drift = repair(slot.getId());
+                if (drift != null) {
+                    drifts.add(drift);
+                }
+            }
+        }
+
+        if (drifts.isEmpty()) {
+            log.debug("Counter reconciliation: {} slots checked, no drift", slots.size());
+        } else {
+            log.warn("Counter reconciliation: {} of {} slots drifted and were repaired: {}", drifts.size(), slots.size(), drifts);
+        }
+        return drifts;
+    }
+
+    private Drift repair(Long slotId) {
+        return slotLocks.withLock(slotId, () -> {
+            Drift drift = transactionTemplate.execute(status -> {
+                SlotCounters stored = timeSlotRepository.findCountersById(slotId).orElse(null);
+                if (stored == null) {
+                    return null;
+                }
+                int active = (int) tokenRepository.countByAssignedSlotIdAndStatus(slotId, TokenStatus.ACTIVE);
+                int waitlist = (int) tokenRepository.countByAssignedSlotIdAndStatus(slotId, TokenStatus.WAITLIST);
+                if (stored.getActiveCount() == active && stored.getWaitlistCount() == waitlist) {
+                    return null;
+                }
+                timeSlotRepository.resetCounters(slotId, active, waitlist);
+                return new Drift(slotId, stored.getActiveCount(), active, stored.getWaitlistCount(), waitlist);
+            });
+            if (drift != null) {
+                availabilityCache.update(slotId, drift.actualActive(), drift.actualWaitlist());
+            }
+            return drift;
+        });
+    }
+
+    public record Drift(Long slotId, int storedActive, int actualActive, int storedWaitlist, int actualWaitlist) {
+    }
+}
@@ -0,0 +1,105 @@
+package com.hospital.opd.job;
+
+import com.hospital.opd.cluster.ClusterMembership;
+import com.hospital.opd.engine.TokenWriteBehind;
+import com.hospital.opd.event.OwnershipChange;
+import com.hospital.opd.repository.NoShowWriter;
+import com.hospital.opd.service.TokenAllocator;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Marks the ACTIVE tokens of dated slots that ended more than the grace period ago NO_SHOW, and their
+ * waitlisted tokens EXPIRED. Each run only looks at slots that ended since the previous cutoff (the first
+ * run after startup, or after this node gains doctors, catches up on everything before it), through the
+ * slot_date index, so a run with nothing to expire is one small indexed query. Undated slots have no end to
+ * sweep after.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "opd.sweeper.enabled", havingValue = "true", matchIfMissing = true)
+public class NoShowSweeper {
+    // Slots per allocator call, which bounds the IN list of one statement
+    private static final int CHUNK = 500;
+
+    private final NoShowWriter noShowWriter;
+    private final TokenAllocator allocator;
+    private final ObjectProvider<TokenWriteBehind> writeBehind;
+    private final ObjectProvider<ClusterMembership> cluster;
+    private final int graceMinutes;
+    private final Timer runTimer;
+    private final Counter expired;
+
+    // Only touched by the scheduler thread
+    private LocalDateTime lastCutoff;
+    // Set when this node gains doctors: their slots that ended before lastCutoff were left to the old owner
+    private final AtomicBoolean catchUp = new AtomicBoolean();
+
+    public NoShowSweeper(NoShowWriter noShowWriter, TokenAllocator allocator, ObjectProvider<TokenWriteBehind> writeBehind,
+                         ObjectProvider<ClusterMembership> cluster, MeterRegistry registry,
+                         @Value("${opd.sweeper.grace-minutes:15}") int graceMinutes) {
+        this.noShowWriter = noShowWriter;
+        this.allocator = allocator;
+        this.writeBehind = writeBehind;
+        this.cluster = cluster;
+        this.graceMinutes = graceMinutes;
+        this.runTimer = Timer.builder("opd.sweeper.run")
+                .description("Time to mark the tokens of finished slots NO_SHOW or EXPIRED")
+                .register(registry);
+        this.expired = Counter.builder("opd.sweeper.tokens")
+                .description("Tokens marked NO_SHOW or EXPIRED by the sweeper")
+                .register(registry);
+    }
+
+    @Scheduled(fixedDelayString = "${opd.sweeper.interval-ms:60000}", initialDelayString = "${opd.sweeper.interval-ms:60000}")
+    public int sweep() {
+        return runTimer.record(() -> {
+            // Memory mode: the query reads counters the engine may not have written yet
+            TokenWriteBehind pending = writeBehind.getIfAvailable();
+            if (pending != null) {
+                pending.flush();
+            }
+            if (catchUp.getAndSet(false)) {
+                lastCutoff = null;
+            }
+            LocalDateTime cutoff = LocalDateTime.now().minusMinutes(graceMinutes);
+            ClusterMembership membership = cluster.getIfAvailable();
+            List<Long> slotIds = noShowWriter.findExpiredSlots(lastCutoff, cutoff).stream()
+                    .filter(s -> membership == null || membership.isLocal(s.doctorId()))
+                    .map(NoShowWriter.ExpiredSlot::slotId)
+                    .toList();
+
+            int total = 0;
+            for (int i = 0; i < slotIds.size(); i += CHUNK) {
+                total += allocator.expireActive(slotIds.subList(i, Math.min(i + CHUNK, slotIds.size())));
+            }
+            lastCutoff = cutoff;
+            expired.increment(total);
+            if (total > 0) {
+                log.info("Marked {} tokens NO_SHOW or EXPIRED across {} finished slots", total, slotIds.size());
+            }
+            return total;
+        });
+    }
+
+    // The next run catches up from the start, like the first one after startup, so the gained doctors'
+    // slots that ended before the current window are swept too
+    @EventListener
+    public void on(OwnershipChange change) {
+        if (!change.gained().isEmpty()) {
+            catchUp.set(true);
+        }
+    }
+}
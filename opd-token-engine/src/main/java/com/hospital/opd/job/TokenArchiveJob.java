@@ -0,0 +1,87 @@
+package com.hospital.opd.job;
+
+import com.hospital.opd.cluster.ClusterMembership;
+import com.hospital.opd.event.TokensArchived;
+import com.hospital.opd.repository.DoctorRepository;
+import com.hospital.opd.repository.TokenArchiver;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * Moves terminal tokens (VISITED, CANCELLED, NO_SHOW, RESCHEDULED, EXPIRED) of past slots into token_archive,
+ * so the token table only holds today's and future bookings plus recent history, and the booking
+ * queries on it stay flat however much history builds up. Each chunk is its own short transaction.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "opd.archive.enabled", havingValue = "true", matchIfMissing = true)
+public class TokenArchiveJob {
+    private final TokenArchiver tokenArchiver;
+    private final DoctorRepository doctorRepository;
+    private final ObjectProvider<ClusterMembership> cluster;
+    private final ApplicationEventPublisher events;
+    private final int chunkSize;
+    private final int undatedAfterHours;
+    private final Timer runTimer;
+    private final Counter archived;
+
+    public TokenArchiveJob(TokenArchiver tokenArchiver, DoctorRepository doctorRepository,
+                           ObjectProvider<ClusterMembership> cluster, ApplicationEventPublisher events, MeterRegistry registry,
+                           @Value("${opd.archive.chunk-size:1000}") int chunkSize,
+                           @Value("${opd.archive.undated-after-hours:24}") int undatedAfterHours) {
+        this.tokenArchiver = tokenArchiver;
+        this.doctorRepository = doctorRepository;
+        this.cluster = cluster;
+        this.events = events;
+        this.chunkSize = chunkSize;
+        this.undatedAfterHours = undatedAfterHours;
+        this.runTimer = Timer.builder("opd.archive.run")
+                .description("Time to archive every eligible token")
+                .register(registry);
+        this.archived = Counter.builder("opd.archive.tokens")
+                .description("Tokens moved to the archive table")
+                .register(registry);
+    }
+
+    @Scheduled(fixedDelayString = "${opd.archive.interval-ms:3600000}", initialDelayString = "${opd.archive.interval-ms:3600000}")
+    public int archive() {
+        return runTimer.record(() -> {
+            LocalDate today = LocalDate.now();
+            LocalDateTime undatedBefore = LocalDateTime.now().minusHours(undatedAfterHours);
+            // Clustered, every node archives its own doctors' tokens
+            ClusterMembership membership = cluster.getIfAvailable();
+            List<Long> doctorIds = membership == null ? null
+                    : doctorRepository.findAllIds().stream().filter(membership::isLocal).toList();
+            int total = 0;
+            List<Long> chunk;
+            int moved;
+            do {
+                chunk = tokenArchiver.findArchivable(today, undatedBefore, doctorIds, chunkSize);
+                moved = chunk.isEmpty() ? 0 : tokenArchiver.move(chunk);
+                if (moved > 0) {
+                    total += moved;
+                    events.publishEvent(new TokensArchived(chunk));
+                }
+                // Nothing moved: the chunk was archived by the doctor's previous owner during a handover; the next run
+                // picks up whatever is left
+            } while (chunk.size() == chunkSize && moved > 0);
+            archived.increment(total);
+            if (total > 0) {
+                log.info("Archived {} terminal tokens of past slots", total);
+            }
+            return total;
+        });
+    }
+}
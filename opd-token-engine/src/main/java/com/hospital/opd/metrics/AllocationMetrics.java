@@ -0,0 +1,131 @@
+package com.hospital.opd.metrics;
+
+import com.hospital.opd.domain.enums.TokenSource;
+import com.hospital.opd.domain.enums.TokenStatus;
+import com.hospital.opd.service.SpilloverMode;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+
+/**
+ * Meters for the allocation pipeline. Booking outcome tags are the resulting {@link TokenStatus};
+ * every timer is tagged ERROR when the call threw.
+ */
+@Component
+@RequiredArgsConstructor
+public class AllocationMetrics {
+    public static final String OK = "OK";
+    public static final String ERROR = "ERROR";
+
+    private final MeterRegistry registry;
+
+    public Timer.Sample start() {
+        return Timer.start(registry);
+    }
+
+    // Single bookings: latency by source and outcome
+    public void booked(Timer.Sample sample, TokenSource source, String outcome) {
+        sample.stop(Timer.builder("opd.booking")
+                .description("Time to book a single token")
+                .tag("source", source.name())
+                .tag("outcome", outcome)
+                .register(registry));
+        allocated(source, outcome);
+    }
+
+    public void bookedBatch(Timer.Sample sample, int size) {
+        sample.stop(Timer.builder("opd.booking.batch")
+                .description("Time to book a batch of tokens")
+                .register(registry));
+        registry.summary("opd.booking.batch.size").record(size);
+    }
+
+    // Every token handed out, single or batch
+    public void allocated(TokenSource source, String outcome) {
+        Counter.builder("opd.tokens.allocated")
+                .tag("source", source.name())
+                .tag("outcome", outcome)
+                .register(registry)
+                .increment();
+    }
+
+    public void released(Timer.Sample sample, TokenStatus status, String outcome) {
+        sample.stop(Timer.builder("opd.release")
+                .description("Time to cancel or no-show a token, including promotion")
+                .tag("status", status.name())
+                .tag("outcome", outcome)
+                .register(registry));
+    }
+
+    public void reallocated(Timer.Sample sample, String outcome) {
+        sample.stop(Timer.builder("opd.reallocation")
+                .description("Time to refill a slot from its waitlist")
+                .tag("outcome", outcome)
+                .register(registry));
+    }
+
+    // Called by the allocators once the decision is committed
+    public void overbooked(TokenSource source) {
+        Counter.builder("opd.tokens.overbooked")
+                .description("Tokens made ACTIVE beyond slot capacity")
+                .tag("source", source.name())
+                .register(registry)
+                .increment();
+    }
+
+    // Tagged by the source of the patient who lost the seat
+    public void bumped(TokenSource source) {
+        Counter.builder("opd.tokens.bumped")
+                .description("ACTIVE tokens moved back to the waitlist by an emergency")
+                .tag("source", source.name())
+                .register(registry)
+                .increment();
+    }
+
+    public void spilled(TokenSource source, SpilloverMode mode) {
+        Counter.builder("opd.tokens.spilled")
+                .description("Bookings for a full slot placed in a later slot instead of the waitlist")
+                .tag("source", source.name())
+                .tag("mode", mode.name())
+                .register(registry)
+                .increment();
+    }
+
+    // A booking answered with a token the patient already had; by is "key" (Idempotency-Key) or "patient"
+    public void deduplicated(TokenSource source, String by) {
+        Counter.builder("opd.booking.deduplicated")
+                .description("Bookings answered with an existing token instead of a new one")
+                .tag("source", source.name())
+                .tag("by", by)
+                .register(registry)
+                .increment();
+    }
+
+    public void closed(Timer.Sample sample) {
+        sample.stop(Timer.builder("opd.slots.close")
+                .description("Time to close slots for an absence and re-home their patients")
+                .register(registry));
+    }
+
+    // outcome is the status of the new token (ACTIVE, WAITLIST) or UNPLACED
+    public void rehomed(TokenSource source, String outcome) {
+        Counter.builder("opd.tokens.rehomed")
+                .description("Tokens of closed slots booked into another slot")
+                .tag("source", source.name())
+                .tag("outcome", outcome)
+                .register(registry)
+                .increment();
+    }
+
+    public void promoted(String trigger, int count) {
+        if (count > 0) {
+            Counter.builder("opd.tokens.promoted")
+                    .description("Waitlisted tokens moved to ACTIVE")
+                    .tag("trigger", trigger)
+                    .register(registry)
+                    .increment(count);
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package com.hospital.opd.repository;
+
+import com.hospital.opd.domain.ArchivedToken;
+import com.hospital.opd.dto.TokenHistory;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+@Repository
+public interface ArchivedTokenRepository extends JpaRepository<ArchivedToken, Long> {
+    @Query("select new com.hospital.opd.dto.TokenHistory(a.id, a.patientName, a.source, a.status, a.slotId, a.doctorId, a.slotDate, a.startTime, a.createdAt, a.userIdNumber, true) from ArchivedToken a where a.id = :tokenId")
+    Optional<TokenHistory> findHistoryById(@Param("tokenId") Long tokenId);
+
+    // Newest first, served by the (user_id_number, created_at) index
+    @Query("select new com.hospital.opd.dto.TokenHistory(a.id, a.patientName, a.source, a.status, a.slotId, a.doctorId, a.slotDate, a.startTime, a.createdAt, a.userIdNumber, true) from ArchivedToken a where a.userIdNumber = :userIdNumber order by a.createdAt desc")
+    List<TokenHistory> findHistoryByUserIdNumber(@Param("userIdNumber") String userIdNumber, Limit limit);
+
+    @Query("select a.id from ArchivedToken a where a.id in :ids")
+    List<Long> findIdsByIdIn(@Param("ids") Collection<Long> ids);
+}
@@ -2,8 +2,13 @@ package com.hospital.opd.repository;
 
 import com.hospital.opd.domain.Doctor;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.stereotype.Repository;
 
+import java.util.List;
+
 @Repository
 public interface DoctorRepository extends JpaRepository<Doctor, Long> {
+    @Query("select d.id from Doctor d")
+    List<Long> findAllIds();
 }
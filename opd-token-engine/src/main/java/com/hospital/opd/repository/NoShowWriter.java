@@ -0,0 +1,77 @@
+package com.hospital.opd.repository;
+
+import com.hospital.opd.domain.enums.TokenSource;
+import com.hospital.opd.domain.enums.TokenStatus;
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+// Set-based statements for the NO_SHOW sweeper; the caller owns the transaction
+@Repository
+@RequiredArgsConstructor
+public class NoShowWriter {
+    // Slots that ended in (after, upTo]; slot_date is indexed, and slots holding no token are skipped
+    private static final String WINDOW_SQL = "select id, doctor_id from time_slot where (active_count > 0 or waitlist_count > 0)"
+            + " and slot_date between ? and ? and (slot_date > ? or end_time > ?) and (slot_date < ? or end_time <= ?)";
+    private static final String UP_TO_SQL = "select id, doctor_id from time_slot where (active_count > 0 or waitlist_count > 0)"
+            + " and slot_date <= ? and (slot_date < ? or end_time <= ?)";
+    // H2 data change delta table: one statement updates the rows and old table returns them with their previous status.
+    // The waitlist expires with the slot rather than being promoted into it, which no later run would sweep again
+    private static final String MARK_SQL = "select id, assigned_slot_id, source, status from old table (update token set status ="
+            + " case when status = '" + TokenStatus.ACTIVE + "' then '" + TokenStatus.NO_SHOW + "' else '" + TokenStatus.EXPIRED + "' end"
+            + " where status in ('" + TokenStatus.ACTIVE + "', '" + TokenStatus.WAITLIST + "') and assigned_slot_id in (%s))";
+    // Recounted rather than decremented, and versioned, so a booking or release racing the sweep retries instead of
+    // writing counters computed before it
+    private static final String RECOUNT_SQL = "update time_slot s set active_count = (select count(*) from token t"
+            + " where t.assigned_slot_id = s.id and t.status = '" + TokenStatus.ACTIVE + "'), waitlist_count = (select count(*)"
+            + " from token t where t.assigned_slot_id = s.id and t.status = '" + TokenStatus.WAITLIST + "'), version = version + 1"
+            + " where s.id in (%s)";
+    private static final String COUNTS_SQL = "select id, active_count, waitlist_count from time_slot where id in (%s)";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    // Null after means every slot that ended up to upTo
+    public List<ExpiredSlot> findExpiredSlots(LocalDateTime after, LocalDateTime upTo) {
+        if (after == null) {
+            return jdbcTemplate.query(UP_TO_SQL, (rs, i) -> new ExpiredSlot(rs.getLong(1), rs.getLong(2)),
+                    upTo.toLocalDate(), upTo.toLocalDate(), upTo.toLocalTime());
+        }
+        return jdbcTemplate.query(WINDOW_SQL, (rs, i) -> new ExpiredSlot(rs.getLong(1), rs.getLong(2)),
+                after.toLocalDate(), upTo.toLocalDate(), after.toLocalDate(), after.toLocalTime(),
+                upTo.toLocalDate(), upTo.toLocalTime());
+    }
+
+    public List<MarkedToken> markNoShow(Collection<Long> slotIds) {
+        return jdbcTemplate.query(MARK_SQL.formatted(placeholders(slotIds)),
+                (rs, i) -> new MarkedToken(rs.getLong(1), rs.getLong(2), TokenSource.valueOf(rs.getString(3)),
+                        TokenStatus.valueOf(rs.getString(4))),
+                slotIds.toArray());
+    }
+
+    public List<TokenBatchWriter.SlotCounts> recount(Collection<Long> slotIds) {
+        jdbcTemplate.update(RECOUNT_SQL.formatted(placeholders(slotIds)), slotIds.toArray());
+        return jdbcTemplate.query(COUNTS_SQL.formatted(placeholders(slotIds)),
+                (rs, i) -> new TokenBatchWriter.SlotCounts(rs.getLong(1), rs.getInt(2), rs.getInt(3)),
+                slotIds.toArray());
+    }
+
+    private static String placeholders(Collection<?> values) {
+        return String.join(", ", Collections.nCopies(values.size(), "?"));
+    }
+
+    public record ExpiredSlot(long slotId, long doctorId) {
+    }
+
+    // from is ACTIVE (now NO_SHOW) or WAITLIST (now EXPIRED)
+    public record MarkedToken(long tokenId, long slotId, TokenSource source, TokenStatus from) {
+
+        public TokenStatus to() {
+            return from == TokenStatus.ACTIVE ? TokenStatus.NO_SHOW : TokenStatus.EXPIRED;
+        }
+    }
+}
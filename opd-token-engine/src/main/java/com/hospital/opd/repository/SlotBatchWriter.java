@@ -0,0 +1,68 @@
+package com.hospital.opd.repository;
+
+import com.hospital.opd.domain.TimeSlot;
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+// JDBC batch inserts for generated slots, with ids drawn from time_slot_seq the way Hibernate draws them
+@Repository
+@RequiredArgsConstructor
+public class SlotBatchWriter {
+    private static final String INSERT_SQL = "insert into time_slot (id, doctor_id, slot_date, start_time, end_time, max_capacity, active_count, waitlist_count, version, closed) values (?, ?, ?, ?, ?, ?, 0, 0, 0, false)";
+    private static final int BATCH = 1000;
+
+    // Matches the allocationSize of TimeSlot's @SequenceGenerator (pooled-lo: a value v reserves v .. v + 49)
+    public static final int SLOT_ID_BLOCK = 50;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public Set<SlotKey> findKeys(LocalDate from, LocalDate to) {
+        Set<SlotKey> keys = new HashSet<>();
+        jdbcTemplate.query("select doctor_id, slot_date, start_time from time_slot where slot_date between ? and ?",
+                rs -> {
+                    keys.add(new SlotKey(rs.getLong(1), rs.getObject(2, LocalDate.class), rs.getObject(3, LocalTime.class)));
+                }, from, to);
+        return keys;
+    }
+
+    // Assigns the ids; the unique key fails the whole transaction if another writer inserted one of the slots first
+    @Transactional
+    public void insertAll(List<TimeSlot> slots) {
+        long next = 0;
+        long blockEnd = 0;
+        for (TimeSlot slot : slots) {
+            if (next == blockEnd) {
+                next = nextSlotIdBlock();
+                blockEnd = next + SLOT_ID_BLOCK;
+            }
+            slot.setId(next++);
+        }
+        jdbcTemplate.batchUpdate(INSERT_SQL, slots, BATCH, (ps, s) -> {
+            ps.setLong(1, s.getId());
+            ps.setLong(2, s.getDoctor().getId());
+            ps.setObject(3, s.getSlotDate());
+            ps.setObject(4, s.getStartTime());
+            ps.setObject(5, s.getEndTime());
+            ps.setInt(6, s.getMaxCapacity());
+        });
+    }
+
+    private long nextSlotIdBlock() {
+        Long start = jdbcTemplate.queryForObject("select next value for time_slot_seq", Long.class);
+        if (start == null) {
+            throw new IllegalStateException("time_slot_seq returned no value");
+        }
+        return start;
+    }
+
+    public record SlotKey(long doctorId, LocalDate slotDate, LocalTime startTime) {
+    }
+}
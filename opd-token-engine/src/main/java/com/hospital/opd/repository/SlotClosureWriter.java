@@ -0,0 +1,49 @@
+package com.hospital.opd.repository;
+
+import com.hospital.opd.domain.enums.TokenSource;
+import com.hospital.opd.domain.enums.TokenStatus;
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+// Set-based statements for closing slots when their doctor is absent; the caller owns the transaction
+@Repository
+@RequiredArgsConstructor
+public class SlotClosureWriter {
+    // Versioned, so a booking that read the slot before it closed fails its counter update and retries
+    private static final String CLOSE_SQL = "update time_slot set closed = true, active_count = 0, waitlist_count = 0,"
+            + " version = version + 1 where id in (%s)";
+    // H2 data change delta table: old table returns each row as it was before the update, i.e. with its held status
+    private static final String CANCEL_SQL = "select id, assigned_slot_id, status, source, patient_name, contact_number,"
+            + " user_id_number, created_at from old table (update token set status = '" + TokenStatus.CANCELLED
+            + "' where status in ('" + TokenStatus.ACTIVE + "', '" + TokenStatus.WAITLIST + "') and assigned_slot_id in (%s))";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public void close(Collection<Long> slotIds) {
+        jdbcTemplate.update(CLOSE_SQL.formatted(placeholders(slotIds)), slotIds.toArray());
+    }
+
+    // Run after close, whose row locks make a booking still in flight commit first, so its token is cancelled too
+    public List<CancelledToken> cancelHeld(Collection<Long> slotIds) {
+        return jdbcTemplate.query(CANCEL_SQL.formatted(placeholders(slotIds)),
+                (rs, i) -> new CancelledToken(rs.getLong(1), rs.getLong(2), TokenStatus.valueOf(rs.getString(3)),
+                        TokenSource.valueOf(rs.getString(4)), rs.getString(5), rs.getString(6), rs.getString(7),
+                        rs.getObject(8, LocalDateTime.class)),
+                slotIds.toArray());
+    }
+
+    private static String placeholders(Collection<?> values) {
+        return String.join(", ", Collections.nCopies(values.size(), "?"));
+    }
+
+    // from is the status the token held before it was cancelled
+    public record CancelledToken(long tokenId, long slotId, TokenStatus from, TokenSource source, String patientName,
+                                 String contactNumber, String userIdNumber, LocalDateTime createdAt) {
+    }
+}
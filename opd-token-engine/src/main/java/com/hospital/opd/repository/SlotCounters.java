@@ -0,0 +1,16 @@
+package com.hospital.opd.repository;
+
+// Counter columns of a TimeSlot, read without loading the entity
+public interface SlotCounters {
+    Long getId();
+
+    int getMaxCapacity();
+
+    int getActiveCount();
+
+    int getWaitlistCount();
+
+    Long getVersion();
+
+    boolean isClosed();
+}
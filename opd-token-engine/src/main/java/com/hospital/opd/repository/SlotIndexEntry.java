@@ -0,0 +1,17 @@
+package com.hospital.opd.repository;
+
+import java.time.LocalDate;
+import java.time.LocalTime;
+
+// What SlotIndex needs to place a slot, read without loading the entity
+public interface SlotIndexEntry {
+    Long getSlotId();
+
+    Long getDoctorId();
+
+    String getSpecialization();
+
+    LocalDate getSlotDate();
+
+    LocalTime getStartTime();
+}
@@ -0,0 +1,23 @@
+package com.hospital.opd.repository;
+
+import java.time.LocalDate;
+import java.time.LocalTime;
+
+// Occupancy of a slot together with its doctor and times, for the per-slot gauges and the availability view
+public interface SlotLoad {
+    Long getSlotId();
+
+    Long getDoctorId();
+
+    LocalDate getSlotDate();
+
+    LocalTime getStartTime();
+
+    LocalTime getEndTime();
+
+    int getMaxCapacity();
+
+    int getActiveCount();
+
+    int getWaitlistCount();
+}
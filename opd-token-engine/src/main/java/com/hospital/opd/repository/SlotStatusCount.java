@@ -0,0 +1,11 @@
+package com.hospital.opd.repository;
+
+import com.hospital.opd.domain.enums.TokenStatus;
+
+public interface SlotStatusCount {
+    Long getSlotId();
+
+    TokenStatus getStatus();
+
+    long getTotal();
+}
@@ -0,0 +1,19 @@
+package com.hospital.opd.repository;
+
+import com.hospital.opd.domain.SlotTemplate;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+
+@Repository
+public interface SlotTemplateRepository extends JpaRepository<SlotTemplate, Long> {
+    @Query("select t from SlotTemplate t where t.doctor.id = :doctorId order by t.sessionStart, t.id")
+    List<SlotTemplate> findByDoctorId(@Param("doctorId") Long doctorId);
+
+    // The generator needs each doctor's specialization for the slot index
+    @Query("select t from SlotTemplate t join fetch t.doctor")
+    List<SlotTemplate> findAllWithDoctor();
+}
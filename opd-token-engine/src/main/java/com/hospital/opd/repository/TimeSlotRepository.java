@@ -1,12 +1,55 @@
 package com.hospital.opd.repository;
 
 import com.hospital.opd.domain.TimeSlot;
+import com.hospital.opd.dto.SlotDefinition;
+import com.hospital.opd.dto.SlotView;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.time.LocalDate;
+import java.util.Collection;
 import java.util.List;
+import java.util.Optional;
 
 @Repository
 public interface TimeSlotRepository extends JpaRepository<TimeSlot, Long> {
-    List<TimeSlot> findByDoctorId(Long doctorId);
+    @Query("select new com.hospital.opd.dto.SlotView(s.id, s.doctor.id, s.slotDate, s.startTime, s.endTime, s.maxCapacity, s.activeCount, s.waitlistCount, s.closed) from TimeSlot s where s.doctor.id = :doctorId order by s.slotDate, s.startTime, s.id")
+    List<SlotView> findViewsByDoctorId(@Param("doctorId") Long doctorId);
+
+    @Query("select new com.hospital.opd.dto.SlotDefinition(s.id, d.id, d.specialization, s.slotDate, s.startTime, s.endTime, s.maxCapacity) from TimeSlot s join s.doctor d where s.id = :slotId")
+    Optional<SlotDefinition> findDefinitionById(@Param("slotId") Long slotId);
+
+    List<SlotCounters> findCountersBy();
+
+    Optional<SlotCounters> findCountersById(Long id);
+
+    // Closed slots are left out of every load, index and gauge query
+    @Query("select s.id as slotId, s.doctor.id as doctorId, s.slotDate as slotDate, s.startTime as startTime, s.endTime as endTime, s.maxCapacity as maxCapacity, s.activeCount as activeCount, s.waitlistCount as waitlistCount from TimeSlot s where s.closed = false")
+    List<SlotLoad> findLoads();
+
+    @Query("select s.id as slotId, s.doctor.id as doctorId, s.slotDate as slotDate, s.startTime as startTime, s.endTime as endTime, s.maxCapacity as maxCapacity, s.activeCount as activeCount, s.waitlistCount as waitlistCount from TimeSlot s where s.doctor.id in :doctorIds and s.closed = false")
+    List<SlotLoad> findLoadsByDoctorIdIn(@Param("doctorIds") Collection<Long> doctorIds);
+
+    // Undated slots and the given day's; generated schedules would otherwise put weeks of slots on the gauges
+    @Query("select s.id as slotId, s.doctor.id as doctorId, s.slotDate as slotDate, s.startTime as startTime, s.endTime as endTime, s.maxCapacity as maxCapacity, s.activeCount as activeCount, s.waitlistCount as waitlistCount from TimeSlot s where (s.slotDate is null or s.slotDate = :day) and s.closed = false")
+    List<SlotLoad> findLoadsForDay(@Param("day") LocalDate day);
+
+    @Query("select s.id as slotId, d.id as doctorId, d.specialization as specialization, s.slotDate as slotDate, s.startTime as startTime from TimeSlot s join s.doctor d where s.closed = false")
+    List<SlotIndexEntry> findIndexEntries();
+
+    @Query("select s.id as slotId, d.id as doctorId, d.specialization as specialization, s.slotDate as slotDate, s.startTime as startTime from TimeSlot s join s.doctor d where d.id in :doctorIds and s.closed = false")
+    List<SlotIndexEntry> findIndexEntriesByDoctorIdIn(@Param("doctorIds") Collection<Long> doctorIds);
+
+    // Compare-and-set on the version: returns 0 if another writer changed the slot first
+    @Modifying
+    @Query("update TimeSlot s set s.activeCount = s.activeCount + :activeDelta, s.waitlistCount = s.waitlistCount + :waitlistDelta, s.version = s.version + 1 where s.id = :slotId and s.version = :version")
+    int adjustCounters(@Param("slotId") Long slotId, @Param("version") Long version,
+                       @Param("activeDelta") int activeDelta, @Param("waitlistDelta") int waitlistDelta);
+
+    @Modifying
+    @Query("update TimeSlot s set s.activeCount = :activeCount, s.waitlistCount = :waitlistCount, s.version = s.version + 1 where s.id = :slotId")
+    int resetCounters(@Param("slotId") Long slotId, @Param("activeCount") int activeCount, @Param("waitlistCount") int waitlistCount);
 }
@@ -0,0 +1,70 @@
+package com.hospital.opd.repository;
+
+import com.hospital.opd.domain.enums.TokenStatus;
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+// Moves terminal tokens of past slots from token to token_archive, a chunk per transaction
+@Repository
+@RequiredArgsConstructor
+public class TokenArchiver {
+    private static final String TERMINAL = Arrays.stream(TokenStatus.values())
+            .filter(TokenStatus::isTerminal)
+            .map(s -> "'" + s + "'")
+            .collect(Collectors.joining(", "));
+    // Dated slots are found through the slot_date index, then their tokens through the (slot, status) index
+    private static final String FIND_SQL = "select t.id from token t join time_slot s on s.id = t.assigned_slot_id"
+            + " where t.status in (" + TERMINAL + ")"
+            + " and (s.slot_date < ? or (s.slot_date is null and t.created_at < ?))%s limit ?";
+    private static final String COPY_SQL = "insert into token_archive (id, patient_name, source, priority, status, slot_id,"
+            + " doctor_id, slot_date, start_time, created_at, archived_at, contact_number, user_id_number)"
+            + " select t.id, t.patient_name, t.source, t.priority, t.status, s.id, s.doctor_id, s.slot_date, s.start_time,"
+            + " t.created_at, ?, t.contact_number, t.user_id_number"
+            + " from token t join time_slot s on s.id = t.assigned_slot_id where t.id in (%s) and t.status in (" + TERMINAL + ")";
+    private static final String DELETE_SQL = "delete from token where id in (%s) and status in (" + TERMINAL + ")";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    // Undated slots have no day to be past, so their tokens qualify once they were created before undatedBefore.
+    // Clustered, only the given doctors' tokens: two nodes copying the same chunk would collide on the archive's key
+    public List<Long> findArchivable(LocalDate today, LocalDateTime undatedBefore, Collection<Long> doctorIds, int limit) {
+        if (doctorIds == null) {
+            return jdbcTemplate.queryForList(FIND_SQL.formatted(""), Long.class, today, Timestamp.valueOf(undatedBefore), limit);
+        }
+        if (doctorIds.isEmpty()) {
+            return List.of();
+        }
+        List<Object> args = new ArrayList<>();
+        args.add(today);
+        args.add(Timestamp.valueOf(undatedBefore));
+        args.addAll(doctorIds);
+        args.add(limit);
+        String placeholders = String.join(", ", Collections.nCopies(doctorIds.size(), "?"));
+        return jdbcTemplate.queryForList(FIND_SQL.formatted(" and s.doctor_id in (" + placeholders + ")"), Long.class, args.toArray());
+    }
+
+    // Returns the number of tokens moved
+    @Transactional
+    public int move(List<Long> tokenIds) {
+        String placeholders = String.join(", ", Collections.nCopies(tokenIds.size(), "?"));
+        Object[] copyArgs = new Object[tokenIds.size() + 1];
+        copyArgs[0] = Timestamp.valueOf(LocalDateTime.now());
+        for (int i = 0; i < tokenIds.size(); i++) {
+            copyArgs[i + 1] = tokenIds.get(i);
+        }
+        jdbcTemplate.update(COPY_SQL.formatted(placeholders), copyArgs);
+        return jdbcTemplate.update(DELETE_SQL.formatted(placeholders), tokenIds.toArray());
+    }
+}
@@ -0,0 +1,79 @@
+package com.hospital.opd.repository;
+
+import com.hospital.opd.domain.Token;
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.List;
+
+// JDBC batch writes for tokens whose ids were assigned outside of Hibernate (write-behind)
+@Repository
+@RequiredArgsConstructor
+public class TokenBatchWriter {
+    private static final String INSERT_SQL = "insert into token (id, patient_name, source, priority, status, assigned_slot_id, created_at, contact_number, user_id_number) values (?, ?, ?, ?, ?, ?, ?, ?, ?)";
+    // Journal replay: the row may already have been written before the crash
+    private static final String MERGE_SQL = "merge into token (id, patient_name, source, priority, status, assigned_slot_id, created_at, contact_number, user_id_number) key (id) values (?, ?, ?, ?, ?, ?, ?, ?, ?)";
+    private static final String UPDATE_STATUS_SQL = "update token set status = ? where id = ?";
+    private static final String UPDATE_COUNTERS_SQL = "update time_slot set active_count = ?, waitlist_count = ?, version = version + 1 where id = ?";
+
+    // Matches the allocationSize of Token's @SequenceGenerator; with the pooled-lo optimizer a
+    // sequence value v reserves ids v .. v + TOKEN_ID_BLOCK - 1 for whoever drew it
+    public static final int TOKEN_ID_BLOCK = 50;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public long nextTokenIdBlock() {
+        Long start = jdbcTemplate.queryForObject("select next value for token_seq", Long.class);
+        if (start == null) {
+            throw new IllegalStateException("token_seq returned no value");
+        }
+        return start;
+    }
+
+    @Transactional
+    public void insertAll(List<Token> tokens) {
+        jdbcTemplate.batchUpdate(INSERT_SQL, tokens, tokens.size(), TokenBatchWriter::bindRow);
+    }
+
+    @Transactional
+    public void mergeAll(List<Token> tokens) {
+        jdbcTemplate.batchUpdate(MERGE_SQL, tokens, tokens.size(), TokenBatchWriter::bindRow);
+    }
+
+    private static void bindRow(PreparedStatement ps, Token t) throws SQLException {
+        ps.setLong(1, t.getId());
+        ps.setString(2, t.getPatientName());
+        ps.setString(3, t.getSource().name());
+        ps.setInt(4, t.getPriority());
+        ps.setString(5, t.getStatus().name());
+        ps.setLong(6, t.getAssignedSlot().getId());
+        ps.setTimestamp(7, Timestamp.valueOf(t.getCreatedAt()));
+        ps.setString(8, t.getContactNumber());
+        ps.setString(9, t.getUserIdNumber());
+    }
+
+    @Transactional
+    public void updateStatuses(List<Token> tokens) {
+        jdbcTemplate.batchUpdate(UPDATE_STATUS_SQL, tokens, tokens.size(), (ps, t) -> {
+            ps.setString(1, t.getStatus().name());
+            ps.setLong(2, t.getId());
+        });
+    }
+
+    @Transactional
+    public void updateCounters(List<SlotCounts> counts) {
+        jdbcTemplate.batchUpdate(UPDATE_COUNTERS_SQL, counts, counts.size(), (ps, c) -> {
+            ps.setInt(1, c.activeCount());
+            ps.setInt(2, c.waitlistCount());
+            ps.setLong(3, c.slotId());
+        });
+    }
+
+    public record SlotCounts(long slotId, int activeCount, int waitlistCount) {
+    }
+}
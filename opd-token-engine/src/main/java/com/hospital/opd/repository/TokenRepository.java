@@ -1,25 +1,55 @@
 package com.hospital.opd.repository;
 
 import com.hospital.opd.domain.Token;
+import com.hospital.opd.domain.enums.TokenSource;
 import com.hospital.opd.domain.enums.TokenStatus;
+import com.hospital.opd.dto.TokenHistory;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Optional;
 
 @Repository
 public interface TokenRepository extends JpaRepository<Token, Long> {
     long countByAssignedSlotIdAndStatus(Long slotId, TokenStatus status);
 
+    long countByAssignedSlotIdAndStatusAndSource(Long slotId, TokenStatus status, TokenSource source);
+
+    List<Token> findByAssignedSlotId(Long slotId);
+
+    @Query("select t.assignedSlot.id as slotId, t.status as status, count(t) as total from Token t where t.status in :statuses group by t.assignedSlot.id, t.status")
+    List<SlotStatusCount> countGroupedBySlotAndStatus(@Param("statuses") Collection<TokenStatus> statuses);
+
+    // Release needs the slot's counters and version; one select instead of token then slot
+    @Query("select t from Token t join fetch t.assignedSlot where t.id = :tokenId")
+    Optional<Token> findWithSlotById(@Param("tokenId") Long tokenId);
+
+    @Query("select new com.hospital.opd.dto.TokenHistory(t.id, t.patientName, t.source, t.status, s.id, s.doctor.id, s.slotDate, s.startTime, t.createdAt, t.userIdNumber, false) from Token t join t.assignedSlot s where t.id = :tokenId")
+    Optional<TokenHistory> findHistoryById(@Param("tokenId") Long tokenId);
+
+    @Query("select new com.hospital.opd.dto.TokenHistory(t.id, t.patientName, t.source, t.status, s.id, s.doctor.id, s.slotDate, s.startTime, t.createdAt, t.userIdNumber, false) from Token t join t.assignedSlot s where t.userIdNumber = :userIdNumber order by t.createdAt desc")
+    List<TokenHistory> findHistoryByUserIdNumber(@Param("userIdNumber") String userIdNumber, Limit limit);
+
+    @Query("select t.assignedSlot.id from Token t where t.id = :tokenId")
+    Optional<Long> findSlotIdById(@Param("tokenId") Long tokenId);
+
     List<Token> findByAssignedSlotIdAndStatus(Long slotId, TokenStatus status);
+
+    List<Token> findByAssignedSlotIdAndStatusIn(Long slotId, Collection<TokenStatus> statuses);
     
-    // Find active tokens for a slot ordered by priority (descending priority value means lower priority)
-    // Actually we want to find the lowest priority active token to bump. 
-    // Higher priority value = Lower Logic Priority (5 vs 1)
-    // So to find lowest priority, we sort by priority DESC (5, 4, 3...)
-    List<Token> findByAssignedSlotIdAndStatusOrderByPriorityDesc(Long slotId, TokenStatus status);
-
-    // Find waitlisted tokens for a slot ordered by priority (ascending value 1, 2, 3...) and then created time
-    List<Token> findByAssignedSlotIdAndStatusOrderByPriorityAscCreatedAtAsc(Long slotId, TokenStatus status);
+    // Bump victims: lowest priority (highest value) and latest booking first, read from the other end of findQueueHead's index
+    @Query("select t from Token t where t.assignedSlot.id = :slotId and t.status = :status and t.priority > :priority order by t.priority desc, t.createdAt desc")
+    List<Token> findBumpCandidates(@Param("slotId") Long slotId, @Param("status") TokenStatus status,
+                                   @Param("priority") int priority, Limit limit);
+
+    // Find waitlisted tokens for a slot ordered by priority (ascending value 1, 2, 3...) and then created time.
+    // Only the head is read (LIMIT), served by the (assigned_slot_id, status, priority, created_at) index;
+    // written as JPQL so the slot id compares the FK column instead of joining time_slot.
+    @Query("select t from Token t where t.assignedSlot.id = :slotId and t.status = :status order by t.priority asc, t.createdAt asc")
+    List<Token> findQueueHead(@Param("slotId") Long slotId, @Param("status") TokenStatus status, Limit limit);
 }
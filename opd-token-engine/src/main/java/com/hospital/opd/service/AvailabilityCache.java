@@ -0,0 +1,144 @@
+package com.hospital.opd.service;
+
+import com.hospital.opd.domain.TimeSlot;
+import com.hospital.opd.dto.DoctorAvailability;
+import com.hospital.opd.dto.SlotAvailability;
+import com.hospital.opd.event.OwnershipChange;
+import com.hospital.opd.event.TokenTransition;
+import com.hospital.opd.repository.SlotLoad;
+import com.hospital.opd.repository.TimeSlotRepository;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Free seats and waitlist depth of every slot, grouped by doctor. Loaded once at startup, then
+ * kept current from {@link TokenTransition} events, {@link ScheduleService#createSlot},
+ * {@link SlotTemplateService#generate} and {@link ScheduleService#closeSlots}, so reads never touch
+ * the database. Each doctor carries a version for conditional GETs.
+ */
+@Component
+@DependsOn("stateSnapshot")
+@RequiredArgsConstructor
+public class AvailabilityCache {
+    private static final Comparator<SlotAvailability> BY_START = Comparator
+            .comparing(SlotAvailability::slotDate, Comparator.nullsFirst(Comparator.naturalOrder()))
+            .thenComparing(SlotAvailability::startTime)
+            .thenComparing(SlotAvailability::slotId);
+
+    private final TimeSlotRepository timeSlotRepository;
+
+    // Versions start at the startup time so an ETag from before a restart never matches
+    private final long initialVersion = System.currentTimeMillis();
+    private final Map<Long, DoctorView> doctors = new ConcurrentHashMap<>();
+    private final Map<Long, DoctorView> bySlot = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    void load() {
+        load(timeSlotRepository.findLoads());
+    }
+
+    // Only the owner sees a doctor's transitions, so a doctor taken over from another node is reread
+    @EventListener
+    public void on(OwnershipChange change) {
+        if (!change.gained().isEmpty()) {
+            load(timeSlotRepository.findLoadsByDoctorIdIn(change.gained()));
+        }
+    }
+
+    private void load(List<SlotLoad> loads) {
+        for (SlotLoad s : loads) {
+            put(s.getDoctorId(), new SlotAvailability(s.getSlotId(), s.getSlotDate(), s.getStartTime(), s.getEndTime(), s.getMaxCapacity(),
+                    s.getActiveCount(), Math.max(0, s.getMaxCapacity() - s.getActiveCount()), s.getWaitlistCount()));
+        }
+    }
+
+    public void add(TimeSlot slot) {
+        put(slot.getDoctor().getId(), new SlotAvailability(slot.getId(), slot.getSlotDate(), slot.getStartTime(), slot.getEndTime(),
+                slot.getMaxCapacity(), slot.getActiveCount(), Math.max(0, slot.getMaxCapacity() - slot.getActiveCount()),
+                slot.getWaitlistCount()));
+    }
+
+    private void put(Long doctorId, SlotAvailability slot) {
+        DoctorView view = doctors.computeIfAbsent(doctorId, DoctorView::new);
+        bySlot.put(slot.slotId(), view);
+        view.slots.put(slot.slotId(), slot);
+        view.version.incrementAndGet();
+    }
+
+    // A closed slot leaves its doctor's availability
+    public void remove(Long slotId) {
+        DoctorView view = bySlot.remove(slotId);
+        if (view != null && view.slots.remove(slotId) != null) {
+            view.version.incrementAndGet();
+        }
+    }
+
+    // After commit in jpa mode; immediately in memory mode, which has no transaction
+    @TransactionalEventListener(fallbackExecution = true)
+    public void on(TokenTransition transition) {
+        update(transition.slotId(), transition.activeCount(), transition.waitlistCount());
+    }
+
+    public void update(Long slotId, int activeCount, int waitlistCount) {
+        DoctorView view = bySlot.get(slotId);
+        if (view == null) {
+            return;
+        }
+        SlotAvailability current = view.slots.get(slotId);
+        if (current.active() == activeCount && current.waitlist() == waitlistCount) {
+            return;
+        }
+        view.slots.put(slotId, new SlotAvailability(slotId, current.slotDate(), current.startTime(), current.endTime(), current.capacity(),
+                activeCount, Math.max(0, current.capacity() - activeCount), waitlistCount));
+        view.version.incrementAndGet();
+    }
+
+    // Null when the doctor has no slots
+    public DoctorAvailability get(Long doctorId) {
+        DoctorView view = doctors.get(doctorId);
+        return view == null ? null : view.snapshot();
+    }
+
+    // Null when the slot is unknown
+    public SlotAvailability getSlot(Long slotId) {
+        DoctorView view = bySlot.get(slotId);
+        return view == null ? null : view.slots.get(slotId);
+    }
+
+    public DoctorAvailability empty(Long doctorId) {
+        return new DoctorAvailability(doctorId, initialVersion, List.of());
+    }
+
+    private class DoctorView {
+        final Long doctorId;
+        final Map<Long, SlotAvailability> slots = new ConcurrentHashMap<>();
+        final AtomicLong version = new AtomicLong(initialVersion);
+        volatile DoctorAvailability snapshot;
+
+        DoctorView(Long doctorId) {
+            this.doctorId = doctorId;
+        }
+
+        // Rebuilt at most once per version; slots are written before the version moves, so the
+        // content is never older than the version it is tagged with
+        DoctorAvailability snapshot() {
+            DoctorAvailability current = snapshot;
+            long v = version.get();
+            if (current == null || current.version() != v) {
+                current = new DoctorAvailability(doctorId, v, slots.values().stream().sorted(BY_START).toList());
+                snapshot = current;
+            }
+            return current;
+        }
+    }
+}
@@ -0,0 +1,10 @@
+package com.hospital.opd.service;
+
+// What an EMERGENCY booking does when its slot is full (opd.allocation.emergency-policy)
+public enum EmergencyPolicy {
+    // Take a seat beyond capacity
+    OVERBOOK,
+    // Move the lowest-priority ACTIVE token back to the waitlist and take its seat;
+    // overbooks only when every ACTIVE token is itself an emergency
+    BUMP
+}
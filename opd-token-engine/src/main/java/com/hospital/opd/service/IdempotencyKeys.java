@@ -0,0 +1,72 @@
+package com.hospital.opd.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.hospital.opd.domain.Token;
+import com.hospital.opd.metrics.AllocationMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+/**
+ * Idempotency-Key replay for single bookings: a key seen before returns the token its first request
+ * got, as it stands now (cancelled, promoted or bumped since), and a retry arriving while that request
+ * still runs waits for it. A failed request leaves no trace, so the client can retry it under the same
+ * key. Keys are kept in memory on the node that served them, for {@code opd.booking.idempotency.ttl-minutes},
+ * at most {@code max-keys} of them.
+ */
+@Component
+public class IdempotencyKeys {
+    private final TokenAllocator allocator;
+    private final AllocationMetrics metrics;
+    // Token ids only: a replay re-reads the token, so it never reports the status of the first response
+    private final Cache<String, Attempt> attempts;
+
+    public IdempotencyKeys(TokenAllocator allocator, AllocationMetrics metrics,
+                           @Value("${opd.booking.idempotency.ttl-minutes:1440}") long ttlMinutes,
+                           @Value("${opd.booking.idempotency.max-keys:100000}") long maxKeys) {
+        this.allocator = allocator;
+        this.metrics = metrics;
+        this.attempts = Caffeine.newBuilder()
+                .expireAfterWrite(Duration.ofMinutes(ttlMinutes))
+                .maximumSize(maxKeys)
+                .build();
+    }
+
+    // The request identifies what was asked for, so a key reused for another booking is refused instead of replayed
+    public Token replay(String key, String request, Supplier<Token> booking) {
+        while (true) {
+            Attempt mine = new Attempt(request, new CompletableFuture<>());
+            Attempt previous = attempts.asMap().putIfAbsent(key, mine);
+            if (previous == null) {
+                try {
+                    Token token = booking.get();
+                    mine.result.complete(token.getId());
+                    return token;
+                } catch (RuntimeException e) {
+                    attempts.asMap().remove(key, mine);
+                    mine.result.completeExceptionally(e);
+                    throw e;
+                }
+            }
+            if (!previous.request.equals(request)) {
+                throw new IllegalArgumentException("Idempotency-Key was already used for a different booking");
+            }
+            Long tokenId = previous.result.handle((id, failure) -> id).join();
+            if (tokenId != null) {
+                // Archived tokens are history, like for a late cancel
+                Token token = allocator.findToken(tokenId).orElseThrow(() -> new RuntimeException("Token not found"));
+                metrics.deduplicated(token.getSource(), "key");
+                return token;
+            }
+            // The earlier request failed; this one takes its place
+            attempts.asMap().remove(key, previous);
+        }
+    }
+
+    private record Attempt(String request, CompletableFuture<Long> result) {
+    }
+}
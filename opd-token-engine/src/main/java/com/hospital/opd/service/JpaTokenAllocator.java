@@ -0,0 +1,343 @@
+package com.hospital.opd.service;
+
+import com.hospital.opd.domain.TimeSlot;
+import com.hospital.opd.domain.Token;
+import com.hospital.opd.domain.enums.TokenSource;
+import com.hospital.opd.domain.enums.TokenStatus;
+import com.hospital.opd.dto.BookingRequest;
+import com.hospital.opd.dto.SlotDefinition;
+import com.hospital.opd.event.TokenTransition;
+import com.hospital.opd.metrics.AllocationMetrics;
+import com.hospital.opd.repository.NoShowWriter;
+import com.hospital.opd.repository.SlotClosureWriter;
+import com.hospital.opd.repository.SlotCounters;
+import com.hospital.opd.repository.TimeSlotRepository;
+import com.hospital.opd.repository.TokenBatchWriter.SlotCounts;
+import com.hospital.opd.repository.TokenRepository;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.data.domain.Limit;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Supplier;
+
+// Transactional allocation: every decision is made against the database.
+// The slot lock is held around the whole transaction so the count and the insert cannot interleave
+// with another booking for the same slot.
+@Component
+@ConditionalOnProperty(name = "opd.allocation.mode", havingValue = "jpa", matchIfMissing = true)
+public class JpaTokenAllocator implements TokenAllocator {
+    private final TimeSlotRepository timeSlotRepository;
+    private final TokenRepository tokenRepository;
+    private final NoShowWriter noShowWriter;
+    private final SlotClosureWriter slotClosureWriter;
+    private final ReferenceDataService referenceData;
+    private final SlotLockRegistry slotLocks;
+    private final TransactionTemplate transactionTemplate;
+    private final AllocationMetrics metrics;
+    private final ApplicationEventPublisher events;
+    private final EmergencyPolicy emergencyPolicy;
+    private final int maxRetries;
+
+    public JpaTokenAllocator(TimeSlotRepository timeSlotRepository, TokenRepository tokenRepository, NoShowWriter noShowWriter,
+                             SlotClosureWriter slotClosureWriter, ReferenceDataService referenceData, SlotLockRegistry slotLocks, PlatformTransactionManager transactionManager,
+                             AllocationMetrics metrics, ApplicationEventPublisher events,
+                             @Value("${opd.allocation.emergency-policy:bump}") EmergencyPolicy emergencyPolicy,
+                             @Value("${opd.allocation.max-retries:5}") int maxRetries) {
+        this.timeSlotRepository = timeSlotRepository;
+        this.tokenRepository = tokenRepository;
+        this.noShowWriter = noShowWriter;
+        this.slotClosureWriter = slotClosureWriter;
+        this.referenceData = referenceData;
+        this.slotLocks = slotLocks;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.metrics = metrics;
+        this.events = events;
+        this.emergencyPolicy = emergencyPolicy;
+        this.maxRetries = maxRetries;
+    }
+
+    @Override
+    public Token book(String patientName, String contactNumber, String userIdNumber, TokenSource source, Long slotId) {
+        return bookAll(slotId, List.of(new BookingRequest(patientName, contactNumber, userIdNumber, source, slotId))).get(0);
+    }
+
+    @Override
+    public Optional<Token> tryBook(String patientName, String contactNumber, String userIdNumber, TokenSource source, Long slotId) {
+        SlotDefinition definition = slotDefinition(slotId);
+        return slotLocks.withLock(slotId, () -> withRetry(slotId, () -> {
+            SlotCounters slot = counters(slotId);
+            if (slot.isClosed() || slot.getActiveCount() >= slot.getMaxCapacity()) {
+                return Optional.<Token>empty();
+            }
+            Token token = new Token(patientName, contactNumber, userIdNumber, source, timeSlotRepository.getReferenceById(slotId));
+            token.setStatus(TokenStatus.ACTIVE);
+            if (timeSlotRepository.adjustCounters(slotId, slot.getVersion(), 1, 0) == 0) {
+                return null;
+            }
+            tokenRepository.save(token);
+            events.publishEvent(TokenTransition.of(token, definition.doctorId(), TokenStatus.PENDING,
+                    slot.getActiveCount() + 1, slot.getWaitlistCount()));
+            return Optional.of(token);
+        }));
+    }
+
+    @Override
+    public List<Token> bookAll(Long slotId, List<BookingRequest> requests) {
+        SlotDefinition definition = slotDefinition(slotId);
+        Allocation allocation = slotLocks.withLock(slotId, () -> withRetry(slotId, () -> allocate(definition, requests)));
+        allocation.bumped().forEach(t -> metrics.bumped(t.getSource()));
+        allocation.overbooked().forEach(t -> metrics.overbooked(t.getSource()));
+        return allocation.tokens();
+    }
+
+    // Unknown slots are rejected from the cache, before taking a lock or a connection
+    private SlotDefinition slotDefinition(Long slotId) {
+        return referenceData.findSlot(slotId)
+                .orElseThrow(() -> new RuntimeException("Slot not found"));
+    }
+
+    // Only the live counters are read; the token references the slot without loading it
+    private SlotCounters counters(Long slotId) {
+        return timeSlotRepository.findCountersById(slotId)
+                .orElseThrow(() -> new RuntimeException("Slot not found"));
+    }
+
+    // One counter update and one batched insert for the whole group.
+    // Returns null when the slot's version moved underneath us (another node booked it)
+    private Allocation allocate(SlotDefinition definition, List<BookingRequest> requests) {
+        Long slotId = definition.slotId();
+        SlotCounters slot = counters(slotId);
+        if (slot.isClosed()) {
+            throw new RuntimeException("Slot is closed");
+        }
+        TimeSlot reference = timeSlotRepository.getReferenceById(slotId);
+
+        int activeCount = slot.getActiveCount();
+        int waitlisted = 0;
+        List<Token> tokens = new ArrayList<>(requests.size());
+        List<Token> bumped = new ArrayList<>();
+        List<Token> overbooked = new ArrayList<>();
+        Deque<Token> victims = null;
+        for (BookingRequest r : requests) {
+            Token token = new Token(r.patientName(), r.contactNumber(), r.userIdNumber(), r.source(), reference);
+
+            // Allocation Logic
+            if (activeCount < slot.getMaxCapacity()) {
+                token.setStatus(TokenStatus.ACTIVE);
+                activeCount++;
+            } else if (r.source() == TokenSource.EMERGENCY) {
+                // Slot Full: emergency takes the lowest-priority patient's seat, or overrides capacity
+                if (victims == null) {
+                    victims = bumpCandidates(slotId, requests);
+                }
+                Token victim = victims.poll();
+                if (victim != null) {
+                    // Keeps its createdAt, so it waits ahead of equal-priority patients who booked after it
+                    victim.setStatus(TokenStatus.WAITLIST);
+                    bumped.add(victim);
+                    waitlisted++;
+                } else {
+                    overbooked.add(token);
+                    activeCount++;
+                }
+                token.setStatus(TokenStatus.ACTIVE);
+            } else {
+                // Others go to waitlist
+                token.setStatus(TokenStatus.WAITLIST);
+                waitlisted++;
+            }
+            tokens.add(token);
+        }
+
+        if (timeSlotRepository.adjustCounters(slotId, slot.getVersion(), activeCount - slot.getActiveCount(), waitlisted) == 0) {
+            return null;
+        }
+        tokenRepository.saveAll(bumped);
+        tokenRepository.saveAll(tokens);
+
+        int activeAfter = activeCount;
+        int waitlistAfter = slot.getWaitlistCount() + waitlisted;
+        Long doctorId = definition.doctorId();
+        bumped.forEach(t -> events.publishEvent(TokenTransition.of(t, doctorId, TokenStatus.ACTIVE, activeAfter, waitlistAfter)));
+        tokens.forEach(t -> events.publishEvent(TokenTransition.of(t, doctorId, TokenStatus.PENDING, activeAfter, waitlistAfter)));
+        return new Allocation(tokens, bumped, overbooked);
+    }
+
+    // Lowest priority first; at most one victim per emergency in the group
+    private Deque<Token> bumpCandidates(Long slotId, List<BookingRequest> requests) {
+        if (emergencyPolicy != EmergencyPolicy.BUMP) {
+            return new ArrayDeque<>();
+        }
+        int emergencies = (int) requests.stream().filter(r -> r.source() == TokenSource.EMERGENCY).count();
+        return new ArrayDeque<>(tokenRepository.findBumpCandidates(slotId, TokenStatus.ACTIVE,
+                TokenSource.EMERGENCY.getPriority(), Limit.of(emergencies)));
+    }
+
+    private record Allocation(List<Token> tokens, List<Token> bumped, List<Token> overbooked) {
+    }
+
+    @Override
+    public void release(Long tokenId, TokenStatus outcome) {
+        Long slotId = tokenRepository.findSlotIdById(tokenId)
+                .orElseThrow(() -> new RuntimeException("Token not found"));
+        int promoted = slotLocks.withLock(slotId, () -> withRetry(slotId, () -> vacate(tokenId, outcome)));
+        metrics.promoted("release", promoted);
+    }
+
+    // Returns how many waitlisted tokens took the freed seat
+    private Integer vacate(Long tokenId, TokenStatus outcome) {
+        Token token = tokenRepository.findWithSlotById(tokenId)
+                .orElseThrow(() -> new RuntimeException("Token not found"));
+        TimeSlot slot = token.getAssignedSlot();
+                
+        // Already cancelled, swept or archived: its counts were given back then
+        TokenStatus from = token.getStatus();
+        if (from.isTerminal()) {
+            return 0;
+        }
+        // Only trigger reallocation if releasing an active token
+        boolean wasActive = from == TokenStatus.ACTIVE;
+        int activeDelta = wasActive ? -1 : 0;
+        int waitlistDelta = from == TokenStatus.WAITLIST ? -1 : 0;
+        
+        token.setStatus(outcome);
+        tokenRepository.save(token);
+        
+        List<Token> promoted = wasActive
+                ? reallocateSlot(slot.getId(), slot.getMaxCapacity(), slot.getWaitlistCount(), slot.getActiveCount() + activeDelta)
+                : List.of();
+        activeDelta += promoted.size();
+        waitlistDelta -= promoted.size();
+
+        if ((activeDelta != 0 || waitlistDelta != 0)
+                && timeSlotRepository.adjustCounters(slot.getId(), slot.getVersion(), activeDelta, waitlistDelta) == 0) {
+            return null;
+        }
+
+        int activeCount = slot.getActiveCount() + activeDelta;
+        int waitlistCount = slot.getWaitlistCount() + waitlistDelta;
+        events.publishEvent(TokenTransition.of(token, from, activeCount, waitlistCount));
+        promoted.forEach(t -> events.publishEvent(TokenTransition.of(t, TokenStatus.WAITLIST, activeCount, waitlistCount)));
+        return promoted.size();
+    }
+
+    @Override
+    public Optional<Token> findToken(Long tokenId) {
+        return tokenRepository.findWithSlotById(tokenId);
+    }
+
+    @Override
+    public List<Token> heldTokens(Long slotId) {
+        return tokenRepository.findByAssignedSlotIdAndStatusIn(slotId, List.of(TokenStatus.ACTIVE, TokenStatus.WAITLIST));
+    }
+
+    @Override
+    public int reallocate(Long slotId) {
+        int promoted = promote(slotId);
+        metrics.promoted("reallocate", promoted);
+        return promoted;
+    }
+
+    // One set-based UPDATE marks the tokens of every slot, without slot locks: the recount bumps each slot's
+    // version, so a booking or release that raced it fails its counter update and retries against the new state
+    @Override
+    public int expireActive(Collection<Long> slotIds) {
+        Integer marked = transactionTemplate.execute(status -> {
+            List<NoShowWriter.MarkedToken> tokens = noShowWriter.markNoShow(slotIds);
+            if (tokens.isEmpty()) {
+                return 0;
+            }
+            Map<Long, SlotCounts> bySlot = new HashMap<>();
+            noShowWriter.recount(tokens.stream().map(NoShowWriter.MarkedToken::slotId).distinct().toList())
+                    .forEach(c -> bySlot.put(c.slotId(), c));
+            for (NoShowWriter.MarkedToken t : tokens) {
+                SlotCounts c = bySlot.get(t.slotId());
+                events.publishEvent(new TokenTransition(t.tokenId(), t.slotId(), slotDefinition(t.slotId()).doctorId(),
+                        t.source(), t.from(), t.to(), c.activeCount(), c.waitlistCount()));
+            }
+            return tokens.size();
+        });
+        return marked == null ? 0 : marked;
+    }
+
+    // Two set-based statements for all the slots, without slot locks: the close bumps each slot's version, so a
+    // booking that raced it fails its counter update and, retrying, finds the slot closed
+    @Override
+    public List<Token> closeSlots(Collection<Long> slotIds) {
+        if (slotIds.isEmpty()) {
+            return List.of();
+        }
+        return transactionTemplate.execute(status -> {
+            slotClosureWriter.close(slotIds);
+            List<Token> cancelled = new ArrayList<>();
+            for (SlotClosureWriter.CancelledToken c : slotClosureWriter.cancelHeld(slotIds)) {
+                Token token = new Token(c.patientName(), c.contactNumber(), c.userIdNumber(), c.source(),
+                        timeSlotRepository.getReferenceById(c.slotId()));
+                token.setId(c.tokenId());
+                token.setCreatedAt(c.createdAt());
+                token.setStatus(TokenStatus.CANCELLED);
+                events.publishEvent(TokenTransition.of(token, slotDefinition(c.slotId()).doctorId(), c.from(), 0, 0));
+                cancelled.add(token);
+            }
+            return cancelled;
+        });
+    }
+
+    private int promote(Long slotId) {
+        Long doctorId = slotDefinition(slotId).doctorId();
+        return slotLocks.withLock(slotId, () -> withRetry(slotId, () -> {
+            SlotCounters slot = counters(slotId);
+            List<Token> next = reallocateSlot(slotId, slot.getMaxCapacity(), slot.getWaitlistCount(), slot.getActiveCount());
+            int count = next.size();
+            if (count > 0 && timeSlotRepository.adjustCounters(slotId, slot.getVersion(), count, -count) == 0) {
+                return null;
+            }
+            next.forEach(t -> events.publishEvent(TokenTransition.of(t, doctorId, TokenStatus.WAITLIST,
+                    slot.getActiveCount() + count, slot.getWaitlistCount() - count)));
+            return count;
+        }));
+    }
+    
+    private List<Token> reallocateSlot(Long slotId, int maxCapacity, int waitlistCount, int activeCount) {
+        int freeSeats = maxCapacity - activeCount;
+        if (freeSeats <= 0 || waitlistCount == 0) {
+            return List.of();
+        }
+        // Highest priority waitlisted tokens first
+        // Sort by Priority ASC (1=Emergency... 5=WalkIn) then CreatedAt ASC (FIFO)
+        List<Token> next = tokenRepository.findQueueHead(slotId, TokenStatus.WAITLIST, Limit.of(freeSeats));
+        next.forEach(t -> t.setStatus(TokenStatus.ACTIVE));
+        tokenRepository.saveAll(next);
+        return next;
+    }
+
+    // Each attempt is its own transaction; a null result means the counter update lost the race
+    private <T> T withRetry(Long slotId, Supplier<T> attempt) {
+        for (int i = 0; i < maxRetries; i++) {
+            T result = transactionTemplate.execute(status -> {
+                T value = attempt.get();
+                if (value == null) {
+                    status.setRollbackOnly();
+                }
+                return value;
+            });
+            if (result != null) {
+                return result;
+            }
+        }
+        throw new OptimisticLockingFailureException("Slot " + slotId + " kept changing, gave up after " + maxRetries + " attempts");
+    }
+}
@@ -0,0 +1,49 @@
+package com.hospital.opd.service;
+
+import com.hospital.opd.domain.Doctor;
+import com.hospital.opd.domain.TimeSlot;
+import com.hospital.opd.dto.SlotDefinition;
+import com.hospital.opd.repository.DoctorRepository;
+import com.hospital.opd.repository.TimeSlotRepository;
+import lombok.RequiredArgsConstructor;
+import org.springframework.cache.annotation.CacheEvict;
+import org.springframework.cache.annotation.Cacheable;
+import org.springframework.stereotype.Service;
+
+import java.util.Optional;
+
+/**
+ * Cached reads of doctors and slot definitions, which hardly change during a clinic day. Size,
+ * expiry and stats come from {@code spring.cache.caffeine.spec}. Every save goes through here and
+ * evicts its entry; the expiry bounds how long another node's change can go unseen.
+ * Misses are not cached, so an id that does not exist yet is looked up again next time.
+ */
+@Service
+@RequiredArgsConstructor
+public class ReferenceDataService {
+    public static final String DOCTORS = "doctors";
+    public static final String SLOTS = "slots";
+
+    private final DoctorRepository doctorRepository;
+    private final TimeSlotRepository timeSlotRepository;
+
+    @Cacheable(cacheNames = DOCTORS, unless = "#result == null")
+    public Optional<Doctor> findDoctor(Long doctorId) {
+        return doctorRepository.findById(doctorId);
+    }
+
+    @Cacheable(cacheNames = SLOTS, unless = "#result == null")
+    public Optional<SlotDefinition> findSlot(Long slotId) {
+        return timeSlotRepository.findDefinitionById(slotId);
+    }
+
+    @CacheEvict(cacheNames = DOCTORS, key = "#result.id")
+    public Doctor saveDoctor(Doctor doctor) {
+        return doctorRepository.save(doctor);
+    }
+
+    @CacheEvict(cacheNames = SLOTS, key = "#result.id")
+    public TimeSlot saveSlot(TimeSlot slot) {
+        return timeSlotRepository.save(slot);
+    }
+}
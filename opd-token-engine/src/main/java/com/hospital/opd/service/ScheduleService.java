@@ -5,95 +5,358 @@ import com.hospital.opd.domain.TimeSlot;
 import com.hospital.opd.domain.Token;
 import com.hospital.opd.domain.enums.TokenSource;
 import com.hospital.opd.domain.enums.TokenStatus;
-import com.hospital.opd.repository.DoctorRepository;
+import com.hospital.opd.dto.BookingRequest;
+import com.hospital.opd.dto.BookingResult;
+import com.hospital.opd.dto.DoctorAvailability;
+import com.hospital.opd.dto.SlotAvailability;
+import com.hospital.opd.dto.SlotClosureResult;
+import com.hospital.opd.dto.SlotView;
+import com.hospital.opd.metrics.AllocationMetrics;
 import com.hospital.opd.repository.TimeSlotRepository;
-import com.hospital.opd.repository.TokenRepository;
+import io.micrometer.core.instrument.Timer;
 import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
+import java.time.LocalDate;
 import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 
+@Slf4j
 @Service
 @RequiredArgsConstructor
 public class ScheduleService {
-    private final DoctorRepository doctorRepository;
+    private final ReferenceDataService referenceData;
     private final TimeSlotRepository timeSlotRepository;
-    private final TokenRepository tokenRepository;
+    private final TokenAllocator tokenAllocator;
+    private final SlotLockRegistry slotLocks;
+    private final AllocationMetrics metrics;
+    private final SlotIndex slotIndex;
+    private final AvailabilityCache availabilityCache;
+    private final TokenStreamHub streamHub;
+    private final SlotPatientIndex patientIndex;
+    private final IdempotencyKeys idempotencyKeys;
+
+    @Value("${opd.allocation.spillover.mode:off}")
+    private SpilloverMode spilloverMode;
+
+    @Value("${opd.allocation.spillover.max-candidates:5}")
+    private int spilloverCandidates;
+
+    @Value("${opd.absence.max-candidates:10}")
+    private int rehomeCandidates;
 
     public Doctor createDoctor(String name, String specialization) {
-        return doctorRepository.save(new Doctor(name, specialization));
+        return referenceData.saveDoctor(new Doctor(name, specialization));
     }
 
     public TimeSlot createSlot(Long doctorId, LocalTime start, LocalTime end, int capacity) {
-        Doctor doctor = doctorRepository.findById(doctorId)
+        return createSlot(doctorId, null, start, end, capacity);
+    }
+
+    // date may be null for an undated slot
+    public TimeSlot createSlot(Long doctorId, LocalDate date, LocalTime start, LocalTime end, int capacity) {
+        Doctor doctor = referenceData.findDoctor(doctorId)
                 .orElseThrow(() -> new RuntimeException("Doctor not found"));
-        return timeSlotRepository.save(new TimeSlot(doctor, start, end, capacity));
+        TimeSlot slot = referenceData.saveSlot(new TimeSlot(doctor, date, start, end, capacity));
+        slotIndex.add(slot);
+        availabilityCache.add(slot);
+        return slot;
     }
 
-    public List<TimeSlot> getDoctorSlots(Long doctorId) {
-        return timeSlotRepository.findByDoctorId(doctorId);
+    public List<SlotView> getDoctorSlots(Long doctorId) {
+        return timeSlotRepository.findViewsByDoctorId(doctorId);
+    }
+
+    // Served from memory; only a doctor with no slots is looked up, and that lookup is cached
+    public DoctorAvailability getAvailability(Long doctorId) {
+        DoctorAvailability availability = availabilityCache.get(doctorId);
+        if (availability != null) {
+            return availability;
+        }
+        if (referenceData.findDoctor(doctorId).isEmpty()) {
+            throw new RuntimeException("Doctor not found");
+        }
+        return availabilityCache.empty(doctorId);
+    }
+    
+    public SseEmitter streamDoctor(Long doctorId) {
+        return streamHub.subscribe(TokenStreamHub.Scope.DOCTOR, doctorId, getAvailability(doctorId));
+    }
+
+    public SseEmitter streamSlot(Long slotId) {
+        SlotAvailability slot = availabilityCache.getSlot(slotId);
+        if (slot == null) {
+            throw new RuntimeException("Slot not found");
+        }
+        return streamHub.subscribe(TokenStreamHub.Scope.SLOT, slotId, slot);
     }
     
-    @Transactional
     public Token bookToken(String patientName, String contactNumber, String userIdNumber, TokenSource source, Long slotId) {
-        TimeSlot slot = timeSlotRepository.findById(slotId)
-                .orElseThrow(() -> new RuntimeException("Slot not found"));
-        
-        Token token = new Token(patientName, contactNumber, userIdNumber, source, slot);
-        
-        long activeCount = tokenRepository.countByAssignedSlotIdAndStatus(slotId, TokenStatus.ACTIVE);
-        
-        // Allocation Logic
-        if (activeCount < slot.getMaxCapacity()) {
-            token.setStatus(TokenStatus.ACTIVE);
-        } else {
-            // Slot Full
-            if (source == TokenSource.EMERGENCY) {
-                // Emergency overrides capacity
-                token.setStatus(TokenStatus.ACTIVE);
-            } else {
-                // Others go to waitlist
-                token.setStatus(TokenStatus.WAITLIST);
+        return bookToken(null, patientName, contactNumber, userIdNumber, source, slotId);
+    }
+
+    // A repeated idempotency key, or a patient already holding a token in the slot, gets the existing token back;
+    // a waitlisted token is replaced by a booking that outranks it
+    public Token bookToken(String idempotencyKey, String patientName, String contactNumber, String userIdNumber,
+                           TokenSource source, Long slotId) {
+        Supplier<Token> booking = () -> patientIndex.bookOnce(slotId, userIdNumber, source,
+                () -> allocate(patientName, contactNumber, userIdNumber, source, slotId));
+        if (idempotencyKey == null || idempotencyKey.isBlank()) {
+            return booking.get();
+        }
+        return idempotencyKeys.replay(idempotencyKey, userIdNumber + "|" + source + "|" + slotId, booking);
+    }
+
+    private Token allocate(String patientName, String contactNumber, String userIdNumber, TokenSource source, Long slotId) {
+        Timer.Sample sample = metrics.start();
+        try {
+            Token token = spilloverMode == SpilloverMode.OFF || source == TokenSource.EMERGENCY
+                    ? tokenAllocator.book(patientName, contactNumber, userIdNumber, source, slotId)
+                    : bookWithSpillover(patientName, contactNumber, userIdNumber, source, slotId);
+            metrics.booked(sample, source, token.getStatus().name());
+            return token;
+        } catch (RuntimeException e) {
+            metrics.booked(sample, source, AllocationMetrics.ERROR);
+            throw e;
+        }
+    }
+    
+    // Tries the requested slot, then the nearest later slots in the index; waitlists in the requested slot if all are full.
+    // A patient already spilled into a later slot, e.g. by an earlier attempt of a retried booking, gets that token back
+    private Token bookWithSpillover(String patientName, String contactNumber, String userIdNumber, TokenSource source, Long slotId) {
+        Optional<Token> token = tokenAllocator.tryBook(patientName, contactNumber, userIdNumber, source, slotId);
+        if (token.isPresent()) {
+            return token.get();
+        }
+        for (Long laterSlotId : slotIndex.laterSlots(slotId, spilloverMode, spilloverCandidates)) {
+            Optional<Token> held = patientIndex.find(laterSlotId, userIdNumber);
+            if (held.isPresent()) {
+                if (!SlotPatientIndex.answers(held.get(), source)) {
+                    continue;
+                }
+                metrics.deduplicated(source, "patient");
+                return held.get();
+            }
+            token = tokenAllocator.tryBook(patientName, contactNumber, userIdNumber, source, laterSlotId);
+            if (token.isPresent()) {
+                metrics.spilled(source, spilloverMode);
+                return token.get();
             }
         }
-        
-        return tokenRepository.save(token);
+        return tokenAllocator.book(patientName, contactNumber, userIdNumber, source, slotId);
+    }
+
+    // Groups the requests by slot and books each group highest priority first; results keep request order.
+    // A patient appearing more than once in a group is booked once, by their highest-priority request, and the
+    // others are answered with that token. A token the patient already holds in the slot answers it too, unless
+    // it is waitlisted and outranked: then the new token is booked and the old one cancelled
+    public List<BookingResult> bookTokens(List<BookingRequest> requests) {
+        Map<Long, List<Integer>> bySlot = new LinkedHashMap<>();
+        for (int i = 0; i < requests.size(); i++) {
+            bySlot.computeIfAbsent(requests.get(i).slotId(), id -> new ArrayList<>()).add(i);
+        }
+
+        Timer.Sample sample = metrics.start();
+        BookingResult[] results = new BookingResult[requests.size()];
+        Map<Integer, Integer> repeats = new HashMap<>();
+        bySlot.forEach((slotId, group) -> {
+            // Earliest request wins a tie
+            Map<String, Integer> bestOfPatient = new HashMap<>();
+            for (Integer i : group) {
+                if (requests.get(i).userIdNumber() != null) {
+                    bestOfPatient.merge(requests.get(i).userIdNumber(), i, (kept, next) ->
+                            requests.get(next).source().getPriority() < requests.get(kept).source().getPriority() ? next : kept);
+                }
+            }
+            List<Integer> indexes = new ArrayList<>();
+            List<Token> superseded = new ArrayList<>();
+            for (Integer i : group) {
+                BookingRequest request = requests.get(i);
+                Integer best = request.userIdNumber() == null ? i : bestOfPatient.get(request.userIdNumber());
+                if (!best.equals(i)) {
+                    repeats.put(i, best);
+                    continue;
+                }
+                Optional<Token> held = patientIndex.find(slotId, request.userIdNumber());
+                if (held.isPresent() && SlotPatientIndex.answers(held.get(), request.source())) {
+                    results[i] = BookingResult.booked(i, held.get());
+                    metrics.deduplicated(held.get().getSource(), "patient");
+                } else {
+                    held.ifPresent(superseded::add);
+                    indexes.add(i);
+                }
+            }
+            if (indexes.isEmpty()) {
+                return;
+            }
+
+            // Stable sort: same-priority requests keep their submission order
+            indexes.sort(Comparator.comparingInt(i -> requests.get(i).source().getPriority()));
+            List<Token> tokens;
+            try {
+                tokens = tokenAllocator.bookAll(slotId, indexes.stream().map(requests::get).toList());
+            } catch (RuntimeException e) {
+                indexes.forEach(i -> results[i] = BookingResult.failed(i, slotId, e.getMessage()));
+                indexes.forEach(i -> metrics.allocated(requests.get(i).source(), AllocationMetrics.ERROR));
+                return;
+            }
+            // Released first, so the index drops the old tokens before it learns the new ones
+            superseded.forEach(token -> release(token.getId(), TokenStatus.CANCELLED));
+            for (int k = 0; k < indexes.size(); k++) {
+                results[indexes.get(k)] = BookingResult.booked(indexes.get(k), tokens.get(k));
+                metrics.allocated(tokens.get(k).getSource(), tokens.get(k).getStatus().name());
+                patientIndex.add(tokens.get(k));
+            }
+        });
+        repeats.forEach((i, first) -> {
+            BookingResult original = results[first];
+            results[i] = original.tokenId() == null
+                    ? BookingResult.failed(i, original.slotId(), original.error())
+                    : original.at(i);
+        });
+        metrics.bookedBatch(sample, requests.size());
+        return Arrays.asList(results);
     }
     
-    @Transactional
     public void cancelToken(Long tokenId) {
-        Token token = tokenRepository.findById(tokenId)
-                .orElseThrow(() -> new RuntimeException("Token not found"));
-                
-        // Only trigger reallocation if cancelling an active token
-        boolean wasActive = token.getStatus() == TokenStatus.ACTIVE;
-        
-        token.setStatus(TokenStatus.CANCELLED);
-        tokenRepository.save(token);
-        
-        if (wasActive) {
-            reallocateSlot(token.getAssignedSlot().getId());
+        release(tokenId, TokenStatus.CANCELLED);
+    }
+
+    public void markNoShow(Long tokenId) {
+        release(tokenId, TokenStatus.NO_SHOW);
+    }
+
+    private void release(Long tokenId, TokenStatus outcome) {
+        Timer.Sample sample = metrics.start();
+        try {
+            tokenAllocator.release(tokenId, outcome);
+            metrics.released(sample, outcome, AllocationMetrics.OK);
+        } catch (RuntimeException e) {
+            metrics.released(sample, outcome, AllocationMetrics.ERROR);
+            throw e;
         }
     }
-    
-    private void reallocateSlot(Long slotId) {
-        TimeSlot slot = timeSlotRepository.findById(slotId)
-                .orElseThrow(() -> new RuntimeException("Slot not found"));
-                
-        long activeCount = tokenRepository.countByAssignedSlotIdAndStatus(slotId, TokenStatus.ACTIVE);
-        
-        if (activeCount < slot.getMaxCapacity()) {
-            // Find highest priority waitlisted token
-            // Sort by Priority ASC (1=Emergency... 5=WalkIn) then CreatedAt ASC (FIFO)
-            List<Token> waitlist = tokenRepository.findByAssignedSlotIdAndStatusOrderByPriorityAscCreatedAtAsc(slotId, TokenStatus.WAITLIST);
-            
-            if (!waitlist.isEmpty()) {
-                Token nextToken = waitlist.get(0);
-                nextToken.setStatus(TokenStatus.ACTIVE);
-                tokenRepository.save(nextToken);
+
+    // Doctor absence: closes the doctor's open slots on the date, or the listed ones, and cancels their tokens with
+    // set-based statements, then books the displaced patients into the nearest open slots of the doctor or the
+    // specialization in one batch. Highest priority first, each takes the first candidate with a free seat, else
+    // joins the first candidate's waitlist; with rehome OFF, or no open slot left, the patient is only cancelled
+    public SlotClosureResult closeSlots(Long doctorId, LocalDate date, List<Long> slotIds, SpilloverMode rehome) {
+        if (referenceData.findDoctor(doctorId).isEmpty()) {
+            throw new RuntimeException("Doctor not found");
+        }
+        boolean bySlot = slotIds != null && !slotIds.isEmpty();
+        if ((date != null) == bySlot) {
+            throw new IllegalArgumentException("Give either a date or slot ids");
+        }
+        List<SlotView> slots = timeSlotRepository.findViewsByDoctorId(doctorId);
+        if (bySlot) {
+            Set<Long> own = new HashSet<>(slots.stream().map(SlotView::id).toList());
+            slotIds.stream().filter(id -> !own.contains(id)).findFirst().ifPresent(id -> {
+                throw new IllegalArgumentException("Slot " + id + " is not one of the doctor's slots");
+            });
+        }
+        // Already closed slots are skipped, so repeating a call only closes what is still open
+        List<Long> closing = slots.stream()
+                .filter(s -> !s.closed() && (bySlot ? slotIds.contains(s.id()) : date.equals(s.slotDate())))
+                .map(SlotView::id)
+                .toList();
+
+        Timer.Sample sample = metrics.start();
+        long start = System.nanoTime();
+        // Candidates are picked while the closing slots are still indexed; the closing ones are never candidates
+        Set<Long> closingSet = new HashSet<>(closing);
+        Map<Long, List<Long>> candidates = new HashMap<>();
+        for (Long slotId : closing) {
+            candidates.put(slotId, slotIndex.followingSlots(slotId, rehome, rehomeCandidates, closingSet));
+            slotIndex.remove(slotId);
+            availabilityCache.remove(slotId);
+        }
+        List<Token> displaced = new ArrayList<>(tokenAllocator.closeSlots(closing));
+        displaced.sort(Comparator.comparingInt(Token::getPriority)
+                .thenComparing(Token::getCreatedAt)
+                .thenComparing(Token::getId));
+
+        // Planned against the free seats in the availability view; the allocator has the final word
+        Map<Long, Integer> free = new HashMap<>();
+        List<BookingRequest> requests = new ArrayList<>();
+        List<Token> moving = new ArrayList<>();
+        List<SlotClosureResult.Rehoming> outcomes = new ArrayList<>(displaced.size());
+        for (Token token : displaced) {
+            List<Long> options = candidates.getOrDefault(token.getAssignedSlot().getId(), List.of());
+            if (options.isEmpty()) {
+                outcomes.add(new SlotClosureResult.Rehoming(token.getId(), token.getUserIdNumber(), token.getSource(),
+                        null, null, null, "No open slot to move to"));
+                continue;
+            }
+            Long target = options.stream()
+                    .filter(id -> free.computeIfAbsent(id, this::freeSeats) > 0)
+                    .findFirst()
+                    .orElse(options.get(0));
+            free.computeIfPresent(target, (id, seats) -> Math.max(0, seats - 1));
+            requests.add(new BookingRequest(token.getPatientName(), token.getContactNumber(), token.getUserIdNumber(),
+                    token.getSource(), target));
+            moving.add(token);
+        }
+
+        List<BookingResult> results = requests.isEmpty() ? List.of() : bookTokens(requests);
+        for (int i = 0; i < results.size(); i++) {
+            Token token = moving.get(i);
+            BookingResult r = results.get(i);
+            outcomes.add(new SlotClosureResult.Rehoming(token.getId(), token.getUserIdNumber(), token.getSource(),
+                    r.slotId(), r.tokenId(), r.status(), r.error()));
+        }
+
+        int rehomed = 0;
+        int waitlisted = 0;
+        for (SlotClosureResult.Rehoming o : outcomes) {
+            if (o.status() == TokenStatus.ACTIVE) {
+                rehomed++;
+            } else if (o.status() == TokenStatus.WAITLIST) {
+                waitlisted++;
             }
+            metrics.rehomed(o.source(), o.status() == null ? "UNPLACED" : o.status().name());
         }
+        metrics.closed(sample);
+        long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        log.info("Closed {} slots of doctor {}: {} tokens cancelled, {} re-homed, {} waitlisted elsewhere in {} ms",
+                closing.size(), doctorId, displaced.size(), rehomed, waitlisted, millis);
+        return new SlotClosureResult(doctorId, closing, displaced.size(), rehomed, waitlisted,
+                displaced.size() - rehomed - waitlisted, millis, outcomes);
+    }
+
+    private int freeSeats(Long slotId) {
+        SlotAvailability slot = availabilityCache.getSlot(slotId);
+        return slot == null ? 0 : slot.free();
+    }
+
+    public int reallocateSlot(Long slotId) {
+        Timer.Sample sample = metrics.start();
+        try {
+            int promoted = tokenAllocator.reallocate(slotId);
+            metrics.reallocated(sample, promoted > 0 ? "PROMOTED" : "NONE");
+            return promoted;
+        } catch (RuntimeException e) {
+            metrics.reallocated(sample, AllocationMetrics.ERROR);
+            throw e;
+        }
+    }
+
+    public List<SlotLockRegistry.WaitStats> getSlotLockStats() {
+        return slotLocks.waitStats();
     }
 }
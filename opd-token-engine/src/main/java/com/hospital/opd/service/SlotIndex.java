@@ -0,0 +1,136 @@
+package com.hospital.opd.service;
+
+import com.hospital.opd.cluster.ClusterMembership;
+import com.hospital.opd.domain.TimeSlot;
+import com.hospital.opd.event.OwnershipChange;
+import com.hospital.opd.repository.SlotIndexEntry;
+import com.hospital.opd.repository.TimeSlotRepository;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * Slots ordered by date and start time, per doctor and per specialization, so spillover can walk
+ * to the nearest later slot without querying the slot table. Loaded once at startup and kept in
+ * sync by {@link ScheduleService#createSlot}, {@link SlotTemplateService#generate} and
+ * {@link ScheduleService#closeSlots}, which takes closed slots out.
+ */
+@Component
+@DependsOn("stateSnapshot")
+@RequiredArgsConstructor
+public class SlotIndex {
+    private static final Comparator<Entry> BY_START = Comparator
+            .comparing(Entry::slotDate, Comparator.nullsFirst(Comparator.naturalOrder()))
+            .thenComparing(Entry::startTime)
+            .thenComparing(Entry::slotId);
+
+    private final TimeSlotRepository timeSlotRepository;
+    private final ObjectProvider<ClusterMembership> cluster;
+
+    private final Map<Long, Entry> bySlot = new ConcurrentHashMap<>();
+    private final Map<Long, NavigableSet<Entry>> byDoctor = new ConcurrentHashMap<>();
+    private final Map<String, NavigableSet<Entry>> bySpecialization = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    void load() {
+        load(timeSlotRepository.findIndexEntries());
+    }
+
+    // Slots created on the previous owner since startup are only in its index
+    @EventListener
+    public void on(OwnershipChange change) {
+        if (!change.gained().isEmpty()) {
+            load(timeSlotRepository.findIndexEntriesByDoctorIdIn(change.gained()));
+        }
+    }
+
+    private void load(List<SlotIndexEntry> entries) {
+        for (SlotIndexEntry e : entries) {
+            add(new Entry(e.getSlotId(), e.getDoctorId(), e.getSpecialization(), e.getSlotDate(), e.getStartTime()));
+        }
+    }
+
+    public void add(TimeSlot slot) {
+        add(new Entry(slot.getId(), slot.getDoctor().getId(), slot.getDoctor().getSpecialization(), slot.getSlotDate(), slot.getStartTime()));
+    }
+
+    private void add(Entry entry) {
+        bySlot.put(entry.slotId(), entry);
+        byDoctor.computeIfAbsent(entry.doctorId(), id -> new ConcurrentSkipListSet<>(BY_START)).add(entry);
+        if (entry.specialization() != null) {
+            bySpecialization.computeIfAbsent(entry.specialization(), s -> new ConcurrentSkipListSet<>(BY_START)).add(entry);
+        }
+    }
+
+    public void remove(Long slotId) {
+        Entry entry = bySlot.remove(slotId);
+        if (entry == null) {
+            return;
+        }
+        NavigableSet<Entry> ofDoctor = byDoctor.get(entry.doctorId());
+        if (ofDoctor != null) {
+            ofDoctor.remove(entry);
+        }
+        NavigableSet<Entry> ofSpecialization = entry.specialization() == null ? null : bySpecialization.get(entry.specialization());
+        if (ofSpecialization != null) {
+            ofSpecialization.remove(entry);
+        }
+    }
+
+    // Up to limit slots on the same day starting at or after the given slot, nearest first; never includes
+    // the slot itself. Clustered, only slots of doctors this node owns, since another node's allocator holds the rest
+    public List<Long> laterSlots(Long slotId, SpilloverMode mode, int limit) {
+        return walk(slotId, mode, limit, true, Set.of());
+    }
+
+    // Like laterSlots, but carries on into the following days, and passes over the skipped slots
+    public List<Long> followingSlots(Long slotId, SpilloverMode mode, int limit, Set<Long> skip) {
+        return walk(slotId, mode, limit, false, skip);
+    }
+
+    private List<Long> walk(Long slotId, SpilloverMode mode, int limit, boolean sameDay, Set<Long> skip) {
+        Entry from = bySlot.get(slotId);
+        if (from == null || mode == SpilloverMode.OFF) {
+            return List.of();
+        }
+        NavigableSet<Entry> slots = mode == SpilloverMode.SPECIALIZATION && from.specialization() != null
+                ? bySpecialization.get(from.specialization())
+                : byDoctor.get(from.doctorId());
+        if (slots == null) {
+            return List.of();
+        }
+
+        // Sorts before every slot with the same start time, so parallel slots of other doctors are included
+        Entry sameStart = new Entry(Long.MIN_VALUE, null, null, from.slotDate(), from.startTime());
+        ClusterMembership membership = cluster.getIfAvailable();
+        List<Long> later = new ArrayList<>(limit);
+        for (Entry e : slots.tailSet(sameStart, true)) {
+            if (later.size() == limit || (sameDay && !Objects.equals(e.slotDate(), from.slotDate()))) {
+                break;
+            }
+            if (!e.slotId().equals(slotId) && !skip.contains(e.slotId())
+                    && (membership == null || membership.isLocal(e.doctorId()))) {
+                later.add(e.slotId());
+            }
+        }
+        return later;
+    }
+
+    private record Entry(Long slotId, Long doctorId, String specialization, LocalDate slotDate, LocalTime startTime) {
+    }
+}
@@ -0,0 +1,126 @@
+package com.hospital.opd.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * One lock per slot id: mutations of the same slot run one at a time, different slots never
+ * contend. Records how long callers waited for each slot's lock. Locks left idle for a while are
+ * evicted, along with their statistics, so the registry holds the slots in use rather than every
+ * slot ever booked.
+ */
+@Component
+public class SlotLockRegistry {
+    private final Map<Long, SlotLock> locks = new ConcurrentHashMap<>();
+    private final long idleNanos;
+
+    public SlotLockRegistry(@Value("${opd.locks.idle-evict-minutes:60}") long idleMinutes) {
+        this.idleNanos = TimeUnit.MINUTES.toNanos(idleMinutes);
+    }
+
+    // A lock is only evicted while its evictor holds it, so a caller that got the lock after that
+    // finds another one (or none) in the map and starts over with the slot's current lock. The acquisition
+    // is counted once, on the lock it ends up holding, with the time waited on every lock before it
+    public <T> T withLock(Long slotId, Supplier<T> action) {
+        long waited = 0;
+        while (true) {
+            SlotLock slotLock = locks.computeIfAbsent(slotId, id -> new SlotLock());
+            waited += slotLock.acquire();
+            if (locks.get(slotId) != slotLock) {
+                slotLock.lock.unlock();
+                continue;
+            }
+            slotLock.acquired(waited);
+            try {
+                return action.get();
+            } finally {
+                slotLock.lock.unlock();
+            }
+        }
+    }
+
+    public void withLock(Long slotId, Runnable action) {
+        withLock(slotId, () -> {
+            action.run();
+            return null;
+        });
+    }
+
+    // Skips a lock that is held or waited for; returns how many were evicted
+    @Scheduled(fixedDelayString = "${opd.locks.evict-interval-ms:600000}", initialDelayString = "${opd.locks.evict-interval-ms:600000}")
+    public int evictIdle() {
+        long idleSince = System.nanoTime() - idleNanos;
+        int evicted = 0;
+        for (Map.Entry<Long, SlotLock> entry : locks.entrySet()) {
+            SlotLock slotLock = entry.getValue();
+            if (slotLock.lastUsed - idleSince < 0 && slotLock.lock.tryLock()) {
+                try {
+                    if (locks.remove(entry.getKey(), slotLock)) {
+                        evicted++;
+                    }
+                } finally {
+                    slotLock.lock.unlock();
+                }
+            }
+        }
+        return evicted;
+    }
+
+    // Slowest slots first, among the slots used since the last eviction
+    public List<WaitStats> waitStats() {
+        List<WaitStats> stats = new ArrayList<>(locks.size());
+        locks.forEach((slotId, slotLock) -> stats.add(slotLock.stats(slotId)));
+        stats.sort(Comparator.comparingLong(WaitStats::totalWaitMicros).reversed());
+        return stats;
+    }
+
+    public record WaitStats(Long slotId, long acquisitions, long contended, long totalWaitMicros, long maxWaitMicros) {
+    }
+
+    private static class SlotLock {
+        final ReentrantLock lock = new ReentrantLock();
+        final LongAdder acquisitions = new LongAdder();
+        final LongAdder contended = new LongAdder();
+        final LongAdder waitNanos = new LongAdder();
+        final AtomicLong maxWaitNanos = new AtomicLong();
+        volatile long lastUsed = System.nanoTime();
+
+        // Nanos waited, 0 when the lock was free. A free lock costs one clock read, for lastUsed
+        long acquire() {
+            long now = System.nanoTime();
+            lastUsed = now;
+            if (lock.tryLock()) {
+                return 0;
+            }
+            lock.lock();
+            return System.nanoTime() - now;
+        }
+
+        void acquired(long waited) {
+            acquisitions.increment();
+            if (waited > 0) {
+                contended.increment();
+                waitNanos.add(waited);
+                maxWaitNanos.accumulateAndGet(waited, Math::max);
+            }
+        }
+
+        WaitStats stats(Long slotId) {
+            return new WaitStats(slotId, acquisitions.sum(), contended.sum(),
+                    TimeUnit.NANOSECONDS.toMicros(waitNanos.sum()),
+                    TimeUnit.NANOSECONDS.toMicros(maxWaitNanos.get()));
+        }
+    }
+}
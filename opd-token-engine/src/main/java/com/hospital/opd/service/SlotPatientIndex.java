@@ -0,0 +1,245 @@
+package com.hospital.opd.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.hospital.opd.domain.Token;
+import com.hospital.opd.domain.enums.TokenSource;
+import com.hospital.opd.domain.enums.TokenStatus;
+import com.hospital.opd.dto.SlotDefinition;
+import com.hospital.opd.event.OwnershipChange;
+import com.hospital.opd.event.TokenTransition;
+import com.hospital.opd.metrics.AllocationMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Which patients (userIdNumber) hold an ACTIVE or WAITLIST token in each slot, so a patient booking
+ * a slot again gets the token they already hold instead of a second seat, without a database read.
+ * Only a waitlisted token outranked by the new booking's source is replaced instead.
+ * A slot's entry is filled from the allocator the first time a booking needs it, then kept current
+ * from {@link TokenTransition} events. Entries are bounded by {@code opd.booking.dedupe.max-slots}
+ * and expire when their slot ends; undated slots after {@code undated-ttl-hours} without a booking.
+ */
+@Component
+public class SlotPatientIndex {
+    private final TokenAllocator allocator;
+    private final ReferenceDataService referenceData;
+    private final AllocationMetrics metrics;
+    private final boolean enabled;
+    private final Cache<Long, SlotPatients> slots;
+
+    public SlotPatientIndex(TokenAllocator allocator, ReferenceDataService referenceData, AllocationMetrics metrics,
+                            @Value("${opd.booking.dedupe.enabled:true}") boolean enabled,
+                            @Value("${opd.booking.dedupe.max-slots:20000}") long maxSlots,
+                            @Value("${opd.booking.dedupe.undated-ttl-hours:24}") long undatedTtlHours) {
+        this.allocator = allocator;
+        this.referenceData = referenceData;
+        this.metrics = metrics;
+        this.enabled = enabled;
+        this.slots = Caffeine.newBuilder()
+                .maximumSize(maxSlots)
+                .expireAfter(new UntilSlotEnds(Duration.ofHours(undatedTtlHours).toNanos()))
+                .build();
+    }
+
+    // Runs the booking unless the patient already holds a token in the slot that answers it (see answers). Bookings
+    // of one patient for one slot run one at a time; a retry arriving during the first attempt gets its token. A
+    // booking spilled to a later slot is remembered under that slot, not the requested one
+    public Token bookOnce(Long slotId, String userIdNumber, TokenSource source, Supplier<Token> booking) {
+        SlotPatients patients = enabled && userIdNumber != null && !userIdNumber.isBlank() ? patients(slotId) : null;
+        if (patients == null) {
+            return booking.get();
+        }
+        while (true) {
+            CompletableFuture<Token> mine = new CompletableFuture<>();
+            CompletableFuture<Token> held = patients.byPatient.putIfAbsent(userIdNumber, mine);
+            if (held == null) {
+                return book(patients, slotId, userIdNumber, mine, booking);
+            }
+            Token existing = held.handle((token, failure) -> token).join();
+            if (existing != null && isHeld(existing.getStatus())) {
+                if (answers(existing, source)) {
+                    metrics.deduplicated(existing.getSource(), "patient");
+                    return existing;
+                }
+                if (patients.byPatient.replace(userIdNumber, held, mine)) {
+                    return supersede(patients, slotId, userIdNumber, mine, existing, booking);
+                }
+                continue;
+            }
+            // The first attempt failed or its token has been released since
+            patients.byPatient.remove(userIdNumber, held);
+        }
+    }
+
+    // A held token answers a new booking unless it only waits and the new booking outranks it: an emergency must
+    // not be handed the patient's waitlisted online token
+    public static boolean answers(Token held, TokenSource source) {
+        return held.getStatus() == TokenStatus.ACTIVE || source.getPriority() >= held.getPriority();
+    }
+
+    // Books the outranking request, then cancels the waitlisted token it replaces; if the booking fails the
+    // patient keeps the old token
+    private Token supersede(SlotPatients patients, Long slotId, String userIdNumber, CompletableFuture<Token> mine,
+                           Token existing, Supplier<Token> booking) {
+        patients.tokenPatients.remove(existing.getId());
+        Token token;
+        try {
+            token = book(patients, slotId, userIdNumber, mine, booking);
+        } catch (RuntimeException e) {
+            patients.add(existing);
+            throw e;
+        }
+        allocator.release(existing.getId(), TokenStatus.CANCELLED);
+        return token;
+    }
+
+    private Token book(SlotPatients patients, Long slotId, String userIdNumber, CompletableFuture<Token> mine,
+                       Supplier<Token> booking) {
+        Token token;
+        try {
+            token = booking.get();
+        } catch (RuntimeException e) {
+            patients.byPatient.remove(userIdNumber, mine);
+            mine.completeExceptionally(e);
+            throw e;
+        }
+        Long bookedSlotId = token.getAssignedSlot().getId();
+        if (bookedSlotId.equals(slotId)) {
+            patients.tokenPatients.put(token.getId(), userIdNumber);
+        } else {
+            // Recorded under the later slot before the requested one lets a retry through, so the retry finds it there
+            SlotPatients target = patients(bookedSlotId);
+            if (target != null) {
+                target.add(token);
+            }
+            patients.byPatient.remove(userIdNumber, mine);
+        }
+        mine.complete(token);
+        return token;
+    }
+
+    // The patient's live token in the slot, for batches, which book a slot's group under one lock instead,
+    // and for spillover, which must not seat a retried booking in a later slot twice. Callers check answers
+    public Optional<Token> find(Long slotId, String userIdNumber) {
+        SlotPatients patients = enabled && userIdNumber != null && !userIdNumber.isBlank() ? patients(slotId) : null;
+        if (patients == null) {
+            return Optional.empty();
+        }
+        CompletableFuture<Token> held = patients.byPatient.get(userIdNumber);
+        Token token = held == null ? null : held.getNow(null);
+        return token != null && isHeld(token.getStatus()) ? Optional.of(token) : Optional.empty();
+    }
+
+    public void add(Token token) {
+        SlotPatients patients = enabled ? slots.getIfPresent(token.getAssignedSlot().getId()) : null;
+        if (patients != null) {
+            patients.add(token);
+        }
+    }
+
+    // Null for an unknown slot. Loaded outside the cache's compute, which would hold a map lock across the read.
+    // A transition committed between the read and the put is missed: the memory engine's tokens still show it,
+    // a jpa copy does not until the entry expires
+    private SlotPatients patients(Long slotId) {
+        SlotPatients patients = slots.getIfPresent(slotId);
+        if (patients != null) {
+            return patients;
+        }
+        Optional<SlotDefinition> definition = referenceData.findSlot(slotId);
+        if (definition.isEmpty()) {
+            return null;
+        }
+        SlotPatients loaded = new SlotPatients(definition.get());
+        allocator.heldTokens(slotId).forEach(loaded::add);
+        SlotPatients raced = slots.asMap().putIfAbsent(slotId, loaded);
+        return raced != null ? raced : loaded;
+    }
+
+    // After commit in jpa mode; immediately in memory mode, which has no transaction
+    @TransactionalEventListener(fallbackExecution = true)
+    public void on(TokenTransition transition) {
+        SlotPatients patients = slots.getIfPresent(transition.slotId());
+        String userIdNumber = patients == null ? null : patients.tokenPatients.get(transition.tokenId());
+        if (userIdNumber == null) {
+            return;
+        }
+        CompletableFuture<Token> held = patients.byPatient.get(userIdNumber);
+        Token token = held == null ? null : held.getNow(null);
+        if (token == null || !token.getId().equals(transition.tokenId())) {
+            return;
+        }
+        if (isHeld(transition.to())) {
+            // jpa mode keeps a detached copy; the memory engine's token already has this status
+            token.setStatus(transition.to());
+        } else {
+            patients.byPatient.remove(userIdNumber, held);
+            patients.tokenPatients.remove(transition.tokenId());
+        }
+    }
+
+    // Another node now sees the transitions of the doctors this one lost
+    @EventListener
+    public void on(OwnershipChange change) {
+        if (!change.lost().isEmpty()) {
+            slots.asMap().values().removeIf(p -> change.lost().contains(p.doctorId));
+        }
+    }
+
+    private static boolean isHeld(TokenStatus status) {
+        return status == TokenStatus.ACTIVE || status == TokenStatus.WAITLIST;
+    }
+
+    private static class SlotPatients {
+        final Long doctorId;
+        // Null for an undated slot
+        final LocalDateTime endsAt;
+        // Pending while the patient's first booking is running
+        final Map<String, CompletableFuture<Token>> byPatient = new ConcurrentHashMap<>();
+        final Map<Long, String> tokenPatients = new ConcurrentHashMap<>();
+
+        SlotPatients(SlotDefinition definition) {
+            this.doctorId = definition.doctorId();
+            this.endsAt = definition.slotDate() == null ? null : definition.slotDate().atTime(definition.endTime());
+        }
+
+        // A patient already holding several tokens from before keeps the first one seen
+        void add(Token token) {
+            if (token.getUserIdNumber() != null
+                    && byPatient.putIfAbsent(token.getUserIdNumber(), CompletableFuture.completedFuture(token)) == null) {
+                tokenPatients.put(token.getId(), token.getUserIdNumber());
+            }
+        }
+    }
+
+    private record UntilSlotEnds(long undatedNanos) implements Expiry<Long, SlotPatients> {
+        @Override
+        public long expireAfterCreate(Long slotId, SlotPatients patients, long currentTime) {
+            if (patients.endsAt == null) {
+                return undatedNanos;
+            }
+            return Math.max(0, Duration.between(LocalDateTime.now(), patients.endsAt).toNanos());
+        }
+
+        @Override
+        public long expireAfterUpdate(Long slotId, SlotPatients patients, long currentTime, long currentDuration) {
+            return currentDuration;
+        }
+
+        @Override
+        public long expireAfterRead(Long slotId, SlotPatients patients, long currentTime, long currentDuration) {
+            return patients.endsAt == null ? undatedNanos : currentDuration;
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package com.hospital.opd.service;
+
+import com.hospital.opd.cluster.ClusterMembership;
+import com.hospital.opd.domain.Doctor;
+import com.hospital.opd.domain.SlotTemplate;
+import com.hospital.opd.domain.TimeSlot;
+import com.hospital.opd.dto.SlotGenerationResult;
+import com.hospital.opd.dto.SlotTemplateRequest;
+import com.hospital.opd.dto.SlotTemplateView;
+import com.hospital.opd.repository.SlotBatchWriter;
+import com.hospital.opd.repository.SlotTemplateRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Weekly slot templates and the generator that expands them into dated slots. A slot that already
+ * exists for the doctor, day and start time is skipped, so re-running a range only fills its gaps;
+ * the table's unique key backs this up against another writer. New rows go in with JDBC batches,
+ * then into the slot index and availability view just like a slot from {@link ScheduleService#createSlot}.
+ */
+@Slf4j
+@Service
+public class SlotTemplateService {
+    // Bounds the work of one call; longer horizons are generated in several calls
+    private static final long MAX_DAYS = 366;
+
+    private final SlotTemplateRepository templateRepository;
+    private final SlotBatchWriter slotBatchWriter;
+    private final ReferenceDataService referenceData;
+    private final SlotIndex slotIndex;
+    private final AvailabilityCache availabilityCache;
+    private final ObjectProvider<ClusterMembership> cluster;
+    private final Timer generateTimer;
+    private final Counter generated;
+    // Not synchronized: generation is a long database write, which would pin a virtual thread's carrier
+    private final ReentrantLock generateLock = new ReentrantLock();
+
+    public SlotTemplateService(SlotTemplateRepository templateRepository, SlotBatchWriter slotBatchWriter,
+                               ReferenceDataService referenceData, SlotIndex slotIndex,
+                               AvailabilityCache availabilityCache, ObjectProvider<ClusterMembership> cluster,
+                               MeterRegistry registry) {
+        this.templateRepository = templateRepository;
+        this.slotBatchWriter = slotBatchWriter;
+        this.referenceData = referenceData;
+        this.slotIndex = slotIndex;
+        this.availabilityCache = availabilityCache;
+        this.cluster = cluster;
+        this.generateTimer = Timer.builder("opd.slots.generate")
+                .description("Time to expand slot templates over a date range")
+                .register(registry);
+        this.generated = Counter.builder("opd.slots.generated")
+                .description("Slots created from templates")
+                .register(registry);
+    }
+
+    public SlotTemplateView createTemplate(Long doctorId, SlotTemplateRequest request) {
+        Doctor doctor = referenceData.findDoctor(doctorId)
+                .orElseThrow(() -> new RuntimeException("Doctor not found"));
+        if (request.days() == null || request.days().isEmpty()) {
+            throw new IllegalArgumentException("Template needs at least one day");
+        }
+        if (request.sessionStart() == null || request.sessionEnd() == null || !request.sessionEnd().isAfter(request.sessionStart())) {
+            throw new IllegalArgumentException("Session must end after it starts");
+        }
+        if (request.slotMinutes() <= 0 || request.capacity() <= 0) {
+            throw new IllegalArgumentException("Slot length and capacity must be positive");
+        }
+        SlotTemplate template = new SlotTemplate(doctor, request.days(), request.sessionStart(), request.sessionEnd(),
+                request.slotMinutes(), request.capacity());
+        return SlotTemplateView.from(templateRepository.save(template));
+    }
+
+    public List<SlotTemplateView> getTemplates(Long doctorId) {
+        return templateRepository.findByDoctorId(doctorId).stream().map(SlotTemplateView::from).toList();
+    }
+
+    // Slots already generated from the template stay
+    public void deleteTemplate(Long templateId) {
+        if (!templateRepository.existsById(templateId)) {
+            throw new RuntimeException("Template not found");
+        }
+        templateRepository.deleteById(templateId);
+    }
+
+    // Both dates inclusive. Clustered, only the templates of doctors this node owns, so their slots land in the owner's index
+    public SlotGenerationResult generate(LocalDate from, LocalDate to) {
+        if (to.isBefore(from) || ChronoUnit.DAYS.between(from, to) >= MAX_DAYS) {
+            throw new IllegalArgumentException("Range must run forwards and span at most " + MAX_DAYS + " days");
+        }
+        generateLock.lock();
+        try {
+            long start = System.nanoTime();
+            ClusterMembership membership = cluster.getIfAvailable();
+            List<SlotTemplate> templates = templateRepository.findAllWithDoctor().stream()
+                    .filter(t -> membership == null || membership.isLocal(t.getDoctor().getId()))
+                    .toList();
+
+            // Filled in as slots are planned too, so overlapping templates of a doctor yield one slot
+            Set<SlotBatchWriter.SlotKey> taken = slotBatchWriter.findKeys(from, to);
+            List<TimeSlot> slots = new ArrayList<>();
+            int existing = 0;
+            for (LocalDate day = from; !day.isAfter(to); day = day.plusDays(1)) {
+                for (SlotTemplate t : templates) {
+                    if (!t.runsOn(day.getDayOfWeek())) {
+                        continue;
+                    }
+                    // Minutes of day rather than LocalTime arithmetic, which wraps past midnight
+                    int end = t.getSessionEnd().toSecondOfDay() / 60;
+                    for (int m = t.getSessionStart().toSecondOfDay() / 60; m + t.getSlotMinutes() <= end; m += t.getSlotMinutes()) {
+                        LocalTime slotStart = LocalTime.ofSecondOfDay(m * 60L);
+                        if (taken.add(new SlotBatchWriter.SlotKey(t.getDoctor().getId(), day, slotStart))) {
+                            slots.add(new TimeSlot(t.getDoctor(), day, slotStart, slotStart.plusMinutes(t.getSlotMinutes()), t.getCapacity()));
+                        } else {
+                            existing++;
+                        }
+                    }
+                }
+            }
+
+            slotBatchWriter.insertAll(slots);
+            for (TimeSlot slot : slots) {
+                slotIndex.add(slot);
+                availabilityCache.add(slot);
+            }
+            long nanos = System.nanoTime() - start;
+            generateTimer.record(nanos, TimeUnit.NANOSECONDS);
+            generated.increment(slots.size());
+            log.info("Generated {} slots from {} templates for {} .. {} ({} already there) in {} ms",
+                    slots.size(), templates.size(), from, to, existing, TimeUnit.NANOSECONDS.toMillis(nanos));
+            return new SlotGenerationResult(from, to, templates.size(), slots.size(), existing, TimeUnit.NANOSECONDS.toMillis(nanos));
+        } finally {
+            generateLock.unlock();
+        }
+    }
+}
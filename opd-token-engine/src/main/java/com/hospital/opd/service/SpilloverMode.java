@@ -0,0 +1,11 @@
+package com.hospital.opd.service;
+
+// Where a booking for a full slot may be moved instead of waitlisted (opd.allocation.spillover.mode)
+public enum SpilloverMode {
+    // Always waitlist in the requested slot
+    OFF,
+    // Nearest later slot of the same doctor
+    DOCTOR,
+    // Nearest later slot of any doctor with the same specialization
+    SPECIALIZATION
+}
@@ -0,0 +1,44 @@
+package com.hospital.opd.service;
+
+import com.hospital.opd.domain.Token;
+import com.hospital.opd.domain.enums.TokenSource;
+import com.hospital.opd.domain.enums.TokenStatus;
+import com.hospital.opd.dto.BookingRequest;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Decides ACTIVE/WAITLIST for bookings and promotes the waitlist when seats free up.
+ * Selected with {@code opd.allocation.mode} (jpa or memory).
+ */
+public interface TokenAllocator {
+    Token book(String patientName, String contactNumber, String userIdNumber, TokenSource source, Long slotId);
+
+    // Books an ACTIVE token only if the slot has a free seat; never waitlists, bumps or overbooks. A closed slot has no seat
+    Optional<Token> tryBook(String patientName, String contactNumber, String userIdNumber, TokenSource source, Long slotId);
+
+    // Books requests for one slot in the given order under a single lock/transaction; returns tokens in the same order
+    List<Token> bookAll(Long slotId, List<BookingRequest> requests);
+
+    // Moves a token to a terminal status (CANCELLED, NO_SHOW...) and refills its seat if it was ACTIVE
+    void release(Long tokenId, TokenStatus outcome);
+
+    // Promotes as many waitlisted tokens as the slot has free seats; returns how many moved
+    int reallocate(Long slotId);
+
+    // The token as the allocator currently sees it; empty once it has been archived
+    Optional<Token> findToken(Long tokenId);
+
+    // The slot's ACTIVE and WAITLIST tokens, as the allocator currently sees them
+    List<Token> heldTokens(Long slotId);
+
+    // Marks every ACTIVE token of the (finished) slots NO_SHOW and every WAITLIST token EXPIRED; nothing is
+    // promoted into a slot that is over. Returns how many tokens were marked
+    int expireActive(Collection<Long> slotIds);
+
+    // Closes the slots to further bookings and cancels their ACTIVE and WAITLIST tokens; returns the cancelled
+    // tokens, with the patient details needed to book them elsewhere
+    List<Token> closeSlots(Collection<Long> slotIds);
+}
@@ -0,0 +1,43 @@
+package com.hospital.opd.service;
+
+import com.hospital.opd.dto.TokenHistory;
+import com.hospital.opd.repository.ArchivedTokenRepository;
+import com.hospital.opd.repository.TokenRepository;
+import lombok.RequiredArgsConstructor;
+import org.springframework.data.domain.Limit;
+import org.springframework.stereotype.Service;
+
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * History lookups across the live token table and token_archive. A token is in exactly one tier
+ * except briefly after a journal replay restores an archived row; the live copy wins then.
+ */
+@Service
+@RequiredArgsConstructor
+public class TokenHistoryService {
+    private static final Comparator<TokenHistory> NEWEST_FIRST = Comparator
+            .comparing(TokenHistory::createdAt, Comparator.reverseOrder())
+            .thenComparing(TokenHistory::tokenId, Comparator.reverseOrder());
+
+    private final TokenRepository tokenRepository;
+    private final ArchivedTokenRepository archivedTokenRepository;
+
+    // Live tier first: every token not yet archived is found with one primary key lookup
+    public TokenHistory getToken(Long tokenId) {
+        return tokenRepository.findHistoryById(tokenId)
+                .or(() -> archivedTokenRepository.findHistoryById(tokenId))
+                .orElseThrow(() -> new RuntimeException("Token not found"));
+    }
+
+    // A patient's tokens, newest first, up to limit in total
+    public List<TokenHistory> getPatientHistory(String userIdNumber, int limit) {
+        Map<Long, TokenHistory> byId = new LinkedHashMap<>();
+        tokenRepository.findHistoryByUserIdNumber(userIdNumber, Limit.of(limit)).forEach(t -> byId.put(t.tokenId(), t));
+        archivedTokenRepository.findHistoryByUserIdNumber(userIdNumber, Limit.of(limit)).forEach(t -> byId.putIfAbsent(t.tokenId(), t));
+        return byId.values().stream().sorted(NEWEST_FIRST).limit(limit).toList();
+    }
+}
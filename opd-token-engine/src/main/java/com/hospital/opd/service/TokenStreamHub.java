@@ -0,0 +1,198 @@
+package com.hospital.opd.service;
+
+import com.hospital.opd.dto.SlotDefinition;
+import com.hospital.opd.event.OwnershipChange;
+import com.hospital.opd.event.TokenTransition;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Fans {@link TokenTransition}s out to SSE subscribers of a slot or a doctor. The booking thread
+ * only drops the event into each subscriber's bounded queue; a virtual thread per busy subscriber
+ * does the socket writes. A subscriber that falls more than a buffer behind loses its oldest events.
+ */
+@Slf4j
+@Component
+public class TokenStreamHub {
+    public enum Scope {
+        SLOT,
+        DOCTOR
+    }
+
+    private final Map<Long, Set<Subscriber>> bySlot = new ConcurrentHashMap<>();
+    private final Map<Long, Set<Subscriber>> byDoctor = new ConcurrentHashMap<>();
+    private final Set<Subscriber> all = ConcurrentHashMap.newKeySet();
+    private final ExecutorService senders = Executors.newVirtualThreadPerTaskExecutor();
+    private final Counter dropped;
+    private final ReferenceDataService referenceData;
+    private final long timeoutMs;
+    private final int bufferSize;
+
+    public TokenStreamHub(MeterRegistry registry, ReferenceDataService referenceData,
+                          @Value("${opd.stream.timeout-ms:1800000}") long timeoutMs,
+                          @Value("${opd.stream.buffer-size:256}") int bufferSize) {
+        this.referenceData = referenceData;
+        this.timeoutMs = timeoutMs;
+        this.bufferSize = bufferSize;
+        this.dropped = Counter.builder("opd.stream.dropped")
+                .description("Events discarded because a subscriber's buffer was full")
+                .register(registry);
+        Gauge.builder("opd.stream.subscribers", all, Set::size)
+                .description("Open SSE subscriptions")
+                .register(registry);
+    }
+
+    // The snapshot is sent first so a display can render before the next change arrives
+    public SseEmitter subscribe(Scope scope, Long id, Object snapshot) {
+        SseEmitter emitter = new SseEmitter(timeoutMs);
+        Subscriber subscriber = new Subscriber(emitter, scope == Scope.SLOT ? bySlot : byDoctor, id);
+        subscriber.index.compute(id, (k, group) -> {
+            Set<Subscriber> members = group != null ? group : ConcurrentHashMap.newKeySet();
+            members.add(subscriber);
+            return members;
+        });
+        all.add(subscriber);
+        emitter.onCompletion(subscriber::remove);
+        emitter.onTimeout(subscriber::close);
+        emitter.onError(e -> subscriber.close());
+        subscriber.offer(new Event("snapshot", snapshot));
+        return emitter;
+    }
+
+    // After commit in jpa mode; immediately in memory mode, which has no transaction
+    @TransactionalEventListener(fallbackExecution = true)
+    public void on(TokenTransition transition) {
+        Event event = new Event("transition", transition);
+        offer(bySlot.get(transition.slotId()), event);
+        offer(byDoctor.get(transition.doctorId()), event);
+    }
+
+    private static void offer(Set<Subscriber> subscribers, Event event) {
+        if (subscribers != null) {
+            subscribers.forEach(s -> s.offer(event));
+        }
+    }
+
+    // Transitions of a doctor taken over by another node are published there; ending these streams
+    // makes clients reconnect, and the routing filter sends them to the new owner
+    @EventListener
+    public void on(OwnershipChange change) {
+        if (change.lost().isEmpty()) {
+            return;
+        }
+        change.lost().forEach(doctorId -> close(byDoctor.get(doctorId)));
+        bySlot.forEach((slotId, subscribers) -> {
+            Long doctorId = referenceData.findSlot(slotId).map(SlotDefinition::doctorId).orElse(null);
+            if (change.lost().contains(doctorId)) {
+                close(subscribers);
+            }
+        });
+    }
+
+    private static void close(Set<Subscriber> subscribers) {
+        if (subscribers != null) {
+            List.copyOf(subscribers).forEach(Subscriber::close);
+        }
+    }
+
+    // Comment lines keep proxies from closing idle streams and surface dead clients
+    @Scheduled(fixedDelayString = "${opd.stream.heartbeat-ms:15000}")
+    public void heartbeat() {
+        all.forEach(s -> s.offer(Event.HEARTBEAT));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        all.forEach(s -> s.emitter.complete());
+        senders.shutdown();
+    }
+
+    private record Event(String name, Object data) {
+        static final Event HEARTBEAT = new Event(null, null);
+
+        SseEmitter.SseEventBuilder toSse() {
+            return name == null ? SseEmitter.event().comment("heartbeat") : SseEmitter.event().name(name).data(data);
+        }
+    }
+
+    private class Subscriber {
+        final SseEmitter emitter;
+        final Map<Long, Set<Subscriber>> index;
+        final Long id;
+        final BlockingQueue<Event> queue = new ArrayBlockingQueue<>(bufferSize);
+        final AtomicBoolean draining = new AtomicBoolean();
+
+        Subscriber(SseEmitter emitter, Map<Long, Set<Subscriber>> index, Long id) {
+            this.emitter = emitter;
+            this.index = index;
+            this.id = id;
+        }
+
+        // Never blocks the publisher: a full buffer sheds its oldest event
+        void offer(Event event) {
+            while (!queue.offer(event)) {
+                if (queue.poll() != null) {
+                    dropped.increment();
+                }
+            }
+            if (draining.compareAndSet(false, true)) {
+                try {
+                    senders.execute(this::drain);
+                } catch (RejectedExecutionException e) {
+                    // Shutting down
+                    draining.set(false);
+                }
+            }
+        }
+
+        void drain() {
+            try {
+                do {
+                    Event event;
+                    while ((event = queue.poll()) != null) {
+                        emitter.send(event.toSse());
+                    }
+                    draining.set(false);
+                    // An offer between the last poll and the reset saw draining=true and did not schedule us
+                } while (!queue.isEmpty() && draining.compareAndSet(false, true));
+            } catch (IOException | IllegalStateException e) {
+                log.debug("Dropping SSE subscriber for {} {}: {}", index == bySlot ? "slot" : "doctor", id, e.getMessage());
+                close();
+            }
+        }
+
+        void close() {
+            remove();
+            emitter.complete();
+        }
+
+        void remove() {
+            all.remove(this);
+            index.computeIfPresent(id, (k, group) -> {
+                group.remove(this);
+                return group.isEmpty() ? null : group;
+            });
+        }
+    }
+}
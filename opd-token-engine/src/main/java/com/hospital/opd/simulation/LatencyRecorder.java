@@ -0,0 +1,51 @@
+package com.hospital.opd.simulation;
+
+import java.util.Arrays;
+
+// Append-only latency samples for one client thread; merged and sorted once the run is over
+class LatencyRecorder {
+    private long[] samples = new long[1024];
+    private int size;
+
+    void record(long nanos) {
+        if (size == samples.length) {
+            samples = Arrays.copyOf(samples, size * 2);
+        }
+        samples[size++] = nanos;
+    }
+
+    int size() {
+        return size;
+    }
+
+    static Summary summarize(Iterable<LatencyRecorder> recorders) {
+        int total = 0;
+        for (LatencyRecorder r : recorders) {
+            total += r.size;
+        }
+        long[] all = new long[total];
+        int offset = 0;
+        for (LatencyRecorder r : recorders) {
+            System.arraycopy(r.samples, 0, all, offset, r.size);
+            offset += r.size;
+        }
+        Arrays.sort(all);
+        return new Summary(total, percentile(all, 0.50), percentile(all, 0.99), percentile(all, 0.999),
+                total == 0 ? 0 : all[total - 1]);
+    }
+
+    private static long percentile(long[] sorted, double p) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        return sorted[(int) Math.min(sorted.length - 1, Math.ceil(p * sorted.length) - 1)];
+    }
+
+    record Summary(int count, long p50, long p99, long p999, long max) {
+        @Override
+        public String toString() {
+            return String.format("n=%-7d p50=%8.3f ms  p99=%8.3f ms  p999=%8.3f ms  max=%8.3f ms",
+                    count, p50 / 1e6, p99 / 1e6, p999 / 1e6, max / 1e6);
+        }
+    }
+}
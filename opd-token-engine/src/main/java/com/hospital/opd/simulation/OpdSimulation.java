@@ -5,92 +5,224 @@ import com.hospital.opd.domain.TimeSlot;
 import com.hospital.opd.domain.Token;
 import com.hospital.opd.domain.enums.TokenSource;
 import com.hospital.opd.domain.enums.TokenStatus;
+import com.hospital.opd.dto.SlotAvailability;
+import com.hospital.opd.engine.TokenWriteBehind;
+import com.hospital.opd.repository.TimeSlotRepository;
+import com.hospital.opd.repository.TokenRepository;
 import com.hospital.opd.service.ScheduleService;
+import com.hospital.opd.service.SlotLockRegistry;
 import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.boot.CommandLineRunner;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.thread.Threading;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.core.env.Environment;
 import org.springframework.stereotype.Component;
 
 import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
+/**
+ * Workload driver: sets up doctors and slots, then has concurrent clients book, cancel and
+ * no-show tokens through ScheduleService, and reports throughput, latency percentiles and
+ * whether any slot ended up overbooked or inconsistent. Shaped by the opd.simulation.* properties.
+ */
 @Component
+@ConditionalOnProperty(name = "opd.simulation.enabled", havingValue = "true", matchIfMissing = true)
+@EnableConfigurationProperties(SimulationProperties.class)
 @RequiredArgsConstructor
 public class OpdSimulation implements CommandLineRunner {
 
+    private static final String[] SPECIALIZATIONS = {"Cardiology", "Orthopedics", "General", "Pediatrics", "Dermatology"};
+
     private final ScheduleService scheduleService;
+    private final TimeSlotRepository timeSlotRepository;
+    private final TokenRepository tokenRepository;
+    private final ObjectProvider<TokenWriteBehind> writeBehind;
+    private final SimulationProperties props;
+    private final Environment environment;
 
     @Override
     public void run(String... args) throws Exception {
         System.out.println("Starting OPD Simulation...");
 
-        // 1. Setup Data: 3 Doctors
-        Doctor d1 = scheduleService.createDoctor("Dr. Smith", "Cardiology");
-        Doctor d2 = scheduleService.createDoctor("Dr. Jones", "Orthopedics");
-        Doctor d3 = scheduleService.createDoctor("Dr. Williams", "General");
-
-        System.out.println("Ref Doctors created: " + d1.getName() + ", " + d2.getName() + ", " + d3.getName());
-
-        // 2. Setup Slots
-        // Dr. Smith has small capacity (2)
-        TimeSlot s1 = scheduleService.createSlot(d1.getId(), LocalTime.of(9, 0), LocalTime.of(10, 0), 2);
-        
-        System.out.println("Slot created for Dr. Smith: 9-10 AM, Capacity: 2");
-
-        // 3. Simulate Logic
-        System.out.println("\n--- Booking Phase ---");
-        
-        // Fill capacity
-        System.out.println("Booking Patient A (Walk-in)");
-        Token t1 = scheduleService.bookToken("Patient A", "555-0001", "ID001", TokenSource.WALK_IN, s1.getId());
-        printToken(t1);
-
-        System.out.println("Booking Patient B (Online)");
-        Token t2 = scheduleService.bookToken("Patient B", "555-0002", "ID002", TokenSource.ONLINE, s1.getId());
-        printToken(t2);
-
-        // Over capacity -> Waitlist
-        System.out.println("Booking Patient C (Walk-in) - Should go to WAITLIST");
-        Token t3 = scheduleService.bookToken("Patient C", "555-0003", "ID003", TokenSource.WALK_IN, s1.getId());
-        printToken(t3);
-
-        // Emergency -> Overbook (Active)
-        System.out.println("Booking Patient D (EMERGENCY) - Should be ACTIVE (Overbook)");
-        Token t4 = scheduleService.bookToken("Patient D", "911-0000", "EMERG001", TokenSource.EMERGENCY, s1.getId());
-        printToken(t4);
-        
-        System.out.println("\n--- Cancellation Phase ---");
-        // Cancel Patient B (Online, Slot #2)
-        System.out.println("Cancelling Patient B...");
-        scheduleService.cancelToken(t2.getId());
-        
-        System.out.println("Checking Reallocation (Patient C should move to ACTIVE? or Slot still full due to Emergency?)");
-        // Capacity = 2. Active = A(1), D(1 - Emergency). Count = 2.
-        // If Emergency counts towards capacity, slot is full.
-        // My logic: activeCount < Capacity.
-        // If A and D are Active, count is 2. Capacity 2. NO Reallocation.
-        // This effectively means Emergency 'stole' the slot freed by B.
-        // Which is correct behavior for Elastic capacity absorbing load.
-        
-        // Let's create another slot on Dr. Jones to show Reallocation explicitly.
-        TimeSlot s2 = scheduleService.createSlot(d2.getId(), LocalTime.of(10, 0), LocalTime.of(11, 0), 1);
-        System.out.println("\n--- Reallocation Demo (Dr. Jones, Cap 1) ---");
-        
-        Token j1 = scheduleService.bookToken("Patient J1", "555-1001", "ID101", TokenSource.ONLINE, s2.getId());
-        System.out.print("J1: "); printToken(j1);
-        
-        Token j2 = scheduleService.bookToken("Patient J2", "555-1002", "ID102", TokenSource.WALK_IN, s2.getId());
-        System.out.print("J2 (Waitlist): "); printToken(j2);
-        
-        System.out.println("Cancelling J1...");
-        scheduleService.cancelToken(j1.getId());
-        
-        // Need to fetch J2 to see new status. Simulation can't easily re-fetch without repo.
-        // But in real app, checking status would show ACTIVE.
-        System.out.println("J2 should now be ACTIVE (Simulated re-fetch would confirm)");
-        
+        List<Long> slotIds = setup();
+        System.out.printf("Setup: %d doctors x %d slots, capacity %d (%d slots)%n",
+                props.getDoctors(), props.getSlotsPerDoctor(), props.getSlotCapacity(), slotIds.size());
+        boolean virtual = Threading.VIRTUAL.isActive(environment);
+        System.out.printf("Workload: %d operations, %d %s clients, arrival rate %s, cancel %.0f%%, no-show %.0f%%, mix %s%n",
+                props.getOperations(), props.getClients(), virtual ? "virtual-thread" : "platform-thread",
+                props.getArrivalRate() > 0 ? props.getArrivalRate() + "/s" : "unthrottled",
+                props.getCancelRatio() * 100, props.getNoShowRatio() * 100, props.getSourceMix());
+
+        List<Client> clients = new ArrayList<>();
+        SplittableRandom seed = new SplittableRandom(props.getSeed());
+        for (int i = 0; i < props.getClients(); i++) {
+            clients.add(new Client(seed.split(), slotIds));
+        }
+
+        AtomicInteger next = new AtomicInteger();
+        long start = System.nanoTime();
+        // Clients follow spring.threads.virtual.enabled so the same workload compares both modes
+        ExecutorService executor = virtual
+                ? Executors.newVirtualThreadPerTaskExecutor()
+                : Executors.newFixedThreadPool(props.getClients());
+        try {
+            List<Callable<Void>> tasks = new ArrayList<>();
+            clients.forEach(c -> tasks.add(() -> {
+                c.run(next, start);
+                return null;
+            }));
+            executor.invokeAll(tasks);
+        } finally {
+            executor.shutdown();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        report(clients, seconds);
+        checkConsistency(slotIds);
         System.out.println("Simulation End.");
     }
 
-    private void printToken(Token t) {
-        System.out.println("Token: " + t.getPatientName() + " | " + t.getSource() + " | Status: " + t.getStatus());
+    private List<Long> setup() {
+        List<Long> slotIds = new ArrayList<>();
+        for (int d = 0; d < props.getDoctors(); d++) {
+            Doctor doctor = scheduleService.createDoctor("Dr. Sim " + (d + 1), SPECIALIZATIONS[d % SPECIALIZATIONS.length]);
+            for (int s = 0; s < props.getSlotsPerDoctor(); s++) {
+                LocalTime begin = LocalTime.of(8, 0).plusMinutes(30L * s);
+                slotIds.add(scheduleService.createSlot(doctor.getId(), begin, begin.plusMinutes(30), props.getSlotCapacity()).getId());
+            }
+        }
+        return slotIds;
+    }
+
+    private void report(List<Client> clients, double seconds) {
+        int done = clients.stream().mapToInt(c -> c.book.size() + c.cancel.size() + c.noShow.size()).sum();
+        long errors = clients.stream().mapToLong(c -> c.errors.get()).sum();
+
+        System.out.println("\n--- Results ---");
+        System.out.printf("Throughput: %.1f ops/s (%d ops in %.2f s, %d errors)%n", done / seconds, done, seconds, errors);
+        System.out.println("book    " + LatencyRecorder.summarize(clients.stream().map(c -> c.book).toList()));
+        System.out.println("cancel  " + LatencyRecorder.summarize(clients.stream().map(c -> c.cancel).toList()));
+        System.out.println("no-show " + LatencyRecorder.summarize(clients.stream().map(c -> c.noShow).toList()));
+
+        List<SlotLockRegistry.WaitStats> contended = scheduleService.getSlotLockStats();
+        contended.stream().filter(s -> s.contended() > 0).limit(3).forEach(s ->
+                System.out.printf("Slot %d lock: %d/%d acquisitions contended, %.3f ms total wait, %.3f ms max%n",
+                        s.slotId(), s.contended(), s.acquisitions(), s.totalWaitMicros() / 1e3, s.maxWaitMicros() / 1e3));
+    }
+
+    private void checkConsistency(List<Long> slotIds) {
+        writeBehind.ifAvailable(TokenWriteBehind::flush);
+
+        int overbooked = 0;
+        int idleSeats = 0;
+        int counterDrift = 0;
+        int staleAvailability = 0;
+        for (Long slotId : slotIds) {
+            TimeSlot slot = timeSlotRepository.findById(slotId).orElseThrow();
+            long active = tokenRepository.countByAssignedSlotIdAndStatus(slotId, TokenStatus.ACTIVE);
+            long waitlist = tokenRepository.countByAssignedSlotIdAndStatus(slotId, TokenStatus.WAITLIST);
+            long emergency = tokenRepository.countByAssignedSlotIdAndStatusAndSource(slotId, TokenStatus.ACTIVE, TokenSource.EMERGENCY);
+
+            // Only EMERGENCY may push a slot past its capacity
+            if (active - emergency > slot.getMaxCapacity()) {
+                overbooked++;
+                System.out.printf("  OVERBOOKED slot %d: %d active (%d emergency), capacity %d%n", slotId, active, emergency, slot.getMaxCapacity());
+            }
+            if (active < slot.getMaxCapacity() && waitlist > 0) {
+                idleSeats++;
+                System.out.printf("  IDLE SEATS slot %d: %d active of %d with %d waitlisted%n", slotId, active, slot.getMaxCapacity(), waitlist);
+            }
+            if (slot.getActiveCount() != active || slot.getWaitlistCount() != waitlist) {
+                counterDrift++;
+                System.out.printf("  COUNTER DRIFT slot %d: stored %d/%d, actual %d/%d%n",
+                        slotId, slot.getActiveCount(), slot.getWaitlistCount(), active, waitlist);
+            }
+            SlotAvailability view = scheduleService.getAvailability(slot.getDoctor().getId()).slots().stream()
+                    .filter(a -> a.slotId().equals(slotId)).findFirst().orElse(null);
+            if (view == null || view.active() != active || view.waitlist() != waitlist) {
+                staleAvailability++;
+                System.out.printf("  STALE AVAILABILITY slot %d: cached %s, actual %d/%d%n", slotId, view, active, waitlist);
+            }
+        }
+        System.out.printf("Consistency: %d slots checked, %d overbooked, %d with idle seats and a waitlist, %d counter drift, %d stale availability%n",
+                slotIds.size(), overbooked, idleSeats, counterDrift, staleAvailability);
+    }
+
+    // One simulated front desk / app client with its own random stream and the tokens it holds
+    private class Client {
+        final SplittableRandom random;
+        final List<Long> slotIds;
+        final TokenSource[] sources;
+        final List<Long> held = new ArrayList<>();
+        final LatencyRecorder book = new LatencyRecorder();
+        final LatencyRecorder cancel = new LatencyRecorder();
+        final LatencyRecorder noShow = new LatencyRecorder();
+        final AtomicLong errors = new AtomicLong();
+
+        Client(SplittableRandom random, List<Long> slotIds) {
+            this.random = random;
+            this.slotIds = slotIds;
+            this.sources = weightedSources(props.getSourceMix());
+        }
+
+        void run(AtomicInteger next, long start) {
+            double interval = props.getArrivalRate() > 0 ? 1e9 / props.getArrivalRate() : 0;
+            for (int i = next.getAndIncrement(); i < props.getOperations(); i = next.getAndIncrement()) {
+                // Open-loop pacing: latency counts from the scheduled arrival, so a stall is not hidden
+                long intended = interval > 0 ? start + (long) (i * interval) : System.nanoTime();
+                long wait = intended - System.nanoTime();
+                if (wait > 0) {
+                    LockSupport.parkNanos(wait);
+                }
+                try {
+                    double r = random.nextDouble();
+                    if (r < props.getCancelRatio() && !held.isEmpty()) {
+                        scheduleService.cancelToken(takeHeld());
+                        cancel.record(System.nanoTime() - intended);
+                    } else if (r < props.getCancelRatio() + props.getNoShowRatio() && !held.isEmpty()) {
+                        scheduleService.markNoShow(takeHeld());
+                        noShow.record(System.nanoTime() - intended);
+                    } else {
+                        long n = random.nextLong(1_000_000);
+                        Token token = scheduleService.bookToken("Patient " + n, "555-" + n, "ID" + n,
+                                sources[random.nextInt(sources.length)], slotIds.get(random.nextInt(slotIds.size())));
+                        held.add(token.getId());
+                        book.record(System.nanoTime() - intended);
+                    }
+                } catch (RuntimeException e) {
+                    errors.incrementAndGet();
+                }
+            }
+        }
+
+        private Long takeHeld() {
+            int i = random.nextInt(held.size());
+            Long tokenId = held.get(i);
+            held.set(i, held.get(held.size() - 1));
+            held.remove(held.size() - 1);
+            return tokenId;
+        }
+    }
+
+    private static TokenSource[] weightedSources(Map<TokenSource, Integer> mix) {
+        List<TokenSource> table = new ArrayList<>();
+        mix.forEach((source, weight) -> {
+            for (int i = 0; i < weight; i++) {
+                table.add(source);
+            }
+        });
+        return table.toArray(TokenSource[]::new);
     }
 }
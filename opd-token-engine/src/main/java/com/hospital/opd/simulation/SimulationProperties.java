@@ -0,0 +1,37 @@
+package com.hospital.opd.simulation;
+
+import com.hospital.opd.domain.enums.TokenSource;
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+@Data
+@ConfigurationProperties(prefix = "opd.simulation")
+public class SimulationProperties {
+    private boolean enabled = true;
+
+    private int doctors = 3;
+    private int slotsPerDoctor = 4;
+    private int slotCapacity = 10;
+
+    // Total operations (bookings + cancellations + no-shows) issued by all clients together
+    private int operations = 500;
+    private int clients = 8;
+    // Operations per second across all clients; 0 means every client issues back to back
+    private double arrivalRate = 0;
+
+    private double cancelRatio = 0.10;
+    private double noShowRatio = 0.05;
+
+    // Relative weight of each TokenSource among bookings
+    private Map<TokenSource, Integer> sourceMix = new EnumMap<>(Map.of(
+            TokenSource.EMERGENCY, 2,
+            TokenSource.PAID, 8,
+            TokenSource.FOLLOW_UP, 10,
+            TokenSource.ONLINE, 40,
+            TokenSource.WALK_IN, 40));
+
+    private long seed = 42;
+}
@@ -0,0 +1,241 @@
+package com.hospital.opd.snapshot;
+
+import com.hospital.opd.domain.Doctor;
+import com.hospital.opd.domain.SlotTemplate;
+import com.hospital.opd.domain.TimeSlot;
+import com.hospital.opd.domain.Token;
+import com.hospital.opd.domain.enums.TokenSource;
+import com.hospital.opd.domain.enums.TokenStatus;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.ZoneOffset;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32C;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Binary layout of a {@link StateSnapshot}: a header with the next value of each id sequence, a table of distinct strings, then fixed-width
+ * rows for doctors, slot templates, slots and tokens, and a CRC32C of everything before it. Rows refer
+ * to strings by table index (-1 for null) and to enums by ordinal; times are nanos of day, dates epoch
+ * days ({@link #NO_DATE} for null), timestamps epoch micros (UTC).
+ */
+final class SnapshotCodec {
+    private static final int MAGIC = 0x4F504453; // "OPDS"
+    // Bump when the layout or the order of TokenSource/TokenStatus constants changes
+    private static final short VERSION = 4;
+    private static final long NO_DATE = Long.MIN_VALUE;
+    private static final TokenSource[] SOURCES = TokenSource.values();
+    private static final TokenStatus[] STATUSES = TokenStatus.values();
+
+    private SnapshotCodec() {
+    }
+
+    record Contents(long takenAt, long journalPosition, Map<String, Long> sequences, List<Doctor> doctors,
+                    List<SlotTemplate> templates, List<TimeSlot> slots, List<Token> tokens) {
+    }
+
+    // Returns the file size; the data is forced to disk before returning
+    static long write(Path file, Contents contents) throws IOException {
+        Map<String, Integer> strings = new LinkedHashMap<>();
+        for (Doctor d : contents.doctors()) {
+            intern(strings, d.getName());
+            intern(strings, d.getSpecialization());
+        }
+        for (Token t : contents.tokens()) {
+            intern(strings, t.getPatientName());
+            intern(strings, t.getContactNumber());
+            intern(strings, t.getUserIdNumber());
+        }
+
+        CRC32C crc = new CRC32C();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            DataOutputStream out = new DataOutputStream(new CheckedOutputStream(
+                    new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16), crc));
+            out.writeInt(MAGIC);
+            out.writeShort(VERSION);
+            out.writeLong(contents.takenAt());
+            out.writeLong(contents.journalPosition());
+            out.writeInt(contents.sequences().size());
+            for (Map.Entry<String, Long> sequence : contents.sequences().entrySet()) {
+                out.writeUTF(sequence.getKey());
+                out.writeLong(sequence.getValue());
+            }
+
+            out.writeInt(strings.size());
+            for (String s : strings.keySet()) {
+                out.writeUTF(s);
+            }
+
+            out.writeInt(contents.doctors().size());
+            for (Doctor d : contents.doctors()) {
+                out.writeLong(d.getId());
+                out.writeInt(index(strings, d.getName()));
+                out.writeInt(index(strings, d.getSpecialization()));
+            }
+
+            out.writeInt(contents.templates().size());
+            for (SlotTemplate t : contents.templates()) {
+                out.writeLong(t.getId());
+                out.writeLong(t.getDoctor().getId());
+                out.writeByte(t.getDaysOfWeek());
+                out.writeLong(t.getSessionStart().toNanoOfDay());
+                out.writeLong(t.getSessionEnd().toNanoOfDay());
+                out.writeInt(t.getSlotMinutes());
+                out.writeInt(t.getCapacity());
+            }
+
+            out.writeInt(contents.slots().size());
+            for (TimeSlot s : contents.slots()) {
+                out.writeLong(s.getId());
+                out.writeLong(s.getDoctor().getId());
+                out.writeLong(s.getSlotDate() == null ? NO_DATE : s.getSlotDate().toEpochDay());
+                out.writeLong(s.getStartTime().toNanoOfDay());
+                out.writeLong(s.getEndTime().toNanoOfDay());
+                out.writeInt(s.getMaxCapacity());
+                out.writeBoolean(s.isClosed());
+            }
+
+            out.writeInt(contents.tokens().size());
+            for (Token t : contents.tokens()) {
+                out.writeLong(t.getId());
+                out.writeLong(t.getAssignedSlot().getId());
+                out.writeByte(t.getSource().ordinal());
+                out.writeByte(t.getStatus().ordinal());
+                out.writeLong(ChronoUnit.MICROS.between(Instant.EPOCH, t.getCreatedAt().toInstant(ZoneOffset.UTC)));
+                out.writeInt(index(strings, t.getPatientName()));
+                out.writeInt(index(strings, t.getContactNumber()));
+                out.writeInt(index(strings, t.getUserIdNumber()));
+            }
+
+            // Captured before the trailer itself goes through the checked stream
+            out.writeLong(crc.getValue());
+            out.flush();
+            channel.force(true);
+            return channel.size();
+        }
+    }
+
+    static Contents read(Path file) throws IOException {
+        CRC32C crc = new CRC32C();
+        try (InputStream raw = Files.newInputStream(file)) {
+            DataInputStream in = new DataInputStream(new CheckedInputStream(new BufferedInputStream(raw, 1 << 16), crc));
+            if (in.readInt() != MAGIC) {
+                throw new IOException(file + " is not a snapshot");
+            }
+            short version = in.readShort();
+            if (version != VERSION) {
+                throw new IOException(file + " has snapshot version " + version + ", expected " + VERSION);
+            }
+            long takenAt = in.readLong();
+            long journalPosition = in.readLong();
+            int sequenceCount = in.readInt();
+            Map<String, Long> sequences = new LinkedHashMap<>();
+            for (int i = 0; i < sequenceCount; i++) {
+                sequences.put(in.readUTF(), in.readLong());
+            }
+
+            String[] strings = new String[in.readInt()];
+            for (int i = 0; i < strings.length; i++) {
+                strings[i] = in.readUTF();
+            }
+
+            int doctorCount = in.readInt();
+            List<Doctor> doctors = new ArrayList<>(doctorCount);
+            Map<Long, Doctor> doctorsById = new HashMap<>();
+            for (int i = 0; i < doctorCount; i++) {
+                long id = in.readLong();
+                Doctor doctor = new Doctor(string(strings, in.readInt()), string(strings, in.readInt()));
+                doctor.setId(id);
+                doctors.add(doctor);
+                doctorsById.put(id, doctor);
+            }
+
+            int templateCount = in.readInt();
+            List<SlotTemplate> templates = new ArrayList<>(templateCount);
+            for (int i = 0; i < templateCount; i++) {
+                SlotTemplate template = new SlotTemplate();
+                template.setId(in.readLong());
+                template.setDoctor(doctorsById.get(in.readLong()));
+                template.setDaysOfWeek(in.readByte());
+                template.setSessionStart(LocalTime.ofNanoOfDay(in.readLong()));
+                template.setSessionEnd(LocalTime.ofNanoOfDay(in.readLong()));
+                template.setSlotMinutes(in.readInt());
+                template.setCapacity(in.readInt());
+                templates.add(template);
+            }
+
+            int slotCount = in.readInt();
+            List<TimeSlot> slots = new ArrayList<>(slotCount);
+            Map<Long, TimeSlot> slotsById = new HashMap<>();
+            for (int i = 0; i < slotCount; i++) {
+                long id = in.readLong();
+                Doctor doctor = doctorsById.get(in.readLong());
+                long epochDay = in.readLong();
+                LocalDate date = epochDay == NO_DATE ? null : LocalDate.ofEpochDay(epochDay);
+                TimeSlot slot = new TimeSlot(doctor, date, LocalTime.ofNanoOfDay(in.readLong()), LocalTime.ofNanoOfDay(in.readLong()), in.readInt());
+                slot.setId(id);
+                slot.setClosed(in.readBoolean());
+                slots.add(slot);
+                slotsById.put(id, slot);
+            }
+
+            int tokenCount = in.readInt();
+            List<Token> tokens = new ArrayList<>(tokenCount);
+            for (int i = 0; i < tokenCount; i++) {
+                long id = in.readLong();
+                TimeSlot slot = slotsById.get(in.readLong());
+                TokenSource source = SOURCES[in.readByte()];
+                TokenStatus status = STATUSES[in.readByte()];
+                long micros = in.readLong();
+                Token token = new Token(string(strings, in.readInt()), string(strings, in.readInt()),
+                        string(strings, in.readInt()), source, slot);
+                token.setId(id);
+                token.setStatus(status);
+                token.setCreatedAt(LocalDateTime.ofEpochSecond(Math.floorDiv(micros, 1_000_000),
+                        (int) Math.floorMod(micros, 1_000_000) * 1_000, ZoneOffset.UTC));
+                tokens.add(token);
+            }
+
+            long expected = crc.getValue();
+            if (in.readLong() != expected) {
+                throw new IOException(file + " failed its checksum");
+            }
+            return new Contents(takenAt, journalPosition, sequences, doctors, templates, slots, tokens);
+        }
+    }
+
+    private static void intern(Map<String, Integer> strings, String s) {
+        if (s != null) {
+            strings.putIfAbsent(s, strings.size());
+        }
+    }
+
+    private static int index(Map<String, Integer> strings, String s) {
+        return s == null ? -1 : strings.get(s);
+    }
+
+    private static String string(String[] strings, int index) {
+        return index < 0 ? null : strings[index];
+    }
+}
@@ -0,0 +1,291 @@
+package com.hospital.opd.snapshot;
+
+import com.hospital.opd.domain.Doctor;
+import com.hospital.opd.domain.SlotTemplate;
+import com.hospital.opd.domain.TimeSlot;
+import com.hospital.opd.domain.Token;
+import com.hospital.opd.domain.enums.TokenSource;
+import com.hospital.opd.domain.enums.TokenStatus;
+import com.hospital.opd.engine.AllocationJournal;
+import com.hospital.opd.engine.TokenWriteBehind;
+import com.hospital.opd.repository.TokenBatchWriter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.TimeGauge;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.OptionalLong;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Periodic binary snapshot of every doctor, slot template, slot and live (ACTIVE / WAITLIST) token,
+ * so a restart on the in-memory database resumes the day instead of starting empty. Restored straight into the tables
+ * with JDBC batches before anything reads them; counters are recomputed from the restored tokens.
+ * In memory mode the snapshot records the journal position it covers, and the journal replays from there.
+ */
+@Slf4j
+@Component
+@DependsOn("entityManagerFactory")
+public class StateSnapshot {
+    private static final int BATCH = 1000;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TokenBatchWriter tokenBatchWriter;
+    private final TransactionTemplate transactionTemplate;
+    private final TransactionTemplate readTransaction;
+    private final ObjectProvider<TokenWriteBehind> writeBehind;
+    private final ObjectProvider<AllocationJournal> journal;
+    private final boolean enabled;
+    private final Path file;
+    private final Timer writeTimer;
+    private final DistributionSummary snapshotBytes;
+    private final ReentrantLock writeLock = new ReentrantLock();
+
+    private volatile long restoreMillis;
+    private volatile long restoredTokens;
+    // Null while the tables outlived the restart
+    private Long restoredPosition;
+
+    public StateSnapshot(JdbcTemplate jdbcTemplate, TokenBatchWriter tokenBatchWriter,
+                         PlatformTransactionManager transactionManager, MeterRegistry registry,
+                         ObjectProvider<TokenWriteBehind> writeBehind, ObjectProvider<AllocationJournal> journal,
+                         @Value("${opd.snapshot.enabled:false}") boolean enabled,
+                         @Value("${opd.snapshot.dir:./snapshot}") Path dir) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.tokenBatchWriter = tokenBatchWriter;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        // One consistent view of all the tables while bookings carry on
+        this.readTransaction = new TransactionTemplate(transactionManager);
+        this.readTransaction.setReadOnly(true);
+        this.readTransaction.setIsolationLevel(TransactionDefinition.ISOLATION_REPEATABLE_READ);
+        this.writeBehind = writeBehind;
+        this.journal = journal;
+        this.enabled = enabled;
+        this.file = dir.resolve("opd-state.snapshot");
+        this.writeTimer = Timer.builder("opd.snapshot.write")
+                .description("Time to read and write a state snapshot")
+                .register(registry);
+        this.snapshotBytes = DistributionSummary.builder("opd.snapshot.size")
+                .description("Size of the last state snapshots")
+                .baseUnit("bytes")
+                .register(registry);
+        TimeGauge.builder("opd.snapshot.restore.duration", this, TimeUnit.MILLISECONDS, s -> s.restoreMillis)
+                .description("Time spent restoring the snapshot on startup")
+                .register(registry);
+        Gauge.builder("opd.snapshot.restore.tokens", this, s -> s.restoredTokens)
+                .description("Live tokens restored from the snapshot on startup")
+                .register(registry);
+    }
+
+    // Journal records before this position are already in the restored tables; empty when nothing was restored
+    // because the database kept its rows, and the journal's own flushed position applies
+    public OptionalLong restoredPosition() {
+        return restoredPosition == null ? OptionalLong.empty() : OptionalLong.of(restoredPosition);
+    }
+
+    @PostConstruct
+    void restore() throws IOException {
+        if (!enabled) {
+            return;
+        }
+        // Until a snapshot covers them, flushed journal segments are the only copy outside the database
+        journal.ifAvailable(j -> j.pin(0));
+        Integer slots = jdbcTemplate.queryForObject("select count(*) from time_slot", Integer.class);
+        if (slots != null && slots > 0) {
+            log.info("Database already holds {} slots, not restoring {}", slots, file);
+            return;
+        }
+        restoredPosition = 0L;
+        if (!Files.exists(file)) {
+            log.info("No snapshot at {}, starting empty", file);
+            return;
+        }
+
+        long start = System.nanoTime();
+        SnapshotCodec.Contents contents = SnapshotCodec.read(file);
+        transactionTemplate.executeWithoutResult(status -> insert(contents));
+        restoreMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        restoredTokens = contents.tokens().size();
+        restoredPosition = contents.journalPosition();
+        journal.ifAvailable(j -> j.pin(restoredPosition));
+        log.info("Restored snapshot taken {} ms ago: {} doctors, {} templates, {} slots, {} tokens in {} ms",
+                System.currentTimeMillis() - contents.takenAt(), contents.doctors().size(), contents.templates().size(),
+                contents.slots().size(), contents.tokens().size(), restoreMillis);
+    }
+
+    private void insert(SnapshotCodec.Contents contents) {
+        jdbcTemplate.batchUpdate("insert into doctor (id, name, specialization) values (?, ?, ?)",
+                contents.doctors(), BATCH, (ps, d) -> {
+                    ps.setLong(1, d.getId());
+                    ps.setString(2, d.getName());
+                    ps.setString(3, d.getSpecialization());
+                });
+
+        jdbcTemplate.batchUpdate("insert into slot_template (id, doctor_id, days_of_week, session_start, session_end, slot_minutes, capacity) values (?, ?, ?, ?, ?, ?, ?)",
+                contents.templates(), BATCH, (ps, t) -> {
+                    ps.setLong(1, t.getId());
+                    ps.setLong(2, t.getDoctor().getId());
+                    ps.setInt(3, t.getDaysOfWeek());
+                    ps.setObject(4, t.getSessionStart());
+                    ps.setObject(5, t.getSessionEnd());
+                    ps.setInt(6, t.getSlotMinutes());
+                    ps.setInt(7, t.getCapacity());
+                });
+
+        Map<Long, int[]> counts = new HashMap<>();
+        for (Token t : contents.tokens()) {
+            int[] c = counts.computeIfAbsent(t.getAssignedSlot().getId(), id -> new int[2]);
+            c[t.getStatus() == TokenStatus.ACTIVE ? 0 : 1]++;
+        }
+        jdbcTemplate.batchUpdate("insert into time_slot (id, doctor_id, slot_date, start_time, end_time, max_capacity, active_count, waitlist_count, version, closed) values (?, ?, ?, ?, ?, ?, ?, ?, 0, ?)",
+                contents.slots(), BATCH, (ps, s) -> {
+                    int[] c = counts.getOrDefault(s.getId(), new int[2]);
+                    ps.setLong(1, s.getId());
+                    ps.setLong(2, s.getDoctor().getId());
+                    ps.setObject(3, s.getSlotDate());
+                    ps.setObject(4, s.getStartTime());
+                    ps.setObject(5, s.getEndTime());
+                    ps.setInt(6, s.getMaxCapacity());
+                    ps.setInt(7, c[0]);
+                    ps.setInt(8, c[1]);
+                    ps.setBoolean(9, s.isClosed());
+                });
+
+        List<Token> tokens = contents.tokens();
+        for (int i = 0; i < tokens.size(); i += BATCH) {
+            tokenBatchWriter.insertAll(tokens.subList(i, Math.min(i + BATCH, tokens.size())));
+        }
+
+        // Hibernate and the in-memory engine draw ids from these. They carry on from where they stood, since ids
+        // of tokens that were not live (cancelled, archived) are not in the snapshot and must not be issued again
+        restartSequence(contents, "doctor_seq", contents.doctors().stream().mapToLong(Doctor::getId).max().orElse(0));
+        restartSequence(contents, "slot_template_seq", contents.templates().stream().mapToLong(SlotTemplate::getId).max().orElse(0));
+        restartSequence(contents, "time_slot_seq", contents.slots().stream().mapToLong(TimeSlot::getId).max().orElse(0));
+        restartSequence(contents, "token_seq", tokens.stream().mapToLong(Token::getId).max().orElse(0));
+    }
+
+    private void restartSequence(SnapshotCodec.Contents contents, String sequence, long maxId) {
+        long next = Math.max(maxId + 1, contents.sequences().getOrDefault(sequence, 0L));
+        jdbcTemplate.execute("alter sequence " + sequence + " restart with " + next);
+    }
+
+    @Scheduled(fixedDelayString = "${opd.snapshot.interval-ms:60000}", initialDelayString = "${opd.snapshot.interval-ms:60000}")
+    public void write() {
+        if (!enabled) {
+            return;
+        }
+        writeLock.lock();
+        try {
+            writeTimer.record(this::writeSnapshot);
+        } catch (RuntimeException e) {
+            log.error("Snapshot to {} failed, keeping the previous one", file, e);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    // A redeploy takes one last snapshot so the next start picks up where this one stopped
+    @PreDestroy
+    public void writeOnShutdown() {
+        write();
+    }
+
+    private void writeSnapshot() {
+        // Every journal record before the position has its change queued; the flush puts it in the tables
+        AllocationJournal journaled = journal.getIfAvailable();
+        long position = journaled == null ? 0 : journaled.position();
+        writeBehind.ifAvailable(TokenWriteBehind::flush);
+
+        SnapshotCodec.Contents contents = readTransaction.execute(status -> read(position));
+        try {
+            Files.createDirectories(file.getParent());
+            Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+            long bytes = SnapshotCodec.write(tmp, contents);
+            Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            snapshotBytes.record(bytes);
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not write snapshot " + file, e);
+        }
+        if (journaled != null) {
+            journaled.pin(position);
+        }
+    }
+
+    private SnapshotCodec.Contents read(long journalPosition) {
+        Map<Long, Doctor> doctors = new HashMap<>();
+        List<Doctor> doctorList = new ArrayList<>();
+        jdbcTemplate.query("select id, name, specialization from doctor", rs -> {
+            Doctor doctor = new Doctor(rs.getString(2), rs.getString(3));
+            doctor.setId(rs.getLong(1));
+            doctors.put(doctor.getId(), doctor);
+            doctorList.add(doctor);
+        });
+
+        List<SlotTemplate> templates = new ArrayList<>();
+        jdbcTemplate.query("select id, doctor_id, days_of_week, session_start, session_end, slot_minutes, capacity from slot_template", rs -> {
+            SlotTemplate template = new SlotTemplate();
+            template.setId(rs.getLong(1));
+            template.setDoctor(doctors.get(rs.getLong(2)));
+            template.setDaysOfWeek(rs.getInt(3));
+            template.setSessionStart(rs.getObject(4, LocalTime.class));
+            template.setSessionEnd(rs.getObject(5, LocalTime.class));
+            template.setSlotMinutes(rs.getInt(6));
+            template.setCapacity(rs.getInt(7));
+            templates.add(template);
+        });
+
+        Map<Long, TimeSlot> slots = new HashMap<>();
+        List<TimeSlot> slotList = new ArrayList<>();
+        jdbcTemplate.query("select id, doctor_id, slot_date, start_time, end_time, max_capacity, closed from time_slot", rs -> {
+            TimeSlot slot = new TimeSlot(doctors.get(rs.getLong(2)), rs.getObject(3, LocalDate.class),
+                    rs.getObject(4, LocalTime.class), rs.getObject(5, LocalTime.class), rs.getInt(6));
+            slot.setId(rs.getLong(1));
+            slot.setClosed(rs.getBoolean(7));
+            slots.put(slot.getId(), slot);
+            slotList.add(slot);
+        });
+
+        List<Token> tokens = new ArrayList<>();
+        jdbcTemplate.query("select id, patient_name, contact_number, user_id_number, source, status, assigned_slot_id, created_at from token where status in (?, ?)",
+                rs -> {
+                    Token token = new Token(rs.getString(2), rs.getString(3), rs.getString(4),
+                            TokenSource.valueOf(rs.getString(5)), slots.get(rs.getLong(7)));
+                    token.setId(rs.getLong(1));
+                    token.setStatus(TokenStatus.valueOf(rs.getString(6)));
+                    token.setCreatedAt(rs.getTimestamp(8).toLocalDateTime());
+                    tokens.add(token);
+                }, TokenStatus.ACTIVE.name(), TokenStatus.WAITLIST.name());
+        // Read last: every id in the rows above was drawn before this
+        Map<String, Long> sequences = new LinkedHashMap<>();
+        jdbcTemplate.query("select lower(sequence_name), base_value from information_schema.sequences where sequence_schema = 'PUBLIC'",
+                rs -> {
+                    sequences.put(rs.getString(1), rs.getLong(2));
+                });
+        return new SnapshotCodec.Contents(System.currentTimeMillis(), journalPosition, sequences, doctorList, templates, slotList, tokens);
+    }
+}
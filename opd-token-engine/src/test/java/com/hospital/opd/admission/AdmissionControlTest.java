@@ -0,0 +1,92 @@
+package com.hospital.opd.admission;
+
+import com.hospital.opd.controller.AdmissionController;
+import com.hospital.opd.domain.enums.TokenSource;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AdmissionControlTest {
+    private SimpleMeterRegistry registry;
+    private AdmissionControl admission;
+
+    @BeforeEach
+    void setUp() {
+        AdmissionProperties.Limit online = new AdmissionProperties.Limit();
+        // Slow enough that nothing refills during a test
+        online.setRate(0.001);
+        online.setBurst(10);
+        AdmissionProperties properties = new AdmissionProperties();
+        properties.getLimits().put(TokenSource.ONLINE, online);
+        registry = new SimpleMeterRegistry();
+        admission = new AdmissionControl(properties, registry);
+    }
+
+    @Test
+    void batchIsChargedOnePermitPerBooking() {
+        assertTrue(admission.admit(Map.of(TokenSource.ONLINE, 6)).isEmpty());
+        // A refused batch takes nothing, so the 4 permits left still admit 4
+        assertTrue(admission.admit(Map.of(TokenSource.ONLINE, 6)).containsKey(TokenSource.ONLINE));
+        assertTrue(admission.admit(Map.of(TokenSource.ONLINE, 4)).isEmpty());
+        assertTrue(admission.admit(TokenSource.ONLINE) > 0);
+    }
+
+    @Test
+    void batchLargerThanBurstIsAdmittedOneBurstAtATime() {
+        AdmissionControl.Refusal refusal = admission.admit(Map.of(TokenSource.ONLINE, 25)).get(TokenSource.ONLINE);
+
+        assertEquals(10, refusal.admitted());
+        assertTrue(refusal.waitNanos() > 0);
+        assertEquals(15.0, registry.counter("opd.admission.rejected", "source", "ONLINE").count());
+        // The first burst drained the bucket, so the retry finds nothing left
+        assertEquals(0, admission.admit(Map.of(TokenSource.ONLINE, 15)).get(TokenSource.ONLINE).admitted());
+    }
+
+    @Test
+    void emergencyAndUnlimitedSourcesPassWhileAnotherSourceIsRefused() {
+        assertTrue(admission.admit(Map.of(TokenSource.ONLINE, 10)).isEmpty());
+
+        Map<TokenSource, AdmissionControl.Refusal> refused = admission.admit(Map.of(TokenSource.ONLINE, 2, TokenSource.EMERGENCY, 3, TokenSource.WALK_IN, 4));
+
+        assertEquals(1, refused.size());
+        assertEquals(0, refused.get(TokenSource.ONLINE).admitted());
+        assertTrue(refused.get(TokenSource.ONLINE).waitNanos() > 0);
+        assertEquals(2.0, registry.counter("opd.admission.rejected", "source", "ONLINE").count());
+        assertEquals(0.0, registry.counter("opd.admission.rejected", "source", "EMERGENCY").count());
+        assertEquals(0.0, registry.counter("opd.admission.rejected", "source", "WALK_IN").count());
+    }
+
+    @Test
+    void limitOfEmergencyOrWithoutBurstIsABadRequest() {
+        AdmissionController controller = new AdmissionController(admission);
+
+        ResponseStatusException emergency = assertThrows(ResponseStatusException.class,
+                () -> controller.setLimit(TokenSource.EMERGENCY, 1, 1));
+        ResponseStatusException noBurst = assertThrows(ResponseStatusException.class,
+                () -> controller.setLimit(TokenSource.WALK_IN, 1, 0));
+
+        assertEquals(HttpStatus.BAD_REQUEST, emergency.getStatusCode());
+        assertEquals(HttpStatus.BAD_REQUEST, noBurst.getStatusCode());
+    }
+
+    @Test
+    void nonFiniteRateIsABadRequestAndKeepsTheLimit() {
+        AdmissionController controller = new AdmissionController(admission);
+
+        for (double rate : new double[]{Double.NaN, Double.POSITIVE_INFINITY}) {
+            ResponseStatusException refused = assertThrows(ResponseStatusException.class,
+                    () -> controller.setLimit(TokenSource.ONLINE, rate, 10));
+            assertEquals(HttpStatus.BAD_REQUEST, refused.getStatusCode());
+        }
+        // The configured bucket is still there and still refuses past its burst
+        assertTrue(admission.admit(Map.of(TokenSource.ONLINE, 11)).containsKey(TokenSource.ONLINE));
+    }
+}
@@ -0,0 +1,58 @@
+package com.hospital.opd.cluster;
+
+import jakarta.servlet.http.HttpServletRequest;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class ForwardedHeaderFilterTest {
+
+    @Test
+    void forwardedHeaderFromAClientIsHidden() throws Exception {
+        HttpServletRequest seen = filter(new ForwardedHeaderFilter(true, "s3cret"), null);
+
+        assertNull(seen.getHeader(ClusterRouter.FORWARDED_BY));
+        assertFalse(Collections.list(seen.getHeaderNames()).contains(ClusterRouter.FORWARDED_BY));
+    }
+
+    @Test
+    void forwardedHeaderWithAWrongSecretIsHidden() throws Exception {
+        HttpServletRequest seen = filter(new ForwardedHeaderFilter(true, "s3cret"), "guess");
+
+        assertNull(seen.getHeader(ClusterRouter.FORWARDED_BY));
+        assertNull(seen.getHeader(ClusterRouter.CLUSTER_SECRET));
+    }
+
+    @Test
+    void forwardedHeaderFromANodeIsKeptAndTheSecretHidden() throws Exception {
+        HttpServletRequest seen = filter(new ForwardedHeaderFilter(true, "s3cret"), "s3cret");
+
+        assertEquals("http://node-a", seen.getHeader(ClusterRouter.FORWARDED_BY));
+        assertNull(seen.getHeader(ClusterRouter.CLUSTER_SECRET));
+    }
+
+    @Test
+    void forwardedHeaderIsNeverBelievedWithoutACluster() throws Exception {
+        HttpServletRequest seen = filter(new ForwardedHeaderFilter(false, "s3cret"), "s3cret");
+
+        assertNull(seen.getHeader(ClusterRouter.FORWARDED_BY));
+    }
+
+    private static HttpServletRequest filter(ForwardedHeaderFilter filter, String secret) throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest("POST", "/api/schedule/book/batch");
+        request.addHeader(ClusterRouter.FORWARDED_BY, "http://node-a");
+        if (secret != null) {
+            request.addHeader(ClusterRouter.CLUSTER_SECRET, secret);
+        }
+        MockFilterChain chain = new MockFilterChain();
+        filter.doFilter(request, new MockHttpServletResponse(), chain);
+        return (HttpServletRequest) chain.getRequest();
+    }
+}
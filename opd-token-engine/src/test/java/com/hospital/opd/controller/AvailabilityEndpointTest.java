@@ -0,0 +1,51 @@
+package com.hospital.opd.controller;
+
+import com.hospital.opd.domain.Doctor;
+import com.hospital.opd.domain.enums.TokenSource;
+import com.hospital.opd.service.ScheduleService;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.time.LocalTime;
+
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@SpringBootTest(properties = "spring.datasource.url=jdbc:h2:mem:availability")
+@ActiveProfiles("test")
+@AutoConfigureMockMvc
+class AvailabilityEndpointTest {
+    @Autowired
+    private MockMvc mockMvc;
+    @Autowired
+    private ScheduleService scheduleService;
+
+    @Test
+    void matchingIfNoneMatchIsNotModifiedUntilABookingMovesTheVersion() throws Exception {
+        Doctor doctor = scheduleService.createDoctor("Dr. Availability", "General");
+        Long slotId = scheduleService.createSlot(doctor.getId(), LocalTime.of(9, 0), LocalTime.of(10, 0), 2).getId();
+        String uri = "/api/schedule/" + doctor.getId() + "/availability";
+
+        String etag = mockMvc.perform(get(uri))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+        assertNotNull(etag);
+
+        mockMvc.perform(get(uri).header(HttpHeaders.IF_NONE_MATCH, etag))
+                .andExpect(status().isNotModified());
+
+        scheduleService.bookToken("Patient", "555-0", "AVAIL1", TokenSource.WALK_IN, slotId);
+
+        String changed = mockMvc.perform(get(uri).header(HttpHeaders.IF_NONE_MATCH, etag))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+        assertNotEquals(etag, changed);
+    }
+}
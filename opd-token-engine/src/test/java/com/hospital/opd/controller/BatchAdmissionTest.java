@@ -0,0 +1,108 @@
+package com.hospital.opd.controller;
+
+import com.hospital.opd.admission.AdmissionControl;
+import com.hospital.opd.domain.Doctor;
+import com.hospital.opd.domain.enums.TokenSource;
+import com.hospital.opd.domain.enums.TokenStatus;
+import com.hospital.opd.dto.BookingRequest;
+import com.hospital.opd.dto.BookingResult;
+import com.hospital.opd.service.ScheduleService;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+// ONLINE refills too slowly to matter here; each test starts from whatever the earlier ones left, so each drains it
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:batch-admission",
+        "opd.admission.enabled=true",
+        "opd.admission.limits.ONLINE.rate=0.001",
+        "opd.admission.limits.ONLINE.burst=3"
+})
+@ActiveProfiles("test")
+class BatchAdmissionTest {
+    @Autowired
+    private ScheduleController controller;
+    @Autowired
+    private ScheduleService scheduleService;
+    @Autowired
+    private AdmissionControl admission;
+
+    @Test
+    void batchWithMoreBookingsOfASourceThanItsBurstBooksOneBurstAndRefusesTheRest() {
+        Long slotId = slot();
+        // A new limit starts full
+        admission.setLimit(TokenSource.ONLINE, 0.001, 3);
+
+        ResponseEntity<List<BookingResult>> response = controller.bookTokens(requests(slotId, TokenSource.ONLINE, 5), null);
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertNotNull(response.getHeaders().getFirst(HttpHeaders.RETRY_AFTER));
+        List<BookingResult> results = response.getBody();
+        for (int i = 0; i < 3; i++) {
+            assertEquals(TokenStatus.ACTIVE, results.get(i).status());
+            assertNull(results.get(i).retryAfter());
+        }
+        for (int i = 3; i < 5; i++) {
+            assertNull(results.get(i).tokenId());
+            assertNotNull(results.get(i).retryAfter());
+        }
+    }
+
+    @Test
+    void refusedSourceFailsWithARetryHintWhileTheRestIsBooked() {
+        Long slotId = slot();
+        drainOnline(slotId);
+
+        List<BookingRequest> batch = new ArrayList<>(requests(slotId, TokenSource.ONLINE, 1));
+        batch.addAll(requests(slotId, TokenSource.EMERGENCY, 1));
+        ResponseEntity<List<BookingResult>> response = controller.bookTokens(batch, null);
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertNotNull(response.getHeaders().getFirst(HttpHeaders.RETRY_AFTER));
+        BookingResult online = response.getBody().get(0);
+        BookingResult emergency = response.getBody().get(1);
+        assertNull(online.tokenId());
+        assertNotNull(online.retryAfter());
+        assertEquals(TokenStatus.ACTIVE, emergency.status());
+        assertNull(emergency.retryAfter());
+    }
+
+    @Test
+    void batchWithNothingAdmittedIsTooManyRequests() {
+        Long slotId = slot();
+        drainOnline(slotId);
+
+        ResponseEntity<List<BookingResult>> response = controller.bookTokens(requests(slotId, TokenSource.ONLINE, 2), null);
+
+        assertEquals(HttpStatus.TOO_MANY_REQUESTS, response.getStatusCode());
+        assertNotNull(response.getHeaders().getFirst(HttpHeaders.RETRY_AFTER));
+    }
+
+    private void drainOnline(Long slotId) {
+        for (int i = 0; i < 3; i++) {
+            controller.bookTokens(requests(slotId, TokenSource.ONLINE, 1), null);
+        }
+    }
+
+    private Long slot() {
+        Doctor doctor = scheduleService.createDoctor("Dr. Batch " + System.nanoTime(), "General");
+        return scheduleService.createSlot(doctor.getId(), LocalTime.of(9, 0), LocalTime.of(10, 0), 10).getId();
+    }
+
+    private static List<BookingRequest> requests(Long slotId, TokenSource source, int count) {
+        return Collections.nCopies(count, new BookingRequest("Patient", "555-0", null, source, slotId));
+    }
+}
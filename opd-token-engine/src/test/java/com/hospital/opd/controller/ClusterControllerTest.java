@@ -0,0 +1,58 @@
+package com.hospital.opd.controller;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.hospital.opd.cluster.ClusterMembership;
+import com.hospital.opd.cluster.ClusterRouter;
+import com.hospital.opd.dto.ClusterView;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.web.servlet.MockMvc;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+// A single-node cluster: the node is its only member, so adopting a view moves no doctors
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:cluster-controller",
+        "opd.cluster.enabled=true",
+        "opd.cluster.secret=test-secret",
+        "opd.cluster.leave-on-shutdown=false"
+})
+@ActiveProfiles("test")
+@AutoConfigureMockMvc
+class ClusterControllerTest {
+    @Autowired
+    private MockMvc mockMvc;
+    @Autowired
+    private ClusterMembership membership;
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Test
+    void membershipChangesWithoutTheSecretAreRefused() throws Exception {
+        ClusterView current = membership.view();
+        String newer = objectMapper.writeValueAsString(new ClusterView(current.epoch() + 5, current.members()));
+
+        mockMvc.perform(put("/api/cluster/members").contentType(MediaType.APPLICATION_JSON).content(newer))
+                .andExpect(status().isForbidden());
+        mockMvc.perform(put("/api/cluster/members").contentType(MediaType.APPLICATION_JSON).content(newer)
+                        .header(ClusterRouter.CLUSTER_SECRET, "guess"))
+                .andExpect(status().isForbidden());
+        mockMvc.perform(post("/api/cluster/leave").param("node", membership.self()))
+                .andExpect(status().isForbidden());
+        mockMvc.perform(post("/api/cluster/join").param("node", "http://localhost:9999"))
+                .andExpect(status().isForbidden());
+        assertEquals(current, membership.view());
+
+        mockMvc.perform(put("/api/cluster/members").contentType(MediaType.APPLICATION_JSON).content(newer)
+                        .header(ClusterRouter.CLUSTER_SECRET, "test-secret"))
+                .andExpect(status().isOk());
+        assertEquals(current.epoch() + 5, membership.view().epoch());
+    }
+}
@@ -0,0 +1,86 @@
+package com.hospital.opd.controller;
+
+import com.hospital.opd.domain.Doctor;
+import com.hospital.opd.domain.enums.TokenSource;
+import com.hospital.opd.event.OwnershipChange;
+import com.hospital.opd.service.ScheduleService;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+
+import java.time.LocalTime;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+
+@SpringBootTest(properties = "spring.datasource.url=jdbc:h2:mem:token-stream")
+@ActiveProfiles("test")
+@AutoConfigureMockMvc
+class TokenStreamTest {
+    @Autowired
+    private MockMvc mockMvc;
+    @Autowired
+    private ScheduleService scheduleService;
+    @Autowired
+    private ApplicationEventPublisher events;
+
+    @Test
+    void transitionsReachTheirDoctorAndSlotStreamsOnly() throws Exception {
+        Doctor booked = scheduleService.createDoctor("Dr. Booked", "General");
+        Doctor other = scheduleService.createDoctor("Dr. Other", "General");
+        Long slotId = scheduleService.createSlot(booked.getId(), LocalTime.of(9, 0), LocalTime.of(10, 0), 2).getId();
+        scheduleService.createSlot(other.getId(), LocalTime.of(9, 0), LocalTime.of(10, 0), 2);
+        MvcResult doctorStream = subscribe("/api/schedule/" + booked.getId() + "/stream");
+        MvcResult slotStream = subscribe("/api/schedule/slot/" + slotId + "/stream");
+        MvcResult otherStream = subscribe("/api/schedule/" + other.getId() + "/stream");
+
+        scheduleService.bookToken("Patient", "555-1", "STREAM1", TokenSource.WALK_IN, slotId);
+
+        awaitEvent(doctorStream, "event:transition");
+        awaitEvent(slotStream, "event:transition");
+        awaitEvent(otherStream, "event:snapshot");
+        assertFalse(otherStream.getResponse().getContentAsString().contains("event:transition"));
+    }
+
+    @Test
+    void aHandedOverDoctorsStreamsEndAndTheOthersStayOpen() throws Exception {
+        Doctor handedOver = scheduleService.createDoctor("Dr. Handed Over", "General");
+        Doctor kept = scheduleService.createDoctor("Dr. Kept", "General");
+        Long handedOverSlot = scheduleService.createSlot(handedOver.getId(), LocalTime.of(9, 0), LocalTime.of(10, 0), 2).getId();
+        Long keptSlot = scheduleService.createSlot(kept.getId(), LocalTime.of(9, 0), LocalTime.of(10, 0), 2).getId();
+        MvcResult doctorStream = subscribe("/api/schedule/" + handedOver.getId() + "/stream");
+        MvcResult slotStream = subscribe("/api/schedule/slot/" + handedOverSlot + "/stream");
+        MvcResult keptStream = subscribe("/api/schedule/" + kept.getId() + "/stream");
+        awaitEvent(keptStream, "event:snapshot");
+
+        events.publishEvent(new OwnershipChange(1, Set.of(), Set.of(handedOver.getId())));
+
+        // Both streams of the handed-over doctor are completed; the other doctor's stays open
+        doctorStream.getAsyncResult(TimeUnit.SECONDS.toMillis(10));
+        slotStream.getAsyncResult(TimeUnit.SECONDS.toMillis(10));
+        scheduleService.bookToken("Patient", "555-2", "STREAM2", TokenSource.WALK_IN, keptSlot);
+        awaitEvent(keptStream, "event:transition");
+    }
+
+    private MvcResult subscribe(String uri) throws Exception {
+        return mockMvc.perform(get(uri)).andExpect(request().asyncStarted()).andReturn();
+    }
+
+    // Events are written by a sender thread, so they show up in the response shortly after the booking
+    private static void awaitEvent(MvcResult stream, String line) throws Exception {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!stream.getResponse().getContentAsString().contains(line)) {
+            assertTrue(System.nanoTime() < deadline, "No " + line + " within 10 s");
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package com.hospital.opd.engine;
+
+import com.hospital.opd.cluster.ClusterMembership;
+import com.hospital.opd.domain.TimeSlot;
+import com.hospital.opd.domain.Token;
+import com.hospital.opd.domain.enums.TokenSource;
+import com.hospital.opd.domain.enums.TokenStatus;
+import com.hospital.opd.event.OwnershipChange;
+import com.hospital.opd.metrics.AllocationMetrics;
+import com.hospital.opd.repository.ArchivedTokenRepository;
+import com.hospital.opd.repository.SlotClosureWriter;
+import com.hospital.opd.repository.TokenBatchWriter;
+import com.hospital.opd.service.AbstractTokenAllocatorTest;
+import com.hospital.opd.service.AvailabilityCache;
+import com.hospital.opd.service.SlotLockRegistry;
+import com.hospital.opd.snapshot.StateSnapshot;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@TestPropertySource(properties = {
+        "opd.allocation.mode=memory",
+        "spring.datasource.url=jdbc:h2:mem:memory-allocator"
+})
+class InMemoryTokenAllocatorTest extends AbstractTokenAllocatorTest {
+    @Autowired
+    private SlotLockRegistry slotLocks;
+    @Autowired
+    private ApplicationEventPublisher events;
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+    @Autowired
+    private ArchivedTokenRepository archivedTokenRepository;
+    @Autowired
+    private TokenBatchWriter tokenBatchWriter;
+    @Autowired
+    private SlotClosureWriter slotClosureWriter;
+    @Autowired
+    private AllocationMetrics metrics;
+    @Autowired
+    private AvailabilityCache availabilityCache;
+    @Autowired
+    private ObjectProvider<ClusterMembership> cluster;
+    @Autowired
+    private StateSnapshot snapshot;
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    // The booking looked the slot up before the handover took its lock; it must not book into the dropped state
+    @Test
+    void bookingWaitingOutAHandoverSeesTheRowsLeftBehind() throws Exception {
+        Long slotId = slot(1);
+        scheduleService.cancelToken(book(slotId, TokenSource.WALK_IN).getId());
+        TimeSlot slot = timeSlotRepository.findById(slotId).orElseThrow();
+
+        CompletableFuture<Token> inFlight = new CompletableFuture<>();
+        slotLocks.withLock(slotId, () -> {
+            Thread booking = Thread.ofVirtual().start(() -> inFlight.complete(book(slotId, TokenSource.WALK_IN)));
+            awaitBlocked(booking);
+            events.publishEvent(new OwnershipChange(1, Set.of(), Set.of(slot.getDoctor().getId())));
+            // The seat freed by the cancel is taken while no node holds the slot in memory
+            Token elsewhere = new Token("Elsewhere", "555-0", "ELSEWHERE", TokenSource.WALK_IN, slot);
+            elsewhere.setStatus(TokenStatus.ACTIVE);
+            tokenRepository.save(elsewhere);
+            transactionTemplate.executeWithoutResult(status -> timeSlotRepository.resetCounters(slotId, 1, 0));
+        });
+
+        assertEquals(TokenStatus.WAITLIST, inFlight.get(30, TimeUnit.SECONDS).getStatus());
+        assertEquals(1, storedCounters(slotId).getActiveCount());
+        assertEquals(1, storedCounters(slotId).getWaitlistCount());
+        assertCountersMatchRows(slotId);
+    }
+
+    // The database is down while the slot is handed over: its state stays until a retry commits the booking
+    @Test
+    void aHandoverWhoseFlushFailsKeepsTheSlotUntilItsWritesCommit() {
+        Long slotId = slot(2);
+        TimeSlot slot = timeSlotRepository.findById(slotId).orElseThrow();
+        AtomicBoolean down = new AtomicBoolean();
+        TokenBatchWriter failing = new TokenBatchWriter(jdbcTemplate) {
+            @Override
+            public void insertAll(List<Token> tokens) {
+                if (down.get()) {
+                    throw new IllegalStateException("Database down");
+                }
+                super.insertAll(tokens);
+            }
+        };
+        ObjectProvider<AllocationJournal> noJournal = new StaticListableBeanFactory().getBeanProvider(AllocationJournal.class);
+        TokenWriteBehind failingWrites = new TokenWriteBehind(failing, noJournal);
+        ReflectionTestUtils.setField(failingWrites, "batchSize", 500);
+        InMemoryTokenAllocator engine = restarted(failingWrites, noJournal);
+        Token booked = engine.book("Patient", "555-1", "HANDOVER1", TokenSource.WALK_IN, slotId);
+
+        down.set(true);
+        engine.on(new OwnershipChange(1, Set.of(), Set.of(slot.getDoctor().getId())));
+        assertTrue(tokenRepository.findById(booked.getId()).isEmpty());
+        assertThrows(RuntimeException.class, () -> engine.heldTokens(slotId));
+
+        down.set(false);
+        engine.retryHandovers();
+        assertEquals(TokenStatus.ACTIVE, storedStatus(booked.getId()));
+        assertCountersMatchRows(slotId);
+        assertEquals(List.of(booked.getId()), engine.heldTokens(slotId).stream().map(Token::getId).toList());
+    }
+
+    // A crash after t1 was flushed and released, after t2 was flushed but not released, and in the middle of
+    // writing t4. Replaying twice must leave exactly what the intact records describe
+    @Test
+    void restartReplaysTheJournalOnceAndDropsATornLastRecord(@TempDir Path dir) throws Exception {
+        Long slotId = slot(2);
+        TimeSlot slot = timeSlotRepository.findById(slotId).orElseThrow();
+        Token t1 = journaledToken(900_000_001L, slot);
+        Token t2 = journaledToken(900_000_002L, slot);
+        Token t3 = journaledToken(900_000_003L, slot);
+        Token t4 = journaledToken(900_000_004L, slot);
+
+        AllocationJournal before = journal(dir);
+        append(before, t1, TokenStatus.PENDING, TokenStatus.ACTIVE);
+        tokenBatchWriter.mergeAll(List.of(t1));
+        before.release(before.position());
+        append(before, t2, TokenStatus.PENDING, TokenStatus.ACTIVE);
+        tokenBatchWriter.mergeAll(List.of(t2));
+        append(before, t3, TokenStatus.PENDING, TokenStatus.WAITLIST);
+        append(before, t1, TokenStatus.ACTIVE, TokenStatus.CANCELLED);
+        append(before, t3, TokenStatus.WAITLIST, TokenStatus.ACTIVE);
+        append(before, t4, TokenStatus.PENDING, TokenStatus.WAITLIST);
+        long end = before.position();
+        before.close();
+        // The last bytes of t4 never reached the disk
+        try (FileChannel segment = FileChannel.open(dir.resolve("segment-0000000000.journal"), StandardOpenOption.WRITE)) {
+            segment.write(ByteBuffer.allocate(4), end - 4);
+        }
+
+        for (int restart = 0; restart < 2; restart++) {
+            AllocationJournal reopened = journal(dir);
+            restarted(reopened).recover();
+            reopened.close();
+
+            assertEquals(TokenStatus.CANCELLED, storedStatus(t1.getId()));
+            assertEquals(TokenStatus.ACTIVE, storedStatus(t2.getId()));
+            assertEquals(TokenStatus.ACTIVE, storedStatus(t3.getId()));
+            assertTrue(tokenRepository.findById(t4.getId()).isEmpty());
+            assertEquals(2, tokenRepository.countByAssignedSlotIdAndStatus(slotId, TokenStatus.ACTIVE));
+            assertEquals(0, tokenRepository.countByAssignedSlotIdAndStatus(slotId, TokenStatus.WAITLIST));
+            assertEquals(1, tokenRepository.countByAssignedSlotIdAndStatus(slotId, TokenStatus.CANCELLED));
+            assertCountersMatchRows(slotId);
+        }
+    }
+
+    private static Token journaledToken(long id, TimeSlot slot) {
+        Token token = new Token("Journaled " + id, "555-" + id, "J" + id, TokenSource.WALK_IN, slot);
+        token.setId(id);
+        return token;
+    }
+
+    private static void append(AllocationJournal journal, Token token, TokenStatus from, TokenStatus to) {
+        token.setStatus(to);
+        journal.append(token, from);
+    }
+
+    private static AllocationJournal journal(Path dir) throws Exception {
+        return new AllocationJournal(new SimpleMeterRegistry(), dir, 1, FsyncPolicy.NONE, 50);
+    }
+
+    // A second engine over the same beans, as a new process would build it, reading the given journal
+    private InMemoryTokenAllocator restarted(AllocationJournal journal) {
+        StaticListableBeanFactory journals = new StaticListableBeanFactory(Map.of("journal", journal));
+        return restarted(writeBehind.getObject(), journals.getBeanProvider(AllocationJournal.class));
+    }
+
+    private InMemoryTokenAllocator restarted(TokenWriteBehind writes, ObjectProvider<AllocationJournal> journals) {
+        return new InMemoryTokenAllocator(timeSlotRepository, tokenRepository, archivedTokenRepository, tokenBatchWriter,
+                writes, slotClosureWriter, slotLocks, metrics, events, availabilityCache, journals, cluster, snapshot);
+    }
+
+    private static void awaitBlocked(Thread thread) {
+        while (thread.getState() != Thread.State.WAITING) {
+            Thread.onSpinWait();
+        }
+    }
+}
@@ -0,0 +1,333 @@
+package com.hospital.opd.service;
+
+import com.hospital.opd.cluster.ClusterMembership;
+import com.hospital.opd.domain.Doctor;
+import com.hospital.opd.domain.Token;
+import com.hospital.opd.domain.enums.TokenSource;
+import com.hospital.opd.domain.enums.TokenStatus;
+import com.hospital.opd.dto.BookingRequest;
+import com.hospital.opd.dto.BookingResult;
+import com.hospital.opd.dto.SlotClosureResult;
+import com.hospital.opd.dto.TokenHistory;
+import com.hospital.opd.engine.TokenWriteBehind;
+import com.hospital.opd.job.TokenArchiveJob;
+import com.hospital.opd.repository.ArchivedTokenRepository;
+import com.hospital.opd.repository.DoctorRepository;
+import com.hospital.opd.repository.SlotCounters;
+import com.hospital.opd.repository.TimeSlotRepository;
+import com.hospital.opd.repository.TokenArchiver;
+import com.hospital.opd.repository.TokenRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Allocation rules both engines must share. Subclasses pick the engine and a database of their own;
+ * the test profile turns background jobs off so only the test touches the slots.
+ */
+@SpringBootTest
+@ActiveProfiles("test")
+public abstract class AbstractTokenAllocatorTest {
+    private static final AtomicInteger PATIENTS = new AtomicInteger();
+
+    @Autowired
+    protected ScheduleService scheduleService;
+    @Autowired
+    protected TokenAllocator allocator;
+    @Autowired
+    protected TimeSlotRepository timeSlotRepository;
+    @Autowired
+    protected TokenRepository tokenRepository;
+    @Autowired
+    protected ObjectProvider<TokenWriteBehind> writeBehind;
+    @Autowired
+    private TokenArchiver tokenArchiver;
+    @Autowired
+    private ArchivedTokenRepository archivedTokenRepository;
+    @Autowired
+    private DoctorRepository doctorRepository;
+    @Autowired
+    private TokenHistoryService tokenHistoryService;
+    @Autowired
+    private ObjectProvider<ClusterMembership> cluster;
+    @Autowired
+    private ApplicationEventPublisher events;
+
+    @Test
+    void concurrentBookingsNeverOverbook() throws Exception {
+        Long slotId = slot(5);
+        int bookings = 24;
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<Token>> booked = new ArrayList<>();
+            for (int i = 0; i < bookings; i++) {
+                booked.add(pool.submit(() -> {
+                    start.await();
+                    return book(slotId, TokenSource.ONLINE);
+                }));
+            }
+            start.countDown();
+            for (Future<Token> f : booked) {
+                f.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+
+        SlotCounters counters = storedCounters(slotId);
+        assertEquals(5, counters.getActiveCount());
+        assertEquals(bookings - 5, counters.getWaitlistCount());
+        assertCountersMatchRows(slotId);
+    }
+
+    @Test
+    void releasingATerminalTokenChangesNothing() {
+        Long slotId = slot(1);
+        Token cancelled = book(slotId, TokenSource.WALK_IN);
+        Token waiting = book(slotId, TokenSource.WALK_IN);
+        scheduleService.cancelToken(cancelled.getId());
+
+        scheduleService.markNoShow(cancelled.getId());
+
+        assertEquals(TokenStatus.CANCELLED, storedStatus(cancelled.getId()));
+        assertEquals(TokenStatus.ACTIVE, storedStatus(waiting.getId()));
+        SlotCounters counters = storedCounters(slotId);
+        assertEquals(1, counters.getActiveCount());
+        assertEquals(0, counters.getWaitlistCount());
+        assertCountersMatchRows(slotId);
+    }
+
+    @Test
+    void cancellingAnActiveTokenPromotesTheHeadOfTheWaitlist() {
+        Long slotId = slot(1);
+        Token active = book(slotId, TokenSource.WALK_IN);
+        Token walkIn = book(slotId, TokenSource.WALK_IN);
+        Token followUp = book(slotId, TokenSource.FOLLOW_UP);
+
+        scheduleService.cancelToken(active.getId());
+
+        assertEquals(TokenStatus.CANCELLED, storedStatus(active.getId()));
+        assertEquals(TokenStatus.ACTIVE, storedStatus(followUp.getId()));
+        assertEquals(TokenStatus.WAITLIST, storedStatus(walkIn.getId()));
+        SlotCounters counters = storedCounters(slotId);
+        assertEquals(1, counters.getActiveCount());
+        assertEquals(1, counters.getWaitlistCount());
+        assertCountersMatchRows(slotId);
+    }
+
+    @Test
+    void emergencyIntoAFullSlotBumpsTheLowestPriorityPatient() {
+        Long slotId = slot(2);
+        Token paid = book(slotId, TokenSource.PAID);
+        Token walkIn = book(slotId, TokenSource.WALK_IN);
+
+        Token emergency = book(slotId, TokenSource.EMERGENCY);
+
+        assertEquals(TokenStatus.ACTIVE, emergency.getStatus());
+        assertEquals(TokenStatus.ACTIVE, storedStatus(paid.getId()));
+        assertEquals(TokenStatus.WAITLIST, storedStatus(walkIn.getId()));
+        SlotCounters counters = storedCounters(slotId);
+        assertEquals(2, counters.getActiveCount());
+        assertEquals(1, counters.getWaitlistCount());
+        assertCountersMatchRows(slotId);
+    }
+
+    @Test
+    void sweepMarksTheActiveTokensOfAnEndedSlotNoShow() {
+        Long slotId = slot(LocalDate.now().minusDays(1), 2);
+        Token first = book(slotId, TokenSource.WALK_IN);
+        Token second = book(slotId, TokenSource.ONLINE);
+
+        assertEquals(2, allocator.expireActive(List.of(slotId)));
+
+        assertEquals(TokenStatus.NO_SHOW, storedStatus(first.getId()));
+        assertEquals(TokenStatus.NO_SHOW, storedStatus(second.getId()));
+        assertEquals(0, storedCounters(slotId).getActiveCount());
+        assertCountersMatchRows(slotId);
+    }
+
+    @Test
+    void sweepExpiresTheWaitlistOfAnEndedSlotInsteadOfPromotingIt() {
+        Long slotId = slot(LocalDate.now().minusDays(1), 1);
+        Token active = book(slotId, TokenSource.WALK_IN);
+        Token waiting = book(slotId, TokenSource.WALK_IN);
+        assertEquals(TokenStatus.WAITLIST, waiting.getStatus());
+
+        assertEquals(2, allocator.expireActive(List.of(slotId)));
+
+        SlotCounters counters = storedCounters(slotId);
+        assertEquals(0, counters.getActiveCount());
+        assertEquals(0, counters.getWaitlistCount());
+        assertEquals(TokenStatus.NO_SHOW, storedStatus(active.getId()));
+        assertEquals(TokenStatus.EXPIRED, storedStatus(waiting.getId()));
+        assertCountersMatchRows(slotId);
+    }
+
+    @Test
+    void closingASlotRehomesItsPatientsToTheDoctorsNextSlot() {
+        Doctor doctor = scheduleService.createDoctor("Dr. Test " + PATIENTS.incrementAndGet(), "General");
+        LocalDate day = LocalDate.now().plusDays(1);
+        Long closing = scheduleService.createSlot(doctor.getId(), day, LocalTime.of(9, 0), LocalTime.of(10, 0), 1).getId();
+        Long next = scheduleService.createSlot(doctor.getId(), day, LocalTime.of(10, 0), LocalTime.of(11, 0), 1).getId();
+        Token active = book(closing, TokenSource.WALK_IN);
+        Token waiting = book(closing, TokenSource.WALK_IN);
+        assertEquals(TokenStatus.WAITLIST, waiting.getStatus());
+
+        SlotClosureResult result = scheduleService.closeSlots(doctor.getId(), null, List.of(closing), SpilloverMode.DOCTOR);
+
+        assertEquals(List.of(closing), result.closedSlots());
+        assertEquals(2, result.cancelled());
+        assertEquals(1, result.rehomed());
+        assertEquals(1, result.waitlisted());
+        assertEquals(0, result.unplaced());
+        result.tokens().forEach(r -> assertEquals(next, r.slotId()));
+        assertEquals(TokenStatus.CANCELLED, storedStatus(active.getId()));
+        assertEquals(TokenStatus.CANCELLED, storedStatus(waiting.getId()));
+        assertThrows(RuntimeException.class, () -> book(closing, TokenSource.WALK_IN));
+
+        SlotCounters closed = storedCounters(closing);
+        assertTrue(closed.isClosed());
+        assertEquals(0, closed.getActiveCount());
+        assertEquals(0, closed.getWaitlistCount());
+        SlotCounters target = storedCounters(next);
+        assertEquals(1, target.getActiveCount());
+        assertEquals(1, target.getWaitlistCount());
+        assertCountersMatchRows(closing);
+        assertCountersMatchRows(next);
+    }
+
+    @Test
+    void archiveMovesTerminalTokensOfPastSlotsAndHistoryStillFindsThem() {
+        String patient = "ARCHIVE-" + PATIENTS.incrementAndGet();
+        Long past = slot(LocalDate.now().minusDays(1), 2);
+        Long current = slot(LocalDate.now(), 2);
+        Token cancelled = allocator.book("Archived", "555-1", patient, TokenSource.WALK_IN, past);
+        Token stillActive = book(past, TokenSource.WALK_IN);
+        Token live = allocator.book("Archived", "555-1", patient, TokenSource.WALK_IN, current);
+        scheduleService.cancelToken(cancelled.getId());
+        Token cancelledToday = book(current, TokenSource.WALK_IN);
+        scheduleService.cancelToken(cancelledToday.getId());
+        writeBehind.ifAvailable(TokenWriteBehind::flush);
+
+        TokenArchiveJob job = new TokenArchiveJob(tokenArchiver, doctorRepository, cluster, events, new SimpleMeterRegistry(), 1000, 24);
+        assertTrue(job.archive() >= 1);
+
+        assertTrue(tokenRepository.findById(cancelled.getId()).isEmpty());
+        assertTrue(archivedTokenRepository.existsById(cancelled.getId()));
+        assertEquals(TokenStatus.ACTIVE, storedStatus(stillActive.getId()));
+        assertEquals(TokenStatus.CANCELLED, storedStatus(cancelledToday.getId()));
+
+        TokenHistory archived = tokenHistoryService.getToken(cancelled.getId());
+        assertTrue(archived.archived());
+        assertEquals(TokenStatus.CANCELLED, archived.status());
+        assertEquals(past, archived.slotId());
+        List<TokenHistory> history = tokenHistoryService.getPatientHistory(patient, 10);
+        assertEquals(List.of(live.getId(), cancelled.getId()), history.stream().map(TokenHistory::tokenId).toList());
+        assertEquals(List.of(false, true), history.stream().map(TokenHistory::archived).toList());
+    }
+
+    @Test
+    void idempotentRetryReportsTheTokensCurrentStatus() {
+        Long slotId = slot(1);
+        String key = "key-" + PATIENTS.incrementAndGet();
+        Token first = scheduleService.bookToken(key, "Retried", "555-1", "RETRY" + key, TokenSource.ONLINE, slotId);
+        scheduleService.cancelToken(first.getId());
+
+        Token retried = scheduleService.bookToken(key, "Retried", "555-1", "RETRY" + key, TokenSource.ONLINE, slotId);
+
+        assertEquals(first.getId(), retried.getId());
+        assertEquals(TokenStatus.CANCELLED, retried.getStatus());
+    }
+
+    @Test
+    void emergencyForAPatientWaitlistedInTheSlotReplacesTheWaitlistedToken() {
+        Long slotId = slot(1);
+        book(slotId, TokenSource.WALK_IN);
+        String patient = "UPGRADE" + PATIENTS.incrementAndGet();
+        Token waiting = scheduleService.bookToken("Upgraded", "555-1", patient, TokenSource.ONLINE, slotId);
+        assertEquals(TokenStatus.WAITLIST, waiting.getStatus());
+
+        Token emergency = scheduleService.bookToken("Upgraded", "555-1", patient, TokenSource.EMERGENCY, slotId);
+
+        assertNotEquals(waiting.getId(), emergency.getId());
+        assertEquals(TokenStatus.ACTIVE, emergency.getStatus());
+        assertEquals(TokenStatus.CANCELLED, storedStatus(waiting.getId()));
+        // The lower-priority booking repeated is answered with the emergency token
+        Token repeated = scheduleService.bookToken("Upgraded", "555-1", patient, TokenSource.ONLINE, slotId);
+        assertEquals(emergency.getId(), repeated.getId());
+        assertCountersMatchRows(slotId);
+    }
+
+    @Test
+    void batchEmergencyForAWaitlistedPatientIsBookedAndAnswersTheirOnlineRequestToo() {
+        Long slotId = slot(1);
+        book(slotId, TokenSource.WALK_IN);
+        String patient = "UPGRADE" + PATIENTS.incrementAndGet();
+        Token waiting = scheduleService.bookToken("Upgraded", "555-1", patient, TokenSource.ONLINE, slotId);
+
+        List<BookingResult> results = scheduleService.bookTokens(List.of(
+                new BookingRequest("Upgraded", "555-1", patient, TokenSource.ONLINE, slotId),
+                new BookingRequest("Upgraded", "555-1", patient, TokenSource.EMERGENCY, slotId)));
+
+        Long emergency = results.get(1).tokenId();
+        assertNotEquals(waiting.getId(), emergency);
+        assertEquals(TokenStatus.ACTIVE, results.get(1).status());
+        assertEquals(emergency, results.get(0).tokenId());
+        assertEquals(TokenStatus.CANCELLED, storedStatus(waiting.getId()));
+        assertEquals(TokenStatus.ACTIVE, storedStatus(emergency));
+        assertCountersMatchRows(slotId);
+    }
+
+    protected Long slot(int capacity) {
+        Doctor doctor = scheduleService.createDoctor("Dr. Test " + PATIENTS.incrementAndGet(), "General");
+        return scheduleService.createSlot(doctor.getId(), LocalTime.of(9, 0), LocalTime.of(10, 0), capacity).getId();
+    }
+
+    protected Long slot(LocalDate date, int capacity) {
+        Doctor doctor = scheduleService.createDoctor("Dr. Test " + PATIENTS.incrementAndGet(), "General");
+        return scheduleService.createSlot(doctor.getId(), date, LocalTime.of(9, 0), LocalTime.of(10, 0), capacity).getId();
+    }
+
+    protected Token book(Long slotId, TokenSource source) {
+        int n = PATIENTS.incrementAndGet();
+        return allocator.book("Patient " + n, "555-" + n, "ID" + n, source, slotId);
+    }
+
+    // Memory mode writes through the write-behind; reads of the tables wait for it
+    protected SlotCounters storedCounters(Long slotId) {
+        writeBehind.ifAvailable(TokenWriteBehind::flush);
+        return timeSlotRepository.findCountersById(slotId).orElseThrow();
+    }
+
+    protected TokenStatus storedStatus(Long tokenId) {
+        writeBehind.ifAvailable(TokenWriteBehind::flush);
+        return tokenRepository.findById(tokenId).orElseThrow().getStatus();
+    }
+
+    protected void assertCountersMatchRows(Long slotId) {
+        SlotCounters counters = storedCounters(slotId);
+        assertEquals(tokenRepository.countByAssignedSlotIdAndStatus(slotId, TokenStatus.ACTIVE), counters.getActiveCount());
+        assertEquals(tokenRepository.countByAssignedSlotIdAndStatus(slotId, TokenStatus.WAITLIST), counters.getWaitlistCount());
+    }
+}
@@ -0,0 +1,10 @@
+package com.hospital.opd.service;
+
+import org.springframework.test.context.TestPropertySource;
+
+@TestPropertySource(properties = {
+        "opd.allocation.mode=jpa",
+        "spring.datasource.url=jdbc:h2:mem:jpa-allocator"
+})
+class JpaTokenAllocatorTest extends AbstractTokenAllocatorTest {
+}
@@ -0,0 +1,74 @@
+package com.hospital.opd.service;
+
+import com.hospital.opd.domain.Doctor;
+import com.hospital.opd.domain.Token;
+import com.hospital.opd.domain.enums.TokenSource;
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.time.LocalTime;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * SQL statements per call in jpa mode, counted by Hibernate statistics; guards against lazy-loading
+ * regressions and N+1 selects. Counted once the reference caches and the patient index are warm,
+ * as they are for every call but a slot's first.
+ */
+@SpringBootTest(properties = {
+        "opd.allocation.mode=jpa",
+        "spring.datasource.url=jdbc:h2:mem:query-count",
+        "spring.jpa.properties.hibernate.generate_statistics=true"
+})
+@ActiveProfiles("test")
+class QueryCountTest {
+    private static final long SCHEDULE_BUDGET = 1;
+    private static final long BOOK_BUDGET = 4;
+    private static final long CANCEL_BUDGET = 5;
+
+    @Autowired
+    private ScheduleService scheduleService;
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    private Statistics stats;
+    private Long doctorId;
+    private Long slotId;
+
+    @BeforeEach
+    void setUp() {
+        stats = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        Doctor doctor = scheduleService.createDoctor("Dr. Query", "General");
+        doctorId = doctor.getId();
+        slotId = scheduleService.createSlot(doctorId, LocalTime.of(9, 0), LocalTime.of(10, 0), 10).getId();
+        scheduleService.bookToken("Warm Up", "000", "WARM-" + slotId, TokenSource.WALK_IN, slotId);
+    }
+
+    @Test
+    void scheduleReadStaysWithinBudget() {
+        long statements = statements(() -> scheduleService.getDoctorSlots(doctorId));
+        assertTrue(statements <= SCHEDULE_BUDGET, "schedule read took " + statements + " statements");
+    }
+
+    @Test
+    void bookingAndCancellationStayWithinBudget() {
+        Token[] booked = new Token[1];
+        long book = statements(() -> booked[0] = scheduleService.bookToken("Query Check", "000", "QC", TokenSource.WALK_IN, slotId));
+        long cancel = statements(() -> scheduleService.cancelToken(booked[0].getId()));
+
+        assertTrue(book <= BOOK_BUDGET, "booking took " + book + " statements");
+        assertTrue(cancel <= CANCEL_BUDGET, "cancellation took " + cancel + " statements");
+    }
+
+    private long statements(Runnable action) {
+        stats.clear();
+        action.run();
+        return stats.getPrepareStatementCount();
+    }
+}
@@ -0,0 +1,77 @@
+package com.hospital.opd.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class SlotLockRegistryTest {
+    // Every lock counts as idle at once
+    private final SlotLockRegistry slotLocks = new SlotLockRegistry(0);
+
+    @Test
+    void idleLocksAreEvictedAndHeldOnesKept() throws Exception {
+        slotLocks.withLock(1L, () -> { });
+        slotLocks.withLock(2L, () -> { });
+        CountDownLatch holding = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<Void> holder = CompletableFuture.runAsync(() -> slotLocks.withLock(3L, () -> {
+            holding.countDown();
+            awaitUninterruptibly(release);
+        }));
+        holding.await(10, TimeUnit.SECONDS);
+
+        assertEquals(2, slotLocks.evictIdle());
+        assertEquals(1, slotLocks.waitStats().size());
+        assertEquals(3L, slotLocks.waitStats().get(0).slotId());
+
+        release.countDown();
+        holder.get(10, TimeUnit.SECONDS);
+        assertEquals(1, slotLocks.evictIdle());
+        assertEquals(0, slotLocks.waitStats().size());
+    }
+
+    // Evictions racing the callers never let two of them into the same slot at once
+    @Test
+    void evictionNeverAdmitsTwoCallersToOneSlot() throws Exception {
+        AtomicInteger inside = new AtomicInteger();
+        AtomicInteger overlaps = new AtomicInteger();
+        Thread evictor = Thread.ofPlatform().start(() -> {
+            while (!Thread.currentThread().isInterrupted()) {
+                slotLocks.evictIdle();
+            }
+        });
+        try {
+            CompletableFuture<?>[] callers = new CompletableFuture<?>[4];
+            for (int c = 0; c < callers.length; c++) {
+                callers[c] = CompletableFuture.runAsync(() -> {
+                    for (int i = 0; i < 10_000; i++) {
+                        slotLocks.withLock(1L, () -> {
+                            if (inside.incrementAndGet() > 1) {
+                                overlaps.incrementAndGet();
+                            }
+                            inside.decrementAndGet();
+                        });
+                    }
+                });
+            }
+            CompletableFuture.allOf(callers).get(60, TimeUnit.SECONDS);
+        } finally {
+            evictor.interrupt();
+            evictor.join();
+        }
+        assertEquals(0, overlaps.get());
+    }
+
+    private static void awaitUninterruptibly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package com.hospital.opd.service;
+
+import com.hospital.opd.domain.Doctor;
+import com.hospital.opd.domain.Token;
+import com.hospital.opd.domain.enums.TokenSource;
+import com.hospital.opd.domain.enums.TokenStatus;
+import com.hospital.opd.repository.TokenRepository;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.time.LocalDate;
+import java.time.LocalTime;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Patient deduplication across spillover: a retried booking that was moved to a later slot the first
+ * time must get the same token back, not a second seat.
+ */
+@SpringBootTest(properties = {
+        "opd.allocation.mode=jpa",
+        "opd.allocation.spillover.mode=doctor",
+        "spring.datasource.url=jdbc:h2:mem:slot-patient-index"
+})
+@ActiveProfiles("test")
+class SlotPatientIndexTest {
+    @Autowired
+    private ScheduleService scheduleService;
+    @Autowired
+    private TokenRepository tokenRepository;
+
+    @Test
+    void retryOfASpilledBookingGetsTheSameToken() {
+        LocalDate date = LocalDate.now().plusDays(1);
+        Doctor doctor = scheduleService.createDoctor("Dr. Spill", "General");
+        Long full = scheduleService.createSlot(doctor.getId(), date, LocalTime.of(9, 0), LocalTime.of(10, 0), 1).getId();
+        Long later = scheduleService.createSlot(doctor.getId(), date, LocalTime.of(10, 0), LocalTime.of(11, 0), 1).getId();
+        scheduleService.bookToken("First", "555-1", "SPILL-1", TokenSource.ONLINE, full);
+
+        Token spilled = scheduleService.bookToken("Second", "555-2", "SPILL-2", TokenSource.ONLINE, full);
+        Token retried = scheduleService.bookToken("Second", "555-2", "SPILL-2", TokenSource.ONLINE, full);
+
+        assertEquals(later, spilled.getAssignedSlot().getId());
+        assertEquals(spilled.getId(), retried.getId());
+        assertEquals(1, tokenRepository.countByAssignedSlotIdAndStatus(later, TokenStatus.ACTIVE));
+        assertEquals(0, tokenRepository.countByAssignedSlotIdAndStatus(full, TokenStatus.WAITLIST));
+    }
+}
@@ -0,0 +1,59 @@
+package com.hospital.opd.service;
+
+import com.hospital.opd.domain.Doctor;
+import com.hospital.opd.dto.SlotGenerationResult;
+import com.hospital.opd.dto.SlotTemplateRequest;
+import com.hospital.opd.repository.TimeSlotRepository;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.EnumSet;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+@SpringBootTest(properties = "spring.datasource.url=jdbc:h2:mem:slot-templates")
+@ActiveProfiles("test")
+class SlotTemplateServiceTest {
+    @Autowired
+    private SlotTemplateService slotTemplateService;
+    @Autowired
+    private ScheduleService scheduleService;
+    @Autowired
+    private TimeSlotRepository timeSlotRepository;
+
+    // Six 20-minute slots a day, every day
+    @Test
+    void generatingARangeAgainOnlyFillsItsGaps() {
+        Doctor doctor = scheduleService.createDoctor("Dr. Template", "General");
+        slotTemplateService.createTemplate(doctor.getId(), new SlotTemplateRequest(EnumSet.allOf(DayOfWeek.class),
+                LocalTime.of(9, 0), LocalTime.of(11, 0), 20, 4));
+        LocalDate from = LocalDate.now().plusDays(30);
+        LocalDate to = from.plusDays(6);
+
+        SlotGenerationResult first = slotTemplateService.generate(from, to);
+        assertEquals(42, first.created());
+        assertEquals(42, slotCount(doctor));
+
+        SlotGenerationResult again = slotTemplateService.generate(from, to);
+        assertEquals(0, again.created());
+        assertEquals(42, again.existing());
+        assertEquals(42, slotCount(doctor));
+
+        // A day with one slot already there, created by hand
+        LocalDate partly = to.plusDays(1);
+        scheduleService.createSlot(doctor.getId(), partly, LocalTime.of(9, 20), LocalTime.of(9, 40), 4);
+        SlotGenerationResult extended = slotTemplateService.generate(from, partly);
+        assertEquals(5, extended.created());
+        assertEquals(43, extended.existing());
+        assertEquals(48, slotCount(doctor));
+    }
+
+    private int slotCount(Doctor doctor) {
+        return timeSlotRepository.findViewsByDoctorId(doctor.getId()).size();
+    }
+}
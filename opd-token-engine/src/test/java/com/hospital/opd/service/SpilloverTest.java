@@ -0,0 +1,43 @@
+package com.hospital.opd.service;
+
+import com.hospital.opd.domain.Doctor;
+import com.hospital.opd.domain.Token;
+import com.hospital.opd.domain.enums.TokenSource;
+import com.hospital.opd.domain.enums.TokenStatus;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.time.LocalTime;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:spillover",
+        "opd.allocation.spillover.mode=DOCTOR"
+})
+@ActiveProfiles("test")
+class SpilloverTest {
+    @Autowired
+    private ScheduleService scheduleService;
+
+    @Test
+    void bookingForAFullSlotMovesToTheDoctorsNextSlotThenWaitlists() {
+        Doctor doctor = scheduleService.createDoctor("Dr. Spillover", "General");
+        Long requested = scheduleService.createSlot(doctor.getId(), LocalTime.of(9, 0), LocalTime.of(10, 0), 1).getId();
+        Long next = scheduleService.createSlot(doctor.getId(), LocalTime.of(10, 0), LocalTime.of(11, 0), 1).getId();
+
+        Token first = scheduleService.bookToken("First", "555-1", "SPILL1", TokenSource.ONLINE, requested);
+        Token spilled = scheduleService.bookToken("Second", "555-2", "SPILL2", TokenSource.ONLINE, requested);
+        Token waiting = scheduleService.bookToken("Third", "555-3", "SPILL3", TokenSource.ONLINE, requested);
+
+        assertEquals(TokenStatus.ACTIVE, first.getStatus());
+        assertEquals(requested, first.getAssignedSlot().getId());
+        assertEquals(TokenStatus.ACTIVE, spilled.getStatus());
+        assertEquals(next, spilled.getAssignedSlot().getId());
+        // Every later slot is full too, so the patient waits for the slot they asked for
+        assertEquals(TokenStatus.WAITLIST, waiting.getStatus());
+        assertEquals(requested, waiting.getAssignedSlot().getId());
+    }
+}
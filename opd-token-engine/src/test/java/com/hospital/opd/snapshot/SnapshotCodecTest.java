@@ -0,0 +1,110 @@
+package com.hospital.opd.snapshot;
+
+import com.hospital.opd.domain.Doctor;
+import com.hospital.opd.domain.SlotTemplate;
+import com.hospital.opd.domain.TimeSlot;
+import com.hospital.opd.domain.Token;
+import com.hospital.opd.domain.enums.TokenSource;
+import com.hospital.opd.domain.enums.TokenStatus;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SnapshotCodecTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    void roundTripKeepsEveryRowAndTheSequences() throws IOException {
+        Path file = dir.resolve("state.snapshot");
+        SnapshotCodec.write(file, contents());
+
+        SnapshotCodec.Contents read = SnapshotCodec.read(file);
+
+        assertEquals(42, read.journalPosition());
+        assertEquals(Map.of("token_seq", 351L, "time_slot_seq", 51L), read.sequences());
+        assertEquals("Dr. Rao", read.doctors().get(0).getName());
+        assertEquals(LocalTime.of(13, 0), read.templates().get(0).getSessionEnd());
+        TimeSlot slot = read.slots().get(0);
+        assertEquals(LocalDate.of(2026, 3, 2), slot.getSlotDate());
+        assertTrue(slot.isClosed());
+        Token token = read.tokens().get(0);
+        assertEquals(300L, token.getId());
+        assertEquals(TokenSource.FOLLOW_UP, token.getSource());
+        assertEquals(TokenStatus.WAITLIST, token.getStatus());
+        assertEquals(LocalDateTime.of(2026, 3, 2, 9, 15, 30, 123_456_000), token.getCreatedAt());
+        assertNull(token.getUserIdNumber());
+        assertEquals(slot, token.getAssignedSlot());
+    }
+
+    @Test
+    void flippedByteFailsTheChecksum() throws IOException {
+        Path file = dir.resolve("state.snapshot");
+        SnapshotCodec.write(file, contents());
+        byte[] bytes = Files.readAllBytes(file);
+        bytes[bytes.length - 12] ^= 1;
+        Files.write(file, bytes);
+
+        IOException e = assertThrows(IOException.class, () -> SnapshotCodec.read(file));
+        assertTrue(e.getMessage().contains("checksum"));
+    }
+
+    @Test
+    void tornFileIsRejected() throws IOException {
+        Path file = dir.resolve("state.snapshot");
+        SnapshotCodec.write(file, contents());
+        byte[] bytes = Files.readAllBytes(file);
+        Files.write(file, Arrays.copyOf(bytes, bytes.length / 2));
+
+        assertThrows(IOException.class, () -> SnapshotCodec.read(file));
+    }
+
+    @Test
+    void otherVersionIsRejected() throws IOException {
+        Path file = dir.resolve("state.snapshot");
+        SnapshotCodec.write(file, contents());
+        byte[] bytes = Files.readAllBytes(file);
+        // The version follows the 4-byte magic
+        bytes[5]++;
+        Files.write(file, bytes);
+
+        IOException e = assertThrows(IOException.class, () -> SnapshotCodec.read(file));
+        assertTrue(e.getMessage().contains("version"));
+    }
+
+    private static SnapshotCodec.Contents contents() {
+        Doctor doctor = new Doctor("Dr. Rao", "Cardiology");
+        doctor.setId(1L);
+        SlotTemplate template = new SlotTemplate();
+        template.setId(2L);
+        template.setDoctor(doctor);
+        template.setDaysOfWeek(0b0011111);
+        template.setSessionStart(LocalTime.of(9, 0));
+        template.setSessionEnd(LocalTime.of(13, 0));
+        template.setSlotMinutes(60);
+        template.setCapacity(6);
+        TimeSlot slot = new TimeSlot(doctor, LocalDate.of(2026, 3, 2), LocalTime.of(9, 0), LocalTime.of(10, 0), 6);
+        slot.setId(3L);
+        slot.setClosed(true);
+        Token token = new Token("Asha", "555-0101", null, TokenSource.FOLLOW_UP, slot);
+        token.setId(300L);
+        token.setStatus(TokenStatus.WAITLIST);
+        token.setCreatedAt(LocalDateTime.of(2026, 3, 2, 9, 15, 30, 123_456_000));
+        return new SnapshotCodec.Contents(1_000L, 42, Map.of("token_seq", 351L, "time_slot_seq", 51L),
+                List.of(doctor), List.of(template), List.of(slot), List.of(token));
+    }
+}